@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilderSpec;
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.CachingAuthenticator;
+import io.dropwizard.auth.basic.BasicCredentials;
+import io.dropwizard.jackson.Jackson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.flax.tika.auth.BasicAuthenticator;
+import uk.co.flax.tika.auth.CredentialStore;
+import uk.co.flax.tika.auth.HashedCredentialsAuthenticator;
+import uk.co.flax.tika.auth.PasswordHash;
+import uk.co.flax.tika.auth.User;
+import uk.co.flax.tika.config.AuthenticationConfiguration;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the authentication overhead per request: the single user
+ * from the system properties, checked with a plain comparison; a user from
+ * the credentials file, checking the PBKDF2 hash every time; and the same
+ * user found in the cache of checked credentials, as for every request after
+ * a user's first. The cached benchmark cycles through {@link #USERS} users,
+ * and runs on four threads, as the cache would be used by the server.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="AuthenticatorBenchmark"
+ * </pre>
+ *
+ * @author mlp
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthenticatorBenchmark {
+
+	static final int USERS = 1000;
+
+	Path credentialsFile;
+	List<BasicCredentials> credentials = new ArrayList<>();
+	Authenticator<BasicCredentials, User> systemProperty;
+	Authenticator<BasicCredentials, User> hashed;
+	Authenticator<BasicCredentials, User> cached;
+
+	@Setup
+	public void buildAuthenticators() throws Exception {
+		System.setProperty(AuthenticationConfiguration.DEFAULT_USERNAME_PROP, "user0");
+		System.setProperty(AuthenticationConfiguration.DEFAULT_PASSWORD_PROP, "password0");
+		systemProperty = new BasicAuthenticator(Jackson.newObjectMapper()
+				.readValue("{\"enabled\": true}", AuthenticationConfiguration.class));
+
+		// Only the first user needs the full hash cost - the rest are only read from the cache
+		final List<String> lines = new ArrayList<>();
+		for (int i = 0; i < USERS; i++) {
+			final String password = "password" + i;
+			lines.add("user" + i + ":" + PasswordHash.create(password.toCharArray(),
+					i == 0 ? PasswordHash.DEFAULT_ITERATIONS : 1000));
+			credentials.add(new BasicCredentials("user" + i, password));
+		}
+		credentialsFile = Files.createTempFile("credentials", ".txt");
+		Files.write(credentialsFile, lines, StandardCharsets.UTF_8);
+
+		hashed = new HashedCredentialsAuthenticator(new CredentialStore(credentialsFile));
+		cached = new CachingAuthenticator<>(new MetricRegistry(), hashed,
+				CacheBuilderSpec.parse(AuthenticationConfiguration.DEFAULT_CACHE_POLICY));
+		for (BasicCredentials user : credentials) {
+			cached.authenticate(user);
+		}
+	}
+
+	@TearDown
+	public void deleteCredentials() throws Exception {
+		Files.deleteIfExists(credentialsFile);
+	}
+
+	/**
+	 * Per-thread position in the list of users.
+	 */
+	@State(Scope.Thread)
+	public static class NextUser {
+
+		int next;
+
+		BasicCredentials next(List<BasicCredentials> credentials) {
+			next = (next + 1) % credentials.size();
+			return credentials.get(next);
+		}
+	}
+
+	@Benchmark
+	public Optional<User> systemProperty() throws Exception {
+		return systemProperty.authenticate(credentials.get(0));
+	}
+
+	@Benchmark
+	public Optional<User> hashed() throws Exception {
+		return hashed.authenticate(credentials.get(0));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Optional<User> cached(NextUser user) throws Exception {
+		return cached.authenticate(user.next(credentials));
+	}
+
+}
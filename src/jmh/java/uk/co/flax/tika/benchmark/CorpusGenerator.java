@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the benchmark corpus in <code>src/jmh/resources/corpus</code> -
+ * PDF, DOCX, XLSX, HTML, plain text and ZIP files in three sizes, filled
+ * with pseudo-random English-like text. The text is generated from a fixed
+ * seed, so regenerating the corpus gives the same content.
+ * <p>
+ * The generated files are checked in, so this only needs to be run if the
+ * corpus changes:
+ * <pre>
+ * mvn -Pjmh test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=uk.co.flax.tika.benchmark.CorpusGenerator -Dexec.args="src/jmh/resources/corpus"
+ * </pre>
+ *
+ * @author mlp
+ */
+public class CorpusGenerator {
+
+	/** The document sizes, with the number of paragraphs in each. */
+	static final String[] SIZES = { "small", "medium", "large" };
+	private static final int[] PARAGRAPHS = { 4, 100, 1000 };
+
+	private static final String[] WORDS = {
+			"the", "of", "and", "to", "in", "document", "server", "text", "extract", "parser", "content",
+			"metadata", "request", "response", "quick", "brown", "fox", "jumps", "over", "lazy", "dog",
+			"performance", "latency", "throughput", "memory", "thread", "pool", "cache", "index", "search",
+			"report", "quarterly", "revenue", "customer", "contract", "invoice", "schedule", "meeting"
+	};
+
+	private static final int WORDS_PER_PARAGRAPH = 80;
+	private static final int PDF_LINE_LENGTH = 95;
+	private static final int PDF_LINES_PER_PAGE = 60;
+
+	public static void main(String... args) throws Exception {
+		final File dir = new File(args.length > 0 ? args[0] : "src/jmh/resources/corpus");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+
+		for (int i = 0; i < SIZES.length; i++) {
+			final String title = "Benchmark document (" + SIZES[i] + ")";
+			final List<String> paragraphs = buildParagraphs(PARAGRAPHS[i], i);
+
+			final byte[] text = buildText(paragraphs);
+			final byte[] html = buildHtml(title, paragraphs);
+			final byte[] docx = buildDocx(title, paragraphs);
+			write(dir, SIZES[i] + ".txt", text);
+			write(dir, SIZES[i] + ".html", html);
+			write(dir, SIZES[i] + ".docx", docx);
+			write(dir, SIZES[i] + ".pdf", buildPdf(title, paragraphs));
+			write(dir, SIZES[i] + ".xlsx", buildXlsx(paragraphs));
+			write(dir, SIZES[i] + ".zip", buildZip(text, html, docx));
+		}
+	}
+
+	private static List<String> buildParagraphs(int count, long seed) {
+		final Random random = new Random(seed);
+		final List<String> ret = new ArrayList<>(count);
+		for (int p = 0; p < count; p++) {
+			final StringBuilder paragraph = new StringBuilder();
+			for (int w = 0; w < WORDS_PER_PARAGRAPH; w++) {
+				String word = WORDS[random.nextInt(WORDS.length)];
+				if (w == 0) {
+					word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+				} else {
+					paragraph.append(' ');
+				}
+				paragraph.append(word);
+				if (w % 16 == 15 || w == WORDS_PER_PARAGRAPH - 1) {
+					paragraph.append('.');
+				}
+			}
+			ret.add(paragraph.toString());
+		}
+		return ret;
+	}
+
+	private static byte[] buildText(List<String> paragraphs) {
+		final StringBuilder text = new StringBuilder();
+		for (String paragraph : paragraphs) {
+			text.append(paragraph).append("\n\n");
+		}
+		return text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] buildHtml(String title, List<String> paragraphs) {
+		final StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\">")
+				.append("<title>").append(title).append("</title>")
+				.append("<meta name=\"author\" content=\"Benchmark\"></head>\n<body>\n<h1>").append(title).append("</h1>\n");
+		for (String paragraph : paragraphs) {
+			html.append("<p>").append(paragraph).append("</p>\n");
+		}
+		return html.append("</body></html>\n").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] buildDocx(String title, List<String> paragraphs) throws IOException {
+		try (XWPFDocument doc = new XWPFDocument()) {
+			doc.getProperties().getCoreProperties().setTitle(title);
+			doc.getProperties().getCoreProperties().setCreator("Benchmark");
+			doc.getProperties().getCoreProperties().setCreated("2016-01-01T00:00:00Z");
+			for (String paragraph : paragraphs) {
+				doc.createParagraph().createRun().setText(paragraph);
+			}
+			return toBytes(doc);
+		}
+	}
+
+	private static byte[] buildXlsx(List<String> paragraphs) throws IOException {
+		try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+			final XSSFSheet sheet = workbook.createSheet("Benchmark");
+			int rowNum = 0;
+			for (String paragraph : paragraphs) {
+				// One row per sentence, with a few numeric columns
+				for (String sentence : paragraph.split("\\. ?")) {
+					final XSSFRow row = sheet.createRow(rowNum);
+					row.createCell(0).setCellValue(rowNum + 1);
+					row.createCell(1).setCellValue(sentence);
+					row.createCell(2).setCellValue(sentence.length());
+					row.createCell(3).setCellValue(sentence.length() * 1.5);
+					rowNum++;
+				}
+			}
+			return toBytes(workbook);
+		}
+	}
+
+	private static byte[] buildPdf(String title, List<String> paragraphs) throws IOException {
+		return writePdf(title, wrapParagraphs(paragraphs));
+	}
+
+	/**
+	 * Build a PDF with exactly the given number of full pages of text, for
+	 * benchmarks needing longer documents than the corpus holds.
+	 * @param title the document title.
+	 * @param pages the number of pages.
+	 * @return the PDF.
+	 */
+	static byte[] buildPdf(String title, int pages) throws IOException {
+		final int lineCount = pages * PDF_LINES_PER_PAGE;
+		// Every paragraph wraps onto several lines, so this is always enough
+		final List<String> lines = wrapParagraphs(buildParagraphs(lineCount / 4, pages));
+		return writePdf(title, lines.subList(0, lineCount));
+	}
+
+	private static List<String> wrapParagraphs(List<String> paragraphs) {
+		final List<String> lines = new ArrayList<>();
+		for (String paragraph : paragraphs) {
+			wrap(paragraph, lines);
+			lines.add("");
+		}
+		return lines;
+	}
+
+	private static byte[] writePdf(String title, List<String> lines) throws IOException {
+		try (PDDocument doc = new PDDocument()) {
+			final PDDocumentInformation info = new PDDocumentInformation();
+			info.setTitle(title);
+			info.setAuthor("Benchmark");
+			final Calendar created = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+			created.clear();
+			created.set(2016, Calendar.JANUARY, 1);
+			info.setCreationDate(created);
+			doc.setDocumentInformation(info);
+
+			for (int start = 0; start < lines.size(); start += PDF_LINES_PER_PAGE) {
+				final PDPage page = new PDPage();
+				doc.addPage(page);
+				try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+					content.beginText();
+					content.setFont(PDType1Font.HELVETICA, 10);
+					content.setLeading(12);
+					content.newLineAtOffset(50, 750);
+					for (String line : lines.subList(start, Math.min(lines.size(), start + PDF_LINES_PER_PAGE))) {
+						content.showText(line);
+						content.newLine();
+					}
+					content.endText();
+				}
+			}
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			doc.save(out);
+			return out.toByteArray();
+		}
+	}
+
+	private static void wrap(String paragraph, List<String> lines) {
+		StringBuilder line = new StringBuilder();
+		for (String word : paragraph.split(" ")) {
+			if (line.length() + word.length() + 1 > PDF_LINE_LENGTH) {
+				lines.add(line.toString());
+				line = new StringBuilder();
+			}
+			if (line.length() > 0) {
+				line.append(' ');
+			}
+			line.append(word);
+		}
+		lines.add(line.toString());
+	}
+
+	private static byte[] buildZip(byte[] text, byte[] html, byte[] docx) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out)) {
+			addEntry(zip, "document.txt", text);
+			addEntry(zip, "document.html", html);
+			addEntry(zip, "document.docx", docx);
+		}
+		return out.toByteArray();
+	}
+
+	private static void addEntry(ZipOutputStream zip, String name, byte[] content) throws IOException {
+		final ZipEntry entry = new ZipEntry(name);
+		entry.setTime(0);
+		zip.putNextEntry(entry);
+		zip.write(content);
+		zip.closeEntry();
+	}
+
+	private static byte[] toBytes(XWPFDocument doc) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		doc.write(out);
+		return out.toByteArray();
+	}
+
+	private static byte[] toBytes(XSSFWorkbook workbook) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		workbook.write(out);
+		return out.toByteArray();
+	}
+
+	private static void write(File dir, String name, byte[] content) throws IOException {
+		try (OutputStream out = new FileOutputStream(new File(dir, name))) {
+			out.write(content);
+		}
+	}
+
+}
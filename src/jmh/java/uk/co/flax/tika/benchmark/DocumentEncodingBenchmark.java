@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import com.google.common.io.ByteStreams;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.jackson.JacksonMessageBodyProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.resources.BinaryDocumentWriter;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import javax.validation.Validation;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+
+/**
+ * JMH benchmark comparing the cost of writing extracted documents as JSON,
+ * through Dropwizard's Jackson provider as the server does, with the binary
+ * encodings written by {@link BinaryDocumentWriter}. Each corpus document is
+ * extracted in fulldata mode before it is measured. The size of each encoded
+ * document, and its size relative to the JSON, is printed during setup.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="-prof gc DocumentEncodingBenchmark"
+ * </pre>
+ *
+ * @author mlp
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentEncodingBenchmark {
+
+	@Param({ "small.pdf", "large.txt", "large.html", "large.pdf", "large.docx", "large.xlsx", "large.zip" })
+	String document;
+
+	@Param({ "json", "smile", "cbor", "msgpack" })
+	String encoding;
+
+	TikaDocument extracted;
+	MessageBodyWriter<? super TikaDocument> writer;
+	MediaType mediaType;
+
+	@Setup
+	public void setup() throws Exception {
+		final byte[] content;
+		try (InputStream input = DocumentEncodingBenchmark.class.getResourceAsStream("/corpus/" + document)) {
+			if (input == null) {
+				throw new IOException("No such corpus document: " + document);
+			}
+			content = ByteStreams.toByteArray(input);
+		}
+
+		final TikaExtractor extractor = new TikaExtractor(new TikaParserRegistry(),
+				TikaExtractor.buildMetadata(document, null), new ByteArrayInputStream(content), FULLDATA_OPKEY);
+		extractor.extract();
+		extracted = extractor.buildDocument();
+
+		final MessageBodyWriter<Object> json = new JacksonMessageBodyProvider(Jackson.newObjectMapper(),
+				Validation.buildDefaultValidatorFactory().getValidator());
+		switch (encoding) {
+			case "json":
+				writer = json;
+				mediaType = MediaType.APPLICATION_JSON_TYPE;
+				break;
+			case "smile":
+				writer = new BinaryDocumentWriter.Smile();
+				mediaType = MediaType.valueOf(BinaryDocumentWriter.SMILE);
+				break;
+			case "cbor":
+				writer = new BinaryDocumentWriter.Cbor();
+				mediaType = MediaType.valueOf(BinaryDocumentWriter.CBOR);
+				break;
+			case "msgpack":
+				writer = new BinaryDocumentWriter.MessagePack();
+				mediaType = MediaType.valueOf(BinaryDocumentWriter.MSGPACK);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown encoding " + encoding);
+		}
+
+		final int jsonSize = write(json, MediaType.APPLICATION_JSON_TYPE).size();
+		final int size = write().size();
+		System.out.printf("%n%s as %s: %d bytes (%.1f%% of JSON)%n", document, encoding, size,
+				100.0 * size / jsonSize);
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream write() throws IOException {
+		return write(writer, mediaType);
+	}
+
+	private ByteArrayOutputStream write(MessageBodyWriter<? super TikaDocument> documentWriter, MediaType type)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		documentWriter.writeTo(extracted, TikaDocument.class, TikaDocument.class, null, type, null, out);
+		return out;
+	}
+
+}
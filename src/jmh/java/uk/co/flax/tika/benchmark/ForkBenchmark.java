@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.ForkConfiguration;
+import uk.co.flax.tika.service.fork.ForkWorkerPool;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+
+/**
+ * JMH benchmarks comparing extraction in the server JVM with the pool of
+ * worker processes, for a small and a medium-sized document. The benchmarks
+ * run with {@value #THREADS} threads, and the pool has the same number of
+ * workers.
+ * <p>
+ * Run it alone with:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="ForkBenchmark"
+ * </pre>
+ *
+ * @author mlp
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(ForkBenchmark.THREADS)
+public class ForkBenchmark {
+
+	static final int THREADS = 4;
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	/**
+	 * The shared parser registry, for in-process extraction.
+	 */
+	@State(Scope.Benchmark)
+	public static class Registry {
+
+		TikaParserRegistry registry;
+
+		@Setup
+		public void buildRegistry() throws Exception {
+			registry = new TikaParserRegistry();
+		}
+	}
+
+	/**
+	 * The pool of worker processes, started before the benchmark.
+	 */
+	@State(Scope.Benchmark)
+	public static class Pool {
+
+		ForkWorkerPool pool;
+
+		@Setup
+		public void startPool() throws Exception {
+			final ForkConfiguration config = MAPPER.readValue("{\"workers\": " + THREADS + ", \"maxDocuments\": 0}",
+					ForkConfiguration.class);
+			pool = new ForkWorkerPool(config, null, MAPPER, new MetricRegistry());
+			pool.start();
+		}
+
+		@TearDown
+		public void stopPool() throws Exception {
+			pool.stop();
+		}
+	}
+
+	/**
+	 * The document to extract.
+	 */
+	@State(Scope.Benchmark)
+	public static class Document {
+
+		@Param({ "small", "medium" })
+		String size;
+
+		byte[] content;
+
+		@Setup
+		public void buildDocument() {
+			final StringBuilder html = new StringBuilder("<html><head><title>Benchmark</title></head><body>");
+			if (size.equals("small")) {
+				html.append("<p>A small document, typical of the requests we see.</p>");
+			} else {
+				for (int i = 0; i < 2000; i++) {
+					html.append("<p>Paragraph ").append(i).append(" of a medium-sized document, with some text.</p>\n");
+				}
+			}
+			content = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@Benchmark
+	public TikaDocument inProcess(Registry registry, Document document) throws Exception {
+		final TikaExtractor extractor = new TikaExtractor(registry.registry,
+				TikaExtractor.buildMetadata("benchmark.html", null), new ByteArrayInputStream(document.content),
+				FULLDATA_OPKEY);
+		extractor.extract();
+		return extractor.buildDocument();
+	}
+
+	@Benchmark
+	public TikaDocument forked(Pool pool, Document document) throws Exception {
+		return pool.pool.extract(FULLDATA_OPKEY, TikaExtractor.buildMetadata("benchmark.html", null),
+				new ByteArrayInputStream(document.content), 0, null);
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.tika.PageRange;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import static uk.co.flax.tika.resources.TikaResource.TEXT_OPKEY;
+
+/**
+ * JMH benchmark comparing the time taken to extract the text of a range of
+ * pages from a 1,000 page PDF with extracting the whole document. The PDF is
+ * generated when the benchmark starts (see {@link CorpusGenerator#buildPdf(String, int)}),
+ * rather than being checked in with the corpus.
+ * <p>
+ * Run alone with:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="PageRangeBenchmark"
+ * </pre>
+ *
+ * @author mlp
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageRangeBenchmark {
+
+	private static final int PAGES = 1000;
+
+	/** The pages to extract, or <code>all</code> for the whole document. */
+	@Param({ "all", "1", "1-10", "500-509", "991-1000" })
+	String pages;
+
+	private TikaParserRegistry registry;
+	private byte[] document;
+	private PageRange range;
+
+	@Setup
+	public void setup() throws Exception {
+		registry = new TikaParserRegistry();
+		document = CorpusGenerator.buildPdf("Page range benchmark", PAGES);
+		range = ("all".equals(pages) ? null : PageRange.parse(pages));
+		System.out.printf("%nDocument: %d pages, %d bytes%n", PAGES, document.length);
+	}
+
+	@Benchmark
+	public TikaDocument extractText() throws Exception {
+		final TikaExtractor extractor = new TikaExtractor(registry, TikaExtractor.buildMetadata("document.pdf", null),
+				new ByteArrayInputStream(document), TEXT_OPKEY);
+		extractor.setPageRange(range);
+		extractor.extract();
+		return extractor.buildDocument();
+	}
+
+}
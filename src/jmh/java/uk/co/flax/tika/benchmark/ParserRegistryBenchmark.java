@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaMetadataKeys;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+
+/**
+ * JMH benchmarks comparing small-document extraction when building the Tika
+ * configuration and parser for every request (the original behaviour)
+ * against using the shared {@link TikaParserRegistry}.
+ * <p>
+ * Run it alone with:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="-prof gc ParserRegistryBenchmark"
+ * </pre>
+ *
+ * @author mlp
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserRegistryBenchmark {
+
+	private static final byte[] DOCUMENT = ("<html><head><title>Benchmark</title></head>"
+			+ "<body><p>A small document, typical of the requests we see.</p></body></html>")
+			.getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * The shared parser registry, as used by the server.
+	 */
+	@State(Scope.Benchmark)
+	public static class Registry {
+
+		TikaParserRegistry registry;
+
+		@Setup
+		public void buildRegistry() throws Exception {
+			registry = new TikaParserRegistry();
+		}
+	}
+
+	/**
+	 * The original extraction path for an octet-stream upload.
+	 */
+	@Benchmark
+	public Metadata extractPerRequest() throws Exception {
+		final AutoDetectParser parser = new AutoDetectParser(new TikaConfig().getMimeRepository());
+		final ParseContext context = new ParseContext();
+		context.set(Parser.class, parser);
+		final Metadata metadata = new Metadata();
+		metadata.set(TikaMetadataKeys.RESOURCE_NAME_KEY, "benchmark.html");
+		parser.parse(new ByteArrayInputStream(DOCUMENT), new BodyContentHandler(new StringWriter()), metadata, context);
+		return metadata;
+	}
+
+	@Benchmark
+	public TikaDocument extractShared(Registry registry) throws Exception {
+		final TikaExtractor extractor = new TikaExtractor(registry.registry,
+				TikaExtractor.buildMetadata("benchmark.html", null), new ByteArrayInputStream(DOCUMENT),
+				FULLDATA_OPKEY);
+		extractor.extract();
+		return extractor.buildDocument();
+	}
+
+}
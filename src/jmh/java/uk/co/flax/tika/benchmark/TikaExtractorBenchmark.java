@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import com.google.common.io.ByteStreams;
+import org.apache.tika.mime.MediaType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static uk.co.flax.tika.resources.TikaResource.DETECT_OPKEY;
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+
+/**
+ * JMH benchmarks for {@link TikaExtractor}, run over the generated corpus in
+ * <code>src/jmh/resources/corpus</code> (see {@link CorpusGenerator}). Each
+ * document is extracted in metadata, text and fulldata modes, and its type
+ * detected as by the detect endpoint, for comparison with the metadata mode;
+ * conversion of the extracted metadata to a map is measured separately.
+ * <p>
+ * Run with <code>mvn -Pjmh test-compile exec:exec@jmh</code>, which includes the
+ * GC profiler to report allocation rates. Pass other JMH options through
+ * <code>-Djmh.args</code> - for example, to benchmark a subset of the corpus:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="-prof gc -p document=large.pdf,large.docx"
+ * </pre>
+ *
+ * @author mlp
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TikaExtractorBenchmark {
+
+	/**
+	 * The parser registry, shared between all documents as it is in the server.
+	 */
+	@State(Scope.Benchmark)
+	public static class Registry {
+
+		TikaParserRegistry registry;
+
+		@Setup
+		public void buildRegistry() throws Exception {
+			registry = new TikaParserRegistry();
+		}
+	}
+
+	/**
+	 * A document from the corpus, read into memory.
+	 */
+	@State(Scope.Benchmark)
+	public static class Document {
+
+		@Param({
+				"small.txt", "medium.txt", "large.txt",
+				"small.html", "medium.html", "large.html",
+				"small.pdf", "medium.pdf", "large.pdf",
+				"small.docx", "medium.docx", "large.docx",
+				"small.xlsx", "medium.xlsx", "large.xlsx",
+				"small.zip", "medium.zip", "large.zip"
+		})
+		String document;
+
+		byte[] content;
+
+		@Setup
+		public void readDocument() throws IOException {
+			try (InputStream input = TikaExtractorBenchmark.class.getResourceAsStream("/corpus/" + document)) {
+				if (input == null) {
+					throw new IOException("No such corpus document: " + document);
+				}
+				content = ByteStreams.toByteArray(input);
+			}
+		}
+
+		TikaExtractor buildExtractor(TikaParserRegistry registry, String opKey) {
+			return new TikaExtractor(registry, TikaExtractor.buildMetadata(document, null),
+					new ByteArrayInputStream(content), opKey);
+		}
+	}
+
+	/**
+	 * The extraction mode.
+	 */
+	@State(Scope.Benchmark)
+	public static class Operation {
+
+		@Param({ "metadata", "text", "fulldata" })
+		String opKey;
+	}
+
+	/**
+	 * A document which has already been extracted.
+	 */
+	@State(Scope.Benchmark)
+	public static class Extracted {
+
+		TikaExtractor extractor;
+
+		@Setup
+		public void extract(Registry registry, Document document) throws Exception {
+			extractor = document.buildExtractor(registry.registry, FULLDATA_OPKEY);
+			extractor.extract();
+		}
+	}
+
+	@Benchmark
+	public TikaDocument extract(Registry registry, Document document, Operation operation) throws Exception {
+		final TikaExtractor extractor = document.buildExtractor(registry.registry, operation.opKey);
+		extractor.extract();
+		return extractor.buildDocument();
+	}
+
+	@Benchmark
+	public MediaType detect(Registry registry, Document document) throws Exception {
+		return document.buildExtractor(registry.registry, DETECT_OPKEY).detect();
+	}
+
+	@Benchmark
+	public Map<String, Object> getMetadataAsMap(Extracted extracted) {
+		return extracted.extractor.getMetadataAsMap();
+	}
+
+}
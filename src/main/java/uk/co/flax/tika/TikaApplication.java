@@ -16,15 +16,52 @@
 
 package uk.co.flax.tika;
 
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.codahale.metrics.servlets.HealthCheckServlet;
+import com.google.common.base.Ticker;
 import io.dropwizard.Application;
 import io.dropwizard.auth.AuthFactory;
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.CachingAuthenticator;
 import io.dropwizard.auth.basic.BasicAuthFactory;
+import io.dropwizard.auth.basic.BasicCredentials;
+import io.dropwizard.forms.MultiPartBundle;
+import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import uk.co.flax.tika.auth.BasicAuthenticator;
+import uk.co.flax.tika.auth.CredentialStore;
+import uk.co.flax.tika.auth.HashedCredentialsAuthenticator;
 import uk.co.flax.tika.auth.User;
+import uk.co.flax.tika.cli.HashPasswordCommand;
+import uk.co.flax.tika.config.AuthenticationConfiguration;
+import uk.co.flax.tika.config.CacheConfiguration;
+import uk.co.flax.tika.config.EmbeddedConfiguration;
+import uk.co.flax.tika.config.ForkConfiguration;
+import uk.co.flax.tika.config.HealthConfiguration;
+import uk.co.flax.tika.config.LocalFilesConfiguration;
+import uk.co.flax.tika.healthchecks.ParserHealthCheck;
 import uk.co.flax.tika.healthchecks.PingHealthcheck;
+import uk.co.flax.tika.healthchecks.ReadinessHealthCheck;
 import uk.co.flax.tika.resources.AuthenticatedTikaResource;
+import uk.co.flax.tika.resources.BinaryDocumentWriter;
+import uk.co.flax.tika.resources.SerialisationTimer;
 import uk.co.flax.tika.resources.TikaResource;
+import uk.co.flax.tika.service.cache.DiskExtractionStore;
+import uk.co.flax.tika.service.cache.ExtractionCache;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+import uk.co.flax.tika.service.fork.ForkWorkerPool;
+import uk.co.flax.tika.service.local.LocalFileResolver;
+import uk.co.flax.tika.service.quota.UserQuotas;
+import uk.co.flax.tika.service.tika.ExtractionMetrics;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+import uk.co.flax.tika.service.warmup.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class for the Tika server application.
@@ -33,26 +70,136 @@ import uk.co.flax.tika.resources.TikaResource;
  */
 public class TikaApplication extends Application<TikaConfiguration> {
 
+	@Override
+	public void initialize(Bootstrap<TikaConfiguration> bootstrap) {
+		bootstrap.addBundle(new MultiPartBundle());
+		bootstrap.addCommand(new HashPasswordCommand());
+	}
+
 	@Override
 	public void run(TikaConfiguration config, Environment env) throws Exception {
+		// Load the Tika configuration once, and share the parsers between requests
+		final TikaParserRegistry parserRegistry = new TikaParserRegistry();
+		final ExtractionExecutor executor = new ExtractionExecutor(config.getExtraction(),
+				parserRegistry.getConfig().getMediaTypeRegistry(), env.lifecycle(), env.metrics());
+		final ParseWatchdog watchdog = new ParseWatchdog(config.getExtraction(), executor,
+				parserRegistry.getConfig().getMediaTypeRegistry(),
+				env.lifecycle().scheduledExecutorService("tika-parse-watchdog-%d").threads(1).build(),
+				env.metrics());
+		final ExtractionMetrics metrics = new ExtractionMetrics(parserRegistry.getConfig().getMediaTypeRegistry(),
+				env.metrics());
+		final ForkWorkerPool forkPool = buildForkPool(config.getExtraction().getFork(), watchdog, env);
+		final UploadSpooler spooler = new UploadSpooler(config.getUploads(), env.metrics());
+		env.lifecycle().manage(spooler);
+		final LocalFileResolver localFiles = buildLocalFileResolver(config.getLocalFiles());
+		final ExtractionCache cache = buildCache(config.getCache(), env);
+		final int maxCharacters = config.getExtraction().getMaxCharacters();
+		final EmbeddedConfiguration embeddedLimits = config.getExtraction().getEmbedded();
+		final boolean async = config.getExtraction().isAsync();
+
 		if (config.getAuthentication().isEnabled()) {
 			// Add authenticator
 			env.jersey().register(AuthFactory.binder(
 					new BasicAuthFactory<>(
-							new BasicAuthenticator(config.getAuthentication()), 
+							buildAuthenticator(config.getAuthentication(), env),
 							"Protected Tika server", 
 							User.class)));
 
-			// Register the authenticated Tika resource
-			env.jersey().register(new AuthenticatedTikaResource());
+			// Register the authenticated Tika resource, with its per-user quotas
+			final UserQuotas quotas = new UserQuotas(config.getAuthentication().getDefaultQuota(),
+					config.getAuthentication().getQuotas(), env.metrics(), Ticker.systemTicker());
+			env.jersey().register(new AuthenticatedTikaResource(parserRegistry, executor, watchdog, metrics, forkPool,
+					spooler, localFiles, cache, env.getObjectMapper(), maxCharacters, embeddedLimits, async, quotas));
 		} else {
 			// Register the non-authenticated Tika resource
-			env.jersey().register(new TikaResource());
+			env.jersey().register(new TikaResource(parserRegistry, executor, watchdog, metrics, forkPool, spooler,
+					localFiles, cache, env.getObjectMapper(), maxCharacters, embeddedLimits, async));
 		}
+		env.jersey().register(new SerialisationTimer(metrics));
+		env.jersey().register(new BinaryDocumentWriter.Smile());
+		env.jersey().register(new BinaryDocumentWriter.Cbor());
+		env.jersey().register(new BinaryDocumentWriter.MessagePack());
 		
 		env.healthChecks().register("Ping", new PingHealthcheck());
+		registerHealthChecks(config.getHealth(), parserRegistry, executor, spooler, env);
+
+		// Managed last, so the warm-up runs once everything else has started
+		env.lifecycle().manage(new Warmup(config.getWarmup(), parserRegistry, forkPool, env.getObjectMapper(),
+				env.metrics()));
+	}
+
+	/**
+	 * Register the readiness and liveness checks, both with the main health
+	 * check servlet and on their own admin paths, so that a load balancer or
+	 * orchestrator can poll each separately.
+	 */
+	private void registerHealthChecks(HealthConfiguration healthConfig, TikaParserRegistry parserRegistry,
+									  ExtractionExecutor executor, UploadSpooler spooler, Environment env) {
+		final HealthCheck readiness = new ReadinessHealthCheck(healthConfig, executor, spooler);
+		final HealthCheck liveness = new ParserHealthCheck(parserRegistry,
+				env.lifecycle().executorService("tika-liveness-%d").minThreads(1).maxThreads(1).build(),
+				healthConfig.getLivenessTimeout());
+		env.healthChecks().register("Readiness", readiness);
+		env.healthChecks().register("Liveness", liveness);
+
+		final HealthCheckRegistry readinessRegistry = new HealthCheckRegistry();
+		readinessRegistry.register("Readiness", readiness);
+		env.admin().addServlet("readiness", new HealthCheckServlet(readinessRegistry)).addMapping("/health/ready");
+		final HealthCheckRegistry livenessRegistry = new HealthCheckRegistry();
+		livenessRegistry.register("Liveness", liveness);
+		env.admin().addServlet("liveness", new HealthCheckServlet(livenessRegistry)).addMapping("/health/live");
 	}
 	
+	private Authenticator<BasicCredentials, User> buildAuthenticator(AuthenticationConfiguration authConfig,
+																	 Environment env) throws IOException {
+		if (authConfig.getCredentialsFile() == null) {
+			return new BasicAuthenticator(authConfig);
+		}
+
+		// Cache the checked credentials, as checking a password hash is slow
+		final CredentialStore store = new CredentialStore(Paths.get(authConfig.getCredentialsFile()));
+		final CachingAuthenticator<BasicCredentials, User> authenticator = new CachingAuthenticator<>(env.metrics(),
+				new HashedCredentialsAuthenticator(store), authConfig.getCachePolicy());
+		final long interval = authConfig.getReloadInterval().toMilliseconds();
+		env.lifecycle().scheduledExecutorService("tika-credentials-reload-%d").threads(1).build()
+				.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						if (store.reloadIfChanged()) {
+							// Drop users which have been removed, or whose passwords have changed
+							authenticator.invalidateAll();
+						}
+					}
+				}, interval, interval, TimeUnit.MILLISECONDS);
+		return authenticator;
+	}
+
+	private ForkWorkerPool buildForkPool(ForkConfiguration forkConfig, ParseWatchdog watchdog, Environment env) {
+		ForkWorkerPool forkPool = null;
+		if (forkConfig.isEnabled()) {
+			forkPool = new ForkWorkerPool(forkConfig, watchdog, env.getObjectMapper(), env.metrics());
+			env.lifecycle().manage(forkPool);
+		}
+		return forkPool;
+	}
+
+	private LocalFileResolver buildLocalFileResolver(LocalFilesConfiguration localConfig) throws IOException {
+		LocalFileResolver resolver = null;
+		if (localConfig.isEnabled()) {
+			resolver = new LocalFileResolver(localConfig);
+		}
+		return resolver;
+	}
+
+	private ExtractionCache buildCache(CacheConfiguration cacheConfig, Environment env) {
+		DiskExtractionStore diskStore = null;
+		if (cacheConfig.isEnabled() && cacheConfig.getDisk().isEnabled()) {
+			diskStore = new DiskExtractionStore(cacheConfig.getDisk(), cacheConfig.getTtl().toMilliseconds(), env.metrics());
+			env.lifecycle().manage(diskStore);
+		}
+		return new ExtractionCache(cacheConfig, diskStore, env.metrics());
+	}
+
 	public static void main(String... args) throws Exception {
 		new TikaApplication().run(args);
 	}
@@ -16,8 +16,18 @@
 
 package uk.co.flax.tika;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
 import uk.co.flax.tika.config.AuthenticationConfiguration;
+import uk.co.flax.tika.config.CacheConfiguration;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+import uk.co.flax.tika.config.HealthConfiguration;
+import uk.co.flax.tika.config.LocalFilesConfiguration;
+import uk.co.flax.tika.config.UploadConfiguration;
+import uk.co.flax.tika.config.WarmupConfiguration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
 
 /**
  * Configuration class for the Tika server.
@@ -26,10 +36,65 @@ import uk.co.flax.tika.config.AuthenticationConfiguration;
  */
 public class TikaConfiguration extends Configuration {
 	
+	@Valid
 	private AuthenticationConfiguration authentication;
+
+	@Valid
+	@NotNull
+	@JsonProperty("extraction")
+	private ExtractionConfiguration extraction = new ExtractionConfiguration();
+
+	@Valid
+	@NotNull
+	@JsonProperty("uploads")
+	private UploadConfiguration uploads = new UploadConfiguration();
+
+	@Valid
+	@NotNull
+	@JsonProperty("localFiles")
+	private LocalFilesConfiguration localFiles = new LocalFilesConfiguration();
+
+	@Valid
+	@NotNull
+	@JsonProperty("cache")
+	private CacheConfiguration cache = new CacheConfiguration();
+
+	@Valid
+	@NotNull
+	@JsonProperty("health")
+	private HealthConfiguration health = new HealthConfiguration();
+
+	@Valid
+	@NotNull
+	@JsonProperty("warmup")
+	private WarmupConfiguration warmup = new WarmupConfiguration();
 	
 	public AuthenticationConfiguration getAuthentication() {
 		return authentication;
 	}
 
+	public ExtractionConfiguration getExtraction() {
+		return extraction;
+	}
+
+	public UploadConfiguration getUploads() {
+		return uploads;
+	}
+
+	public LocalFilesConfiguration getLocalFiles() {
+		return localFiles;
+	}
+
+	public CacheConfiguration getCache() {
+		return cache;
+	}
+
+	public HealthConfiguration getHealth() {
+		return health;
+	}
+
+	public WarmupConfiguration getWarmup() {
+		return warmup;
+	}
+
 }
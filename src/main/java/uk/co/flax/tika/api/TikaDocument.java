@@ -16,6 +16,8 @@
 
 package uk.co.flax.tika.api;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Map;
@@ -29,12 +31,17 @@ public class TikaDocument {
 
 	public static final String OK_STATUS = "OK";
 	public static final String ERROR_STATUS = "ERROR";
+	public static final String TIMEOUT_STATUS = "TIMEOUT";
 
 	private final String status;
 	private final String message;
 	
 	private final Map<String, Object> metadata;
 	private final String text;
+
+	private final String path;
+	private final boolean truncated;
+	private final String pages;
 	
 	public TikaDocument(String message) {
 		this(ERROR_STATUS, message, null, null);
@@ -43,14 +50,48 @@ public class TikaDocument {
 	public TikaDocument(Map<String, Object> metadata, String text) {
 		this(OK_STATUS, null, metadata, text);
 	}
+
+	public TikaDocument(String status, String message, Map<String, Object> metadata, String text) {
+		this(status, message, metadata, text, null, null, null);
+	}
 	
+	@JsonCreator
 	public TikaDocument(@JsonProperty("status") String status, @JsonProperty("message") String message,
 			@JsonProperty("metadata") Map<String, Object> metadata,
-			@JsonProperty("text") String text) {
+			@JsonProperty("text") String text,
+			@JsonProperty("path") String path,
+			@JsonProperty("truncated") Boolean truncated,
+			@JsonProperty("pages") String pages) {
 		this.status = status;
 		this.message = message;
 		this.metadata = metadata;
 		this.text = text;
+		this.path = path;
+		this.truncated = (truncated != null && truncated);
+		this.pages = pages;
+	}
+
+	/**
+	 * @param path the path to the document within a batch or container.
+	 * @return a copy of this document with the path set.
+	 */
+	public TikaDocument withPath(String path) {
+		return new TikaDocument(status, message, metadata, text, path, truncated, pages);
+	}
+
+	/**
+	 * @return a copy of this document, marked as having its text cut short.
+	 */
+	public TikaDocument withTruncated() {
+		return new TikaDocument(status, message, metadata, text, path, true, pages);
+	}
+
+	/**
+	 * @param pages the range of pages whose text was extracted.
+	 * @return a copy of this document with the page range set.
+	 */
+	public TikaDocument withPages(String pages) {
+		return new TikaDocument(status, message, metadata, text, path, truncated, pages);
 	}
 
 	public String getStatus() {
@@ -69,4 +110,33 @@ public class TikaDocument {
 		return text;
 	}
 
+	/**
+	 * @return the path to the document within a batch or container, or
+	 * <code>null</code> for a single document.
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return <code>true</code> if the text stopped at the character limit,
+	 * before the end of the document.
+	 */
+	@JsonProperty("truncated")
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return the pages whose text was extracted when a page range was
+	 * requested, such as <code>2-5</code>, or an empty string if none of the
+	 * document's pages were in the range. This is <code>null</code> if no range
+	 * was requested, or the document has no pages.
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getPages() {
+		return pages;
+	}
+
 }
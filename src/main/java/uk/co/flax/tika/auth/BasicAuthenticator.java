@@ -26,6 +26,9 @@ import uk.co.flax.tika.config.AuthenticationConfiguration;
 
 import com.google.common.base.Optional;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
 /**
  * Basic authentication.
  *
@@ -55,8 +58,8 @@ public class BasicAuthenticator implements Authenticator<BasicCredentials, User>
 				throw new AuthenticationException("No username or password to check against!");
 			}
 			
-			if (credentials.getUsername().equals(username) && credentials.getPassword().equals(password)) {
-				option = Optional.of(new User(true));
+			if (credentials.getUsername().equals(username) && passwordMatches(credentials.getPassword())) {
+				option = Optional.of(new User(username, true));
 			} else {
 				option = Optional.absent();
 			}
@@ -64,6 +67,14 @@ public class BasicAuthenticator implements Authenticator<BasicCredentials, User>
 		
 		return option;
 	}
+
+	/**
+	 * Compare the password given with the expected one in constant time, so
+	 * the comparison does not reveal how much of it matched.
+	 */
+	private boolean passwordMatches(String given) {
+		return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+	}
 	
 	
 }
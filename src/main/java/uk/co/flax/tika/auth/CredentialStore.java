@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The users allowed to access the server, with their password hashes, read
+ * from a credentials file. Each line of the file holds a user name and an
+ * encoded {@link PasswordHash}, separated by a colon:
+ * <pre>
+ * # Comments and blank lines are ignored
+ * indexer:pbkdf2-sha256:210000:c2FsdA==:aGFzaA==
+ * </pre>
+ * Lines can be generated with the <code>hash-password</code> command. The file
+ * is re-read by {@link #reloadIfChanged()} when it is modified, so users can be
+ * added and removed without restarting the server.
+ *
+ * @author mlp
+ */
+public class CredentialStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CredentialStore.class);
+
+	/** Hash checked for unknown users, so they take as long to refuse as known ones. */
+	private static final PasswordHash UNKNOWN_USER_HASH =
+			PasswordHash.create("unknown-user".toCharArray(), PasswordHash.DEFAULT_ITERATIONS);
+
+	private final Path file;
+
+	private volatile Map<String, PasswordHash> users;
+	private Object loadedVersion;
+
+	/**
+	 * @param file the credentials file.
+	 * @throws IOException if the file cannot be read, or holds invalid entries.
+	 */
+	public CredentialStore(Path file) throws IOException {
+		this.file = file;
+		this.loadedVersion = readVersion();
+		this.users = load();
+	}
+
+	/**
+	 * Check a user's password.
+	 * @param username the user name.
+	 * @param password the password given.
+	 * @return <code>true</code> if the user exists, and the password matches.
+	 */
+	public boolean verify(String username, String password) {
+		final PasswordHash hash = users.get(username);
+		if (hash == null) {
+			UNKNOWN_USER_HASH.matches(password);
+			return false;
+		}
+		return hash.matches(password);
+	}
+
+	/**
+	 * @return the number of users in the store.
+	 */
+	public int size() {
+		return users.size();
+	}
+
+	/**
+	 * Re-read the credentials file if it has changed since it was last read.
+	 * If the new file cannot be read, or holds invalid entries, the error is
+	 * logged and the existing users are kept.
+	 * @return <code>true</code> if the users were reloaded.
+	 */
+	public synchronized boolean reloadIfChanged() {
+		try {
+			final Object version = readVersion();
+			if (version.equals(loadedVersion)) {
+				return false;
+			}
+
+			users = load();
+			loadedVersion = version;
+			LOGGER.info("Reloaded {} users from {}", users.size(), file);
+			return true;
+		} catch (IOException e) {
+			LOGGER.error("Cannot reload credentials file - keeping existing users: {}", e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @return a value which changes when the file is modified - its
+	 * modification time and size.
+	 */
+	private Object readVersion() throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		return attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+	}
+
+	private Map<String, PasswordHash> load() throws IOException {
+		final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		final Map<String, PasswordHash> ret = new HashMap<>();
+		for (int i = 0; i < lines.size(); i++) {
+			final String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			final int split = line.indexOf(':');
+			if (split <= 0) {
+				throw new IOException(file + " line " + (i + 1) + ": expected <username>:<hash>");
+			}
+			try {
+				ret.put(line.substring(0, split), PasswordHash.parse(line.substring(split + 1)));
+			} catch (IllegalArgumentException e) {
+				throw new IOException(file + " line " + (i + 1) + ": " + e.getMessage());
+			}
+		}
+		return Collections.unmodifiableMap(ret);
+	}
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.auth;
+
+import com.google.common.base.Optional;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.basic.BasicCredentials;
+
+/**
+ * Basic authentication against the hashed passwords in a
+ * {@link CredentialStore}. Checking a password is deliberately slow, so this
+ * should be wrapped in a {@link io.dropwizard.auth.CachingAuthenticator}.
+ *
+ * @author mlp
+ */
+public class HashedCredentialsAuthenticator implements Authenticator<BasicCredentials, User> {
+
+	private final CredentialStore store;
+
+	public HashedCredentialsAuthenticator(CredentialStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public Optional<User> authenticate(BasicCredentials credentials) throws AuthenticationException {
+		Optional<User> option;
+
+		if (store.verify(credentials.getUsername(), credentials.getPassword())) {
+			option = Optional.of(new User(credentials.getUsername(), true));
+		} else {
+			option = Optional.absent();
+		}
+
+		return option;
+	}
+
+}
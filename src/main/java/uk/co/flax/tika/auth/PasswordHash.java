@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.auth;
+
+import com.google.common.io.BaseEncoding;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A salted PBKDF2 password hash, as stored in the credentials file. Hashes are
+ * encoded as <code>pbkdf2-sha256:&lt;iterations&gt;:&lt;salt&gt;:&lt;hash&gt;</code>,
+ * with the salt and hash in Base64, so the iteration count can be raised for
+ * new passwords without invalidating the old ones.
+ * <p>
+ * Checking a password deliberately takes tens of milliseconds, so results
+ * should be cached rather than checking the hash on every request.
+ *
+ * @author mlp
+ */
+public class PasswordHash {
+
+	public static final String ALGORITHM = "pbkdf2-sha256";
+	public static final int DEFAULT_ITERATIONS = 210000;
+	/** The fewest iterations accepted - the minimum recommended by NIST SP 800-132. */
+	public static final int MIN_ITERATIONS = 1000;
+
+	private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final int SALT_BYTES = 16;
+	private static final int HASH_BITS = 256;
+	private static final String SEPARATOR = ":";
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final int iterations;
+	private final byte[] salt;
+	private final byte[] hash;
+
+	private PasswordHash(int iterations, byte[] salt, byte[] hash) {
+		this.iterations = iterations;
+		this.salt = salt;
+		this.hash = hash;
+	}
+
+	/**
+	 * Hash a password with a new random salt.
+	 * @param password the password.
+	 * @param iterations the number of PBKDF2 iterations.
+	 * @return the hash.
+	 * @throws IllegalArgumentException if the iteration count is less than
+	 * {@link #MIN_ITERATIONS}.
+	 */
+	public static PasswordHash create(char[] password, int iterations) {
+		checkIterations(iterations);
+		final byte[] salt = new byte[SALT_BYTES];
+		RANDOM.nextBytes(salt);
+		return new PasswordHash(iterations, salt, pbkdf2(password, salt, iterations));
+	}
+
+	/**
+	 * Read an encoded hash, as written by {@link #toString()}.
+	 * @param encoded the encoded hash.
+	 * @return the hash.
+	 * @throws IllegalArgumentException if the hash is not in the expected
+	 * format, uses an unknown algorithm, or is too weak - with fewer than
+	 * {@link #MIN_ITERATIONS} iterations or a salt of less than 16 bytes.
+	 */
+	public static PasswordHash parse(String encoded) {
+		final String[] parts = encoded.trim().split(SEPARATOR);
+		if (parts.length != 4 || !ALGORITHM.equals(parts[0])) {
+			throw new IllegalArgumentException("Expected " + ALGORITHM + ":<iterations>:<salt>:<hash>");
+		}
+
+		final int iterations;
+		try {
+			iterations = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid iteration count " + parts[1]);
+		}
+		checkIterations(iterations);
+
+		final byte[] salt = BaseEncoding.base64().decode(parts[2]);
+		if (salt.length < SALT_BYTES) {
+			throw new IllegalArgumentException("Salt should be at least " + SALT_BYTES + " bytes long");
+		}
+		final byte[] hash = BaseEncoding.base64().decode(parts[3]);
+		if (hash.length * 8 != HASH_BITS) {
+			throw new IllegalArgumentException("Hash should be " + HASH_BITS + " bits long");
+		}
+		return new PasswordHash(iterations, salt, hash);
+	}
+
+	private static void checkIterations(int iterations) {
+		if (iterations < MIN_ITERATIONS) {
+			throw new IllegalArgumentException("Iteration count " + iterations + " is less than the minimum of "
+					+ MIN_ITERATIONS);
+		}
+	}
+
+	/**
+	 * Check a password against the hash. The hashes are compared in constant
+	 * time, so the comparison does not reveal how much of them matched.
+	 * @param password the password to check.
+	 * @return <code>true</code> if the password matches.
+	 */
+	public boolean matches(String password) {
+		return MessageDigest.isEqual(hash, pbkdf2(password.toCharArray(), salt, iterations));
+	}
+
+	private static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
+		final PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+		try {
+			return SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			// Every Java 8 runtime supports PBKDF2 with SHA-256, and Dropwizard requires Java 8
+			throw new IllegalStateException("Cannot hash password", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		final PasswordHash that = (PasswordHash) o;
+		return iterations == that.iterations && Arrays.equals(salt, that.salt) && Arrays.equals(hash, that.hash);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * iterations + Arrays.hashCode(salt)) + Arrays.hashCode(hash);
+	}
+
+	@Override
+	public String toString() {
+		return ALGORITHM + SEPARATOR + iterations + SEPARATOR + BaseEncoding.base64().encode(salt)
+				+ SEPARATOR + BaseEncoding.base64().encode(hash);
+	}
+
+}
@@ -23,11 +23,25 @@ package uk.co.flax.tika.auth;
  */
 public class User {
 	
+	private final String name;
 	private final boolean authenticated;
 	
 	public User(boolean auth) {
+		this(null, auth);
+	}
+
+	public User(String name, boolean auth) {
+		this.name = name;
 		this.authenticated = auth;
 	}
+
+	/**
+	 * @return the user's name, or <code>null</code> if authentication is
+	 * disabled.
+	 */
+	public String getName() {
+		return name;
+	}
 	
 	public boolean isAuthenticated() {
 		return authenticated;
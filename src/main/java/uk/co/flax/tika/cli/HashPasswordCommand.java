@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.cli;
+
+import io.dropwizard.cli.Command;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import uk.co.flax.tika.auth.PasswordHash;
+
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Command to hash a password, printing a line for the credentials file:
+ * <pre>
+ * java -jar dropwizard-tika-server-0.1.jar hash-password indexer &gt;&gt; config/credentials
+ * </pre>
+ * The password is read from the console without being echoed, or from
+ * standard input if there is no console.
+ *
+ * @author mlp
+ */
+public class HashPasswordCommand extends Command {
+
+	private static final String USERNAME = "username";
+	private static final String ITERATIONS = "iterations";
+
+	public HashPasswordCommand() {
+		super("hash-password", "Hash a password, printing a line for the credentials file");
+	}
+
+	@Override
+	public void configure(Subparser subparser) {
+		subparser.addArgument(USERNAME)
+				.help("the user name");
+		subparser.addArgument("-i", "--" + ITERATIONS)
+				.type(Integer.class)
+				.setDefault(PasswordHash.DEFAULT_ITERATIONS)
+				.choices(Arguments.range(PasswordHash.MIN_ITERATIONS, Integer.MAX_VALUE))
+				.help("the number of PBKDF2 iterations");
+	}
+
+	@Override
+	public void run(Bootstrap<?> bootstrap, Namespace namespace) throws Exception {
+		final String username = namespace.getString(USERNAME);
+		if (username.contains(":")) {
+			throw new IllegalArgumentException("User names cannot contain ':'");
+		}
+
+		final char[] password = readPassword();
+		try {
+			System.out.println(username + ":" + PasswordHash.create(password, namespace.getInt(ITERATIONS)));
+		} finally {
+			Arrays.fill(password, ' ');
+		}
+	}
+
+	private static char[] readPassword() throws IOException {
+		final Console console = System.console();
+		final char[] ret;
+		if (console != null) {
+			ret = console.readPassword("Password: ");
+			final char[] confirm = console.readPassword("Confirm password: ");
+			final boolean matches = Arrays.equals(ret, confirm);
+			Arrays.fill(confirm, ' ');
+			if (!matches) {
+				throw new IllegalArgumentException("Passwords do not match");
+			}
+		} else {
+			final String line = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+			ret = (line == null ? new char[0] : line.toCharArray());
+		}
+
+		if (ret == null || ret.length == 0) {
+			throw new IllegalArgumentException("No password given");
+		}
+		return ret;
+	}
+
+}
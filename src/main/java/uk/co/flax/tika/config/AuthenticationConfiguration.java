@@ -17,6 +17,13 @@
 package uk.co.flax.tika.config;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.CacheBuilderSpec;
+import io.dropwizard.util.Duration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Authentication configuration.
@@ -27,6 +34,8 @@ public class AuthenticationConfiguration {
 
 	public static final String DEFAULT_USERNAME_PROP = "AUTH_USERNAME";
 	public static final String DEFAULT_PASSWORD_PROP = "AUTH_PASSWORD";
+	public static final String DEFAULT_CACHE_POLICY = "maximumSize=10000, expireAfterAccess=10m";
+	public static final Duration DEFAULT_RELOAD_INTERVAL = Duration.seconds(30);
 
 	@JsonProperty("enabled")
 	private boolean enabled;
@@ -34,6 +43,22 @@ public class AuthenticationConfiguration {
 	private String usernameProperty = DEFAULT_USERNAME_PROP;
 	@JsonProperty("passwordProperty")
 	private String passwordProperty = DEFAULT_PASSWORD_PROP;
+	@JsonProperty("credentialsFile")
+	private String credentialsFile;
+	@NotNull
+	@JsonProperty("cachePolicy")
+	private CacheBuilderSpec cachePolicy = CacheBuilderSpec.parse(DEFAULT_CACHE_POLICY);
+	@NotNull
+	@JsonProperty("reloadInterval")
+	private Duration reloadInterval = DEFAULT_RELOAD_INTERVAL;
+	@Valid
+	@NotNull
+	@JsonProperty("defaultQuota")
+	private QuotaConfiguration defaultQuota = new QuotaConfiguration();
+	@Valid
+	@NotNull
+	@JsonProperty("quotas")
+	private Map<String, QuotaConfiguration> quotas = new HashMap<>();
 	
 	public boolean isEnabled() {
 		return enabled;
@@ -47,4 +72,43 @@ public class AuthenticationConfiguration {
 		return passwordProperty;
 	}
 
+	/**
+	 * @return the path to the file of users and password hashes, or
+	 * <code>null</code> to check against the single user given in the
+	 * system properties.
+	 */
+	public String getCredentialsFile() {
+		return credentialsFile;
+	}
+
+	/**
+	 * @return the size and expiry of the cache of checked credentials, used
+	 * with the credentials file.
+	 */
+	public CacheBuilderSpec getCachePolicy() {
+		return cachePolicy;
+	}
+
+	/**
+	 * @return how often the credentials file is checked for changes.
+	 */
+	public Duration getReloadInterval() {
+		return reloadInterval;
+	}
+
+	/**
+	 * @return the request limits for users without their own quota. By
+	 * default, there are no limits.
+	 */
+	public QuotaConfiguration getDefaultQuota() {
+		return defaultQuota;
+	}
+
+	/**
+	 * @return the request limits for particular users, by user name.
+	 */
+	public Map<String, QuotaConfiguration> getQuotas() {
+		return quotas;
+	}
+
 }
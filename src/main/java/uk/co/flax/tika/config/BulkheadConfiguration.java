@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration for an extraction bulkhead - a separate thread pool and
+ * queue for a class of document types, so that documents of those types
+ * cannot hold up the rest.
+ *
+ * @author mlp
+ */
+public class BulkheadConfiguration {
+
+	public static final int DEFAULT_THREADS = 2;
+	public static final int DEFAULT_QUEUE_SIZE = 20;
+
+	@NotNull
+	@Size(min = 1)
+	@JsonProperty("types")
+	private List<String> types = new ArrayList<>();
+	@Min(1)
+	@JsonProperty("threads")
+	private int threads = DEFAULT_THREADS;
+	@Min(0)
+	@JsonProperty("queueSize")
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+
+	/**
+	 * @return the content types handled by the bulkhead. Each may be a full
+	 * type, such as <code>application/pdf</code>, which also matches its
+	 * subtypes in the Tika type registry - so <code>application/x-tika-ooxml</code>
+	 * matches all of the OOXML Office formats - or a wildcard such as
+	 * <code>image/*</code>.
+	 */
+	public List<String> getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return the number of threads used to extract documents of these types.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the number of documents of these types which may wait for a
+	 * thread, before further documents are passed to the overflow pool, or
+	 * rejected.
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+}
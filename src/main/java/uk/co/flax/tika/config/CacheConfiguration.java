@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration for the extraction result cache.
+ *
+ * @author mlp
+ */
+public class CacheConfiguration {
+
+	public static final Size DEFAULT_MAX_SIZE = Size.megabytes(256);
+	public static final Size DEFAULT_MAX_DOCUMENT_SIZE = Size.megabytes(10);
+	public static final Duration DEFAULT_TTL = Duration.hours(1);
+
+	@JsonProperty("enabled")
+	private boolean enabled;
+	@NotNull
+	@JsonProperty("maxSize")
+	private Size maxSize = DEFAULT_MAX_SIZE;
+	@NotNull
+	@JsonProperty("maxDocumentSize")
+	private Size maxDocumentSize = DEFAULT_MAX_DOCUMENT_SIZE;
+	@NotNull
+	@JsonProperty("ttl")
+	private Duration ttl = DEFAULT_TTL;
+	@Valid
+	@NotNull
+	@JsonProperty("disk")
+	private DiskCacheConfiguration disk = new DiskCacheConfiguration();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the maximum total size of the cached results.
+	 */
+	public Size getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the size of the largest request body whose results will be
+	 * cached. Bodies up to this size are hashed as they are read.
+	 */
+	public Size getMaxDocumentSize() {
+		return maxDocumentSize;
+	}
+
+	/**
+	 * @return how long results are cached for.
+	 */
+	public Duration getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @return the configuration for the on-disk tier of the cache.
+	 */
+	public DiskCacheConfiguration getDisk() {
+		return disk;
+	}
+
+}
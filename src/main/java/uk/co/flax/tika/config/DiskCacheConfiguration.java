@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Size;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration for the on-disk tier of the extraction result cache.
+ *
+ * @author mlp
+ */
+public class DiskCacheConfiguration {
+
+	public static final String DEFAULT_DIRECTORY = "cache";
+	public static final Size DEFAULT_MAX_SIZE = Size.gigabytes(1);
+	public static final Size DEFAULT_SEGMENT_SIZE = Size.megabytes(64);
+
+	@JsonProperty("enabled")
+	private boolean enabled;
+	@NotNull
+	@JsonProperty("directory")
+	private String directory = DEFAULT_DIRECTORY;
+	@NotNull
+	@JsonProperty("maxSize")
+	private Size maxSize = DEFAULT_MAX_SIZE;
+	@NotNull
+	@JsonProperty("segmentSize")
+	private Size segmentSize = DEFAULT_SEGMENT_SIZE;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the directory holding the cache segment files.
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the total size of the segment files, above which the oldest
+	 * segments are compacted.
+	 */
+	public Size getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the size at which a segment file is closed, and a new one started.
+	 * Must be less than 2GB.
+	 */
+	public Size getSegmentSize() {
+		return segmentSize;
+	}
+
+}
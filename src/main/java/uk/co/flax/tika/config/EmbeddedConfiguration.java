@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration for the recursive extraction of embedded documents, such as
+ * email attachments and the files in archives.
+ *
+ * @author mlp
+ */
+public class EmbeddedConfiguration {
+
+	public static final int DEFAULT_MAX_DEPTH = 10;
+	public static final int DEFAULT_MAX_DOCUMENTS = 1000;
+
+	@Min(1)
+	@JsonProperty("maxDepth")
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+	@Min(1)
+	@JsonProperty("maxDocuments")
+	private int maxDocuments = DEFAULT_MAX_DOCUMENTS;
+
+	/**
+	 * @return the maximum nesting depth of the embedded documents extracted,
+	 * where the attachments of the document sent have depth 1. More deeply
+	 * nested documents are skipped.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the maximum number of embedded documents extracted from a
+	 * single document. Any more are skipped.
+	 */
+	public int getMaxDocuments() {
+		return maxDocuments;
+	}
+
+}
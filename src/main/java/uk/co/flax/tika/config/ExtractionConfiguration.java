@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configuration for the extraction thread pool.
+ *
+ * @author mlp
+ */
+public class ExtractionConfiguration {
+
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	public static final int DEFAULT_QUEUE_SIZE = 100;
+	public static final int DEFAULT_RETRY_AFTER_SECONDS = 5;
+	public static final Duration DEFAULT_TIMEOUT = Duration.minutes(2);
+	public static final int DEFAULT_MAX_CHARACTERS = 10 * 1000 * 1000;
+
+	@Min(1)
+	@JsonProperty("threads")
+	private int threads = DEFAULT_THREADS;
+	@Min(0)
+	@JsonProperty("queueSize")
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	@Valid
+	@NotNull
+	@JsonProperty("bulkheads")
+	private Map<String, BulkheadConfiguration> bulkheads = new LinkedHashMap<>();
+	@Min(0)
+	@JsonProperty("overflowThreads")
+	private int overflowThreads;
+	@Min(0)
+	@JsonProperty("overflowQueueSize")
+	private int overflowQueueSize;
+	@Min(0)
+	@JsonProperty("retryAfterSeconds")
+	private int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+	@JsonProperty("async")
+	private boolean async;
+	@NotNull
+	@JsonProperty("timeout")
+	private Duration timeout = DEFAULT_TIMEOUT;
+	@NotNull
+	@JsonProperty("typeTimeouts")
+	private Map<String, Duration> typeTimeouts = new HashMap<>();
+	@Min(0)
+	@JsonProperty("maxCharacters")
+	private int maxCharacters = DEFAULT_MAX_CHARACTERS;
+	@Valid
+	@NotNull
+	@JsonProperty("embedded")
+	private EmbeddedConfiguration embedded = new EmbeddedConfiguration();
+	@Valid
+	@NotNull
+	@JsonProperty("fork")
+	private ForkConfiguration fork = new ForkConfiguration();
+
+	/**
+	 * @return the number of threads used to extract documents.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the number of requests which may wait for an extraction thread
+	 * before further requests are rejected.
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * @return the bulkheads, each with its own threads and queue for a class
+	 * of document types, keyed by name. Documents whose types are not in any
+	 * bulkhead use the main pool. If a type is in more than one bulkhead, the
+	 * first is used.
+	 */
+	public Map<String, BulkheadConfiguration> getBulkheads() {
+		return bulkheads;
+	}
+
+	/**
+	 * @return the number of threads in the overflow pool, shared by the main
+	 * pool and the bulkheads, which takes documents when their own pool and
+	 * queue are full. Zero means there is no overflow pool.
+	 */
+	public int getOverflowThreads() {
+		return overflowThreads;
+	}
+
+	/**
+	 * @return the number of documents which may wait for an overflow thread.
+	 */
+	public int getOverflowQueueSize() {
+		return overflowQueueSize;
+	}
+
+	/**
+	 * @return the number of seconds clients are asked to wait before retrying
+	 * a rejected request.
+	 */
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	/**
+	 * @return <code>true</code> if requests should be suspended while the
+	 * document is extracted, releasing the container thread.
+	 */
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * @return the maximum time allowed to parse a single document. A zero
+	 * duration means documents may take as long as they need.
+	 */
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return parse timeouts for specific content types, overriding the
+	 * default timeout. Keys may be full types, such as
+	 * <code>application/pdf</code>, or wildcards such as <code>image/*</code>.
+	 */
+	public Map<String, Duration> getTypeTimeouts() {
+		return typeTimeouts;
+	}
+
+	/**
+	 * @return the maximum number of characters of text extracted from a
+	 * single document, after which the parse is stopped and the text is
+	 * marked as truncated. Requests may ask for a lower limit, but not a
+	 * higher one. Zero means the text is not limited.
+	 */
+	public int getMaxCharacters() {
+		return maxCharacters;
+	}
+
+	/**
+	 * @return the limits for the recursive extraction of embedded documents.
+	 */
+	public EmbeddedConfiguration getEmbedded() {
+		return embedded;
+	}
+
+	/**
+	 * @return the configuration for parsing documents in worker processes.
+	 */
+	public ForkConfiguration getFork() {
+		return fork;
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Configuration for parsing documents in child JVM worker processes.
+ *
+ * @author mlp
+ */
+public class ForkConfiguration {
+
+	public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+	public static final int DEFAULT_MAX_DOCUMENTS = 1000;
+	public static final int DEFAULT_MAX_HEAP_PERCENT = 90;
+	public static final List<String> DEFAULT_JAVA_OPTIONS = Collections.singletonList("-Xmx512m");
+
+	@JsonProperty("enabled")
+	private boolean enabled;
+	@Min(1)
+	@JsonProperty("workers")
+	private int workers = DEFAULT_WORKERS;
+	@Min(0)
+	@JsonProperty("maxDocuments")
+	private int maxDocuments = DEFAULT_MAX_DOCUMENTS;
+	@Min(1)
+	@Max(100)
+	@JsonProperty("maxHeapPercent")
+	private int maxHeapPercent = DEFAULT_MAX_HEAP_PERCENT;
+	@NotNull
+	@JsonProperty("javaOptions")
+	private List<String> javaOptions = DEFAULT_JAVA_OPTIONS;
+
+	/**
+	 * @return <code>true</code> if documents should be parsed in worker
+	 * processes rather than in the server JVM.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the number of worker processes. This limits the number of
+	 * documents parsed at once, so should usually match the number of
+	 * extraction threads.
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * @return the number of documents a worker parses before it is replaced,
+	 * or 0 if workers should not be replaced after a set number of documents.
+	 */
+	public int getMaxDocuments() {
+		return maxDocuments;
+	}
+
+	/**
+	 * @return the percentage of its maximum heap a worker may be using after
+	 * garbage collection before it is replaced.
+	 */
+	public int getMaxHeapPercent() {
+		return maxHeapPercent;
+	}
+
+	/**
+	 * @return the JVM options passed to each worker process, such as its
+	 * maximum heap size.
+	 */
+	public List<String> getJavaOptions() {
+		return javaOptions;
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Thresholds for the readiness health check, above which the server reports
+ * that it should not be sent more work, and the timeout for the liveness
+ * check. Each threshold is disabled when set to zero.
+ *
+ * @author mlp
+ */
+public class HealthConfiguration {
+
+	public static final int DEFAULT_MAX_HEAP_PERCENT = 90;
+	public static final Duration DEFAULT_LIVENESS_TIMEOUT = Duration.seconds(2);
+
+	@Min(0)
+	@JsonProperty("maxQueueDepth")
+	private int maxQueueDepth;
+	@NotNull
+	@JsonProperty("maxInFlightBytes")
+	private Size maxInFlightBytes = Size.bytes(0);
+	@Min(0)
+	@Max(100)
+	@JsonProperty("maxHeapPercent")
+	private int maxHeapPercent = DEFAULT_MAX_HEAP_PERCENT;
+	@NotNull
+	@JsonProperty("maxLatency")
+	private Duration maxLatency = Duration.seconds(0);
+	@NotNull
+	@JsonProperty("livenessTimeout")
+	private Duration livenessTimeout = DEFAULT_LIVENESS_TIMEOUT;
+
+	/**
+	 * @return the number of requests waiting for an extraction thread, across
+	 * all of the pools, above which the server is not ready.
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * @return the total size of the uploads being parsed or waiting to be
+	 * parsed, above which the server is not ready.
+	 */
+	public Size getMaxInFlightBytes() {
+		return maxInFlightBytes;
+	}
+
+	/**
+	 * @return the percentage of the heap in use after the last garbage
+	 * collection, above which the server is not ready.
+	 */
+	public int getMaxHeapPercent() {
+		return maxHeapPercent;
+	}
+
+	/**
+	 * @return the 99th percentile of the extraction latency over the last
+	 * minute, above which the server is not ready.
+	 */
+	public Duration getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * @return the time allowed to parse the liveness check document.
+	 */
+	public Duration getLivenessTimeout() {
+		return livenessTimeout;
+	}
+
+}
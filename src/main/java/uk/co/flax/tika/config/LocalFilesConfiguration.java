@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration for extracting documents which are already on the server's
+ * file system, rather than uploaded.
+ *
+ * @author mlp
+ */
+public class LocalFilesConfiguration {
+
+	@JsonProperty("enabled")
+	private boolean enabled;
+
+	@NotNull
+	@JsonProperty("roots")
+	private List<String> roots = new ArrayList<>();
+
+	/**
+	 * @return <code>true</code> if documents may be extracted from local files.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the directories holding the files which may be extracted. Files
+	 * outside these directories, including through symbolic links, are refused.
+	 */
+	public List<String> getRoots() {
+		return roots;
+	}
+
+}
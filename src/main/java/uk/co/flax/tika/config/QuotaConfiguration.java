@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Size;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Limits on the requests made by a single authenticated user. Each limit is
+ * disabled when set to zero.
+ *
+ * @author mlp
+ */
+public class QuotaConfiguration {
+
+	public static final int DEFAULT_REQUEST_BURST = 10;
+	public static final Size DEFAULT_BYTE_BURST = Size.megabytes(100);
+
+	@DecimalMin("0")
+	@JsonProperty("requestsPerSecond")
+	private double requestsPerSecond;
+	@Min(1)
+	@JsonProperty("requestBurst")
+	private int requestBurst = DEFAULT_REQUEST_BURST;
+	@NotNull
+	@JsonProperty("bytesPerSecond")
+	private Size bytesPerSecond = Size.bytes(0);
+	@NotNull
+	@JsonProperty("byteBurst")
+	private Size byteBurst = DEFAULT_BYTE_BURST;
+	@Min(0)
+	@JsonProperty("maxConcurrent")
+	private int maxConcurrent;
+
+	/**
+	 * @return the sustained number of requests allowed per second, or 0 for
+	 * no limit.
+	 */
+	public double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	/**
+	 * @return the number of requests which may be made at once, above the
+	 * sustained rate.
+	 */
+	public int getRequestBurst() {
+		return requestBurst;
+	}
+
+	/**
+	 * @return the sustained number of request body bytes allowed per second,
+	 * or 0 for no limit.
+	 */
+	public Size getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return the number of bytes which may be sent at once, above the
+	 * sustained rate. A single larger request is allowed when none of the
+	 * burst has been used, and the user must then wait for it to be paid off.
+	 */
+	public Size getByteBurst() {
+		return byteBurst;
+	}
+
+	/**
+	 * @return the number of the user's requests which may be in progress at
+	 * once, or 0 for no limit.
+	 */
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Size;
+import io.dropwizard.util.SizeUnit;
+import io.dropwizard.validation.MaxSize;
+import io.dropwizard.validation.MinSize;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration for handling uploaded documents.
+ *
+ * @author mlp
+ */
+public class UploadConfiguration {
+
+	public static final Size DEFAULT_MEMORY_THRESHOLD = Size.megabytes(1);
+	public static final Size DEFAULT_MAX_UPLOAD_SIZE = Size.gigabytes(1);
+	public static final int DEFAULT_MAX_BATCH_DOCUMENTS = 1000;
+	public static final Size DEFAULT_MAX_BATCH_SIZE = Size.gigabytes(2);
+
+	// Uploads in memory are held in a byte array, so must be well under 2GB
+	@NotNull
+	@MaxSize(value = 1, unit = SizeUnit.GIGABYTES)
+	@JsonProperty("memoryThreshold")
+	private Size memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+	@NotNull
+	@MinSize(1)
+	@JsonProperty("maxUploadSize")
+	private Size maxUploadSize = DEFAULT_MAX_UPLOAD_SIZE;
+	@Min(1)
+	@JsonProperty("maxBatchDocuments")
+	private int maxBatchDocuments = DEFAULT_MAX_BATCH_DOCUMENTS;
+	@NotNull
+	@MinSize(1)
+	@JsonProperty("maxBatchSize")
+	private Size maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+	@JsonProperty("tempDirectory")
+	private String tempDirectory;
+
+	/**
+	 * @return the size of the largest upload held in memory. Larger uploads
+	 * are written to a temporary file before they are parsed.
+	 */
+	public Size getMemoryThreshold() {
+		return memoryThreshold;
+	}
+
+	/**
+	 * @return the size of the largest upload accepted. Larger uploads are
+	 * refused with <code>413 Request Entity Too Large</code>.
+	 */
+	public Size getMaxUploadSize() {
+		return maxUploadSize;
+	}
+
+	/**
+	 * @return the largest number of documents accepted in one batch request.
+	 */
+	public int getMaxBatchDocuments() {
+		return maxBatchDocuments;
+	}
+
+	/**
+	 * @return the largest total size of the documents accepted in one batch
+	 * request. Each document is also limited to the maximum upload size.
+	 */
+	public Size getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @return the directory holding the temporary files, or <code>null</code>
+	 * to use the system temporary directory.
+	 */
+	public String getTempDirectory() {
+		return tempDirectory;
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Configuration for the warm-up run at startup, which extracts a set of
+ * small sample documents before the server accepts requests.
+ *
+ * @author mlp
+ */
+public class WarmupConfiguration {
+
+	public static final List<String> DEFAULT_FORMATS = Arrays.asList(
+			"txt", "html", "xml", "rtf", "pdf", "docx", "xlsx", "pptx", "zip");
+	public static final int DEFAULT_ITERATIONS = 20;
+	public static final Duration DEFAULT_TIMEOUT = Duration.minutes(1);
+
+	@JsonProperty("enabled")
+	private boolean enabled = true;
+
+	@NotNull
+	@JsonProperty("formats")
+	private List<String> formats = DEFAULT_FORMATS;
+
+	@Min(1)
+	@JsonProperty("iterations")
+	private int iterations = DEFAULT_ITERATIONS;
+
+	@Min(0)
+	@JsonProperty("threads")
+	private int threads;
+
+	@NotNull
+	@JsonProperty("timeout")
+	private Duration timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * @return <code>true</code> if the server should warm up before accepting
+	 * requests.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the formats whose sample documents are extracted, by file
+	 * extension.
+	 */
+	public List<String> getFormats() {
+		return formats;
+	}
+
+	/**
+	 * @return the number of times each sample document is extracted.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the number of threads extracting the samples, or 0 to use one
+	 * per processor.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the longest time to spend warming up, after which the server
+	 * starts anyway.
+	 */
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.healthchecks;
+
+import com.codahale.metrics.health.HealthCheck;
+import io.dropwizard.util.Duration;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static uk.co.flax.tika.resources.TikaResource.TEXT_OPKEY;
+
+/**
+ * Liveness check, extracting a small canned document and failing if the
+ * text does not come back within the timeout. This catches a parser which
+ * has hung or a JVM too short of memory to make progress, which the
+ * readiness check cannot tell apart from a busy server.
+ * <p>
+ * The document is parsed on its own thread, so the check does not wait
+ * behind queued requests. A parse which times out is left to finish, since
+ * a hung parser cannot be relied on to stop when interrupted; until it has,
+ * the check fails at once rather than queueing another parse behind it.
+ *
+ * @author mlp
+ */
+public class ParserHealthCheck extends HealthCheck {
+
+	static final String EXPECTED_TEXT = "Tika liveness check";
+	private static final byte[] DOCUMENT = ("<html><head><title>Liveness</title></head><body><p>"
+			+ EXPECTED_TEXT + "</p></body></html>").getBytes(StandardCharsets.UTF_8);
+
+	private final TikaParserRegistry registry;
+	private final ExecutorService executor;
+	private final Duration timeout;
+
+	/** Set while a parse is queued or running, and cleared by the parse itself. */
+	private volatile boolean running;
+
+	public ParserHealthCheck(TikaParserRegistry registry, ExecutorService executor, Duration timeout) {
+		this.registry = registry;
+		this.executor = executor;
+		this.timeout = timeout;
+	}
+
+	@Override
+	protected synchronized Result check() throws Exception {
+		if (running) {
+			return Result.unhealthy("Previous liveness extraction has not finished");
+		}
+
+		final long start = System.nanoTime();
+		running = true;
+		final Future<String> result;
+		try {
+			result = executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					try {
+						final TikaExtractor extractor = new TikaExtractor(registry,
+								TikaExtractor.buildMetadata("liveness.html", MediaType.TEXT_HTML_TYPE),
+								new ByteArrayInputStream(DOCUMENT), TEXT_OPKEY);
+						extractor.extract();
+						return extractor.getBodyText();
+					} finally {
+						running = false;
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			running = false;
+			throw e;
+		}
+
+		final String text;
+		try {
+			text = result.get(timeout.toMilliseconds(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return Result.unhealthy("Liveness extraction took longer than " + timeout);
+		}
+
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (text == null || !text.contains(EXPECTED_TEXT)) {
+			return Result.unhealthy("Liveness extraction returned unexpected text: " + text);
+		}
+		return Result.healthy("Extracted in " + millis + "ms");
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.healthchecks;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.google.common.base.Joiner;
+import uk.co.flax.tika.config.HealthConfiguration;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readiness check, reporting whether the server should be sent more work.
+ * The server is not ready while any of the configured thresholds is
+ * exceeded - the number of requests queued for an extraction thread, the
+ * total size of the uploads in flight, the heap used after the last garbage
+ * collection, or the 99th percentile extraction latency over the last
+ * minute. A load balancer polling this can route work elsewhere until the
+ * backlog clears, rather than waiting for requests to be rejected.
+ *
+ * @author mlp
+ */
+public class ReadinessHealthCheck extends HealthCheck {
+
+	private final HealthConfiguration config;
+	private final ExtractionExecutor executor;
+	private final UploadSpooler spooler;
+	private final MemoryPoolMXBean heapPool;
+
+	public ReadinessHealthCheck(HealthConfiguration config, ExtractionExecutor executor, UploadSpooler spooler) {
+		this(config, executor, spooler, findOldGenerationPool());
+	}
+
+	ReadinessHealthCheck(HealthConfiguration config, ExtractionExecutor executor, UploadSpooler spooler,
+						 MemoryPoolMXBean heapPool) {
+		this.config = config;
+		this.executor = executor;
+		this.spooler = spooler;
+		this.heapPool = heapPool;
+	}
+
+	@Override
+	protected Result check() throws Exception {
+		final int queueDepth = executor.getQueueDepth();
+		final long inFlightBytes = spooler.getInFlightBytes();
+		final int heapPercent = getHeapPercentAfterGc();
+		final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(
+				(long) executor.getLatency().getSnapshot().get99thPercentile());
+
+		final List<String> exceeded = new ArrayList<>();
+		if (config.getMaxQueueDepth() > 0 && queueDepth > config.getMaxQueueDepth()) {
+			exceeded.add("queue depth " + queueDepth + " > " + config.getMaxQueueDepth());
+		}
+		final long maxInFlightBytes = config.getMaxInFlightBytes().toBytes();
+		if (maxInFlightBytes > 0 && inFlightBytes > maxInFlightBytes) {
+			exceeded.add("in-flight bytes " + inFlightBytes + " > " + maxInFlightBytes);
+		}
+		if (config.getMaxHeapPercent() > 0 && heapPercent > config.getMaxHeapPercent()) {
+			exceeded.add("heap after GC " + heapPercent + "% > " + config.getMaxHeapPercent() + "%");
+		}
+		final long maxLatencyMillis = config.getMaxLatency().toMilliseconds();
+		if (maxLatencyMillis > 0 && latencyMillis > maxLatencyMillis) {
+			exceeded.add("p99 latency " + latencyMillis + "ms > " + maxLatencyMillis + "ms");
+		}
+
+		if (!exceeded.isEmpty()) {
+			return Result.unhealthy("Not ready: " + Joiner.on(", ").join(exceeded));
+		}
+		return Result.healthy("queue depth " + queueDepth + ", in-flight bytes " + inFlightBytes
+				+ ", heap after GC " + heapPercent + "%, p99 latency " + latencyMillis + "ms");
+	}
+
+	/**
+	 * @return the percentage of the old generation in use after the last
+	 * collection of it, or 0 if it has not been collected or is unknown.
+	 */
+	private int getHeapPercentAfterGc() {
+		if (heapPool == null) {
+			return 0;
+		}
+		final MemoryUsage usage = heapPool.getCollectionUsage();
+		if (usage == null || usage.getMax() <= 0) {
+			return 0;
+		}
+		return (int) (usage.getUsed() * 100 / usage.getMax());
+	}
+
+	/**
+	 * Find the old generation heap pool - the collected heap pool with the
+	 * largest maximum size, whichever collector is in use.
+	 * @return the pool, or <code>null</code> if none has a maximum size.
+	 */
+	static MemoryPoolMXBean findOldGenerationPool() {
+		MemoryPoolMXBean ret = null;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+					&& pool.getUsage().getMax() > 0
+					&& (ret == null || pool.getUsage().getMax() > ret.getUsage().getMax())) {
+				ret = pool;
+			}
+		}
+		return ret;
+	}
+
+}
@@ -16,19 +16,56 @@
 
 package uk.co.flax.tika.resources;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.EmbeddedConfiguration;
+import uk.co.flax.tika.service.cache.ExtractionCache;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+import uk.co.flax.tika.service.fork.ForkWorkerPool;
+import uk.co.flax.tika.service.local.LocalFileResolver;
+import uk.co.flax.tika.service.tika.ExtractionMetrics;
+import uk.co.flax.tika.service.tika.PageRange;
+import uk.co.flax.tika.service.tika.ParseTimeoutException;
 import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+import uk.co.flax.tika.service.upload.SpooledUpload;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+import uk.co.flax.tika.service.upload.UploadTooLargeException;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipException;
 
-import static uk.co.flax.tika.resources.TikaResource.METADATA_OPKEY;
+import static uk.co.flax.tika.resources.TikaResource.DETECT_OPKEY;
 import static uk.co.flax.tika.resources.TikaResource.TEXT_OPKEY;
+import static uk.co.flax.tika.resources.TikaResource.TEXT_STREAM_OPKEY;
 
 /**
  * JavaDoc for AbstractTikaResource.
@@ -39,46 +76,787 @@ abstract class AbstractTikaResource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractTikaResource.class);
 
+	private static final String CONNECTION_HEADER = "Connection";
+
+	private final TikaParserRegistry parserRegistry;
+	private final ExtractionExecutor executor;
+	private final ParseWatchdog watchdog;
+	private final ExtractionMetrics metrics;
+	private final ForkWorkerPool forkPool;
+	private final UploadSpooler spooler;
+	private final LocalFileResolver localFiles;
+	private final ExtractionCache cache;
+	private final ObjectMapper mapper;
+	private final int maxCharacters;
+	private final EmbeddedConfiguration embeddedLimits;
+	private final boolean async;
+
 	/**
-	 * Read and extract data from a document supplied through a <code>PUT</code> request.
+	 * @param parserRegistry the shared parser registry.
+	 * @param executor the extraction pool.
+	 * @param watchdog the parse watchdog.
+	 * @param metrics the extraction metrics.
+	 * @param forkPool the worker process pool, or <code>null</code> if documents
+	 *                 should be parsed in this JVM.
+	 * @param spooler the spooler used to read request bodies before they are parsed.
+	 * @param localFiles the resolver for local file paths, or <code>null</code>
+	 *                   if local files may not be extracted.
+	 * @param cache the extraction result cache.
+	 * @param mapper the object mapper used to write batch results.
+	 * @param maxCharacters the maximum number of characters of text to extract
+	 *                      from each document, or 0 for no limit.
+	 * @param embeddedLimits the limits for recursive extraction of embedded documents.
+	 * @param async <code>true</code> if requests should be suspended while their
+	 *              documents are extracted.
+	 */
+	AbstractTikaResource(TikaParserRegistry parserRegistry, ExtractionExecutor executor, ParseWatchdog watchdog,
+						 ExtractionMetrics metrics, ForkWorkerPool forkPool, UploadSpooler spooler,
+						 LocalFileResolver localFiles, ExtractionCache cache, ObjectMapper mapper, int maxCharacters,
+						 EmbeddedConfiguration embeddedLimits, boolean async) {
+		this.parserRegistry = parserRegistry;
+		this.executor = executor;
+		this.watchdog = watchdog;
+		this.metrics = metrics;
+		this.forkPool = forkPool;
+		this.spooler = spooler;
+		this.localFiles = localFiles;
+		this.cache = cache;
+		this.mapper = mapper;
+		this.maxCharacters = maxCharacters;
+		this.embeddedLimits = embeddedLimits;
+		this.async = async;
+	}
+
+	/**
+	 * Read and extract data from a document supplied through a <code>PUT</code> request,
+	 * resuming the suspended response with a {@link TikaDocument} containing the extracted
+	 * data, or suitable error messages if problems occurred.
 	 * @param opKey the type of operation required - one of {@link TikaResource#METADATA_OPKEY} (to
 	 *              extract metadata), {@link TikaResource#TEXT_OPKEY} (to extract the text), or
 	 *              {@link TikaResource#FULLDATA_OPKEY} to extract both metadata and the document text.
 	 * @param request the incoming request object.
 	 * @param headers the incoming request headers.
+	 * @param requestedMaxCharacters the limit on the extracted text given in the
+	 *                               request parameters, or <code>null</code>.
+	 * @param requestedPages the range of pages to extract given in the request
+	 *                       parameters, or <code>null</code>.
+	 * @param response the suspended response.
+	 */
+	void handlePut(final String opKey, final HttpServletRequest request, final HttpHeaders headers,
+				   String requestedMaxCharacters, String requestedPages, final AsyncResponse response) {
+		checkUploadSize(request);
+		final int limit = getMaxCharacters(headers, requestedMaxCharacters);
+		final PageRange pages = getPageRange(headers, requestedPages);
+		dispatchUpload(opKey, request, headers, cache.isCacheable(request.getContentLengthLong()), new UploadTask() {
+			@Override
+			public Object call(SpooledUpload upload) {
+				return extract(opKey, upload, request, headers, limit, pages);
+			}
+		}, response);
+	}
+
+	/**
+	 * Extract the text from a document supplied through a <code>PUT</code> request,
+	 * writing it to the response as it is parsed rather than buffering the whole
+	 * text in memory. If the document cannot be parsed once output has started,
+	 * the response is aborted. If the text is longer than the character limit,
+	 * it is cut short at the limit.
+	 * @param request the incoming request object.
+	 * @param headers the incoming request headers.
+	 * @param requestedMaxCharacters the limit on the extracted text given in the
+	 *                               request parameters, or <code>null</code>.
+	 * @param requestedPages the range of pages to extract given in the request
+	 *                       parameters, or <code>null</code>.
+	 * @param response the suspended response.
+	 */
+	void handleTextStream(final HttpServletRequest request, final HttpHeaders headers,
+						  String requestedMaxCharacters, String requestedPages, final AsyncResponse response) {
+		checkUploadSize(request);
+		final int limit = getMaxCharacters(headers, requestedMaxCharacters);
+		final PageRange pages = getPageRange(headers, requestedPages);
+		dispatchUpload(TEXT_STREAM_OPKEY, request, headers, false, new UploadTask() {
+			@Override
+			public Object call(final SpooledUpload upload) {
+				return new StreamingOutput() {
+					@Override
+					public void write(OutputStream output) throws IOException {
+						final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+						final Metadata metadata = TikaExtractor.buildMetadata(headers);
+						try {
+							if (forkPool != null) {
+								forkPool.extractText(metadata, upload.getInputStream(), writer, limit, pages);
+							} else {
+								TikaExtractor extractor = new TikaExtractor(parserRegistry, watchdog, metrics, metadata,
+										upload.getInputStream(), TEXT_OPKEY);
+								extractor.setMaxCharacters(limit);
+								extractor.setPageRange(pages);
+								extractor.extractText(writer);
+							}
+						} catch (IOException e) {
+							metrics.recordError(metrics.getMetricType(metadata), e);
+							throw e;
+						} catch (TikaException e) {
+							LOGGER.error("Tika exception streaming document: {}", e.getMessage());
+							metrics.recordError(metrics.getMetricType(metadata), e);
+							throw new WebApplicationException(e);
+						} catch (SAXException e) {
+							LOGGER.error("SAX exception streaming document: {}", e.getMessage());
+							metrics.recordError(metrics.getMetricType(metadata), e);
+							throw new WebApplicationException(e);
+						} finally {
+							upload.close();
+						}
+						writer.flush();
+					}
+				};
+			}
+		}, response);
+	}
+
+	/**
+	 * Extract data from a document supplied through a <code>PUT</code> request, and
+	 * from each document embedded in it, streaming one {@link TikaDocument} per
+	 * document back as newline-delimited JSON. Each embedded document is written
+	 * as soon as it has been extracted, before its container, and the document
+	 * sent is written last, with the path {@link TikaExtractor#ROOT_PATH}. If the
+	 * outer document cannot be parsed, its entry is an error document. Documents
+	 * in worker processes cannot be extracted recursively, so this is refused
+	 * when they are enabled.
+	 * @param opKey the type of operation required for each document.
+	 * @param request the incoming request object.
+	 * @param headers the incoming request headers.
+	 * @param requestedMaxCharacters the limit on the text extracted from each
+	 *                               document given in the request parameters, or
+	 *                               <code>null</code>.
+	 * @param response the suspended response.
+	 */
+	void handleRecursive(final String opKey, final HttpServletRequest request, final HttpHeaders headers,
+						 String requestedMaxCharacters, final AsyncResponse response) {
+		if (forkPool != null) {
+			throw new WebApplicationException(Response.status(Response.Status.NOT_IMPLEMENTED)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new TikaDocument("Recursive extraction is not available with worker processes"))
+					.build());
+		}
+
+		checkUploadSize(request);
+		final int limit = getMaxCharacters(headers, requestedMaxCharacters);
+		dispatchUpload(opKey, request, headers, false, new UploadTask() {
+			@Override
+			public Object call(final SpooledUpload upload) {
+				return new StreamingOutput() {
+					@Override
+					public void write(final OutputStream output) throws IOException {
+						final TikaExtractor.DocumentSink sink = new TikaExtractor.DocumentSink() {
+							@Override
+							public void add(TikaDocument document) throws IOException {
+								output.write(mapper.writeValueAsBytes(document));
+								output.write('\n');
+								output.flush();
+							}
+						};
+
+						final Metadata metadata = TikaExtractor.buildMetadata(headers);
+						TikaDocument failure = null;
+						try {
+							final TikaExtractor extractor = new TikaExtractor(parserRegistry, watchdog, metrics,
+									metadata, upload.getInputStream(), opKey);
+							extractor.setMaxCharacters(limit);
+							extractor.extractRecursive(sink, embeddedLimits.getMaxDepth(),
+									embeddedLimits.getMaxDocuments());
+						} catch (ParseTimeoutException e) {
+							LOGGER.error("Timeout parsing document: {}", e.getMessage());
+							metrics.recordError(metrics.getMetricType(metadata), e);
+							failure = new TikaDocument(TikaDocument.TIMEOUT_STATUS, e.getMessage(), null, null);
+						} catch (IOException | TikaException | SAXException e) {
+							// If the client has gone away, writing the failure will fail too
+							LOGGER.error("Exception extracting document recursively: {}", e.getMessage());
+							metrics.recordError(metrics.getMetricType(metadata), e);
+							failure = new TikaDocument(e.getMessage());
+						} finally {
+							upload.close();
+						}
+
+						if (failure != null) {
+							sink.add(failure.withPath(TikaExtractor.ROOT_PATH));
+						}
+					}
+				};
+			}
+		}, response);
+	}
+
+	/**
+	 * Detect the type of a document supplied through a <code>PUT</code> request,
+	 * without parsing it. Detection is quick, so it is run on the request thread
+	 * rather than the extraction pool. Only the start of the request body is
+	 * read; if there is more, the connection is closed once the response has
+	 * been sent, rather than reading the rest of the upload.
+	 * @param request the incoming request object.
+	 * @param headers the incoming request headers.
+	 * @return the response, holding a {@link TikaDocument} with the detected type
+	 * in its metadata, or suitable error messages if problems occurred.
+	 */
+	Response handleDetect(HttpServletRequest request, HttpHeaders headers) {
+		final Metadata metadata = TikaExtractor.buildMetadata(headers);
+		TikaDocument ret;
+		boolean inputConsumed = false;
+
+		try {
+			final TikaExtractor extractor = new TikaExtractor(parserRegistry, null, metrics, metadata,
+					request.getInputStream(), DETECT_OPKEY);
+			extractor.detect();
+			inputConsumed = extractor.isInputConsumed();
+			ret = extractor.buildDocument();
+		} catch (IOException e) {
+			LOGGER.error("IO exception detecting document type: {}", e.getMessage());
+			metrics.recordError(metrics.getMetricType(metadata), e);
+			ret = new TikaDocument(e.getMessage());
+		}
+
+		final Response.ResponseBuilder response = Response.ok(ret);
+		if (!inputConsumed) {
+			response.header(CONNECTION_HEADER, "close");
+		}
+		return response.build();
+	}
+
+	/**
+	 * Extract data from each document in a ZIP archive sent through a
+	 * <code>PUT</code> request, in the same way as {@link #handleMultiPartBatch}.
+	 * @param opKey the type of operation required for each document.
+	 * @param request the incoming request object.
+	 * @param headers the incoming request headers.
+	 * @param requestedMaxCharacters the limit on the text extracted from each
+	 *                               document given in the request parameters, or
+	 *                               <code>null</code>.
+	 * @return the response, which will stream the extracted documents.
+	 * @throws IOException if the request body cannot be read.
+	 * @throws WebApplicationException if the request body is too large, or is
+	 * not a ZIP archive.
+	 */
+	Response handleZipBatch(String opKey, HttpServletRequest request, HttpHeaders headers,
+							String requestedMaxCharacters) throws IOException {
+		checkUploadSize(request);
+		final int limit = getMaxCharacters(headers, requestedMaxCharacters);
+		final BatchExtractionOutput.EntrySource source;
+		try {
+			source = BatchExtractionOutput.zipEntries(request.getInputStream(), spooler);
+		} catch (ZipException e) {
+			throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new TikaDocument(e.getMessage()))
+					.build());
+		}
+		return handleBatch(opKey, limit, source);
+	}
+
+	/**
+	 * Extract data from each document in a batch, streaming the results back as
+	 * newline-delimited JSON in the order that they complete. The batch is read
+	 * on the request thread, and its documents are extracted on the extraction
+	 * pool; if the pool is full, documents are extracted on the request thread
+	 * instead, so large batches are slowed down rather than rejected. Each
+	 * document is spooled in the same way as a single upload, and up to two
+	 * documents per extraction thread are held at once, so the next document is
+	 * ready as soon as a thread becomes free. Documents larger than the maximum
+	 * upload size are returned as error documents; a batch with too many
+	 * documents, or too large in total, is cut short with an error document.
+	 * @param opKey the type of operation required for each document.
+	 * @param request the incoming request object.
+	 * @param headers the incoming request headers.
+	 * @param requestedMaxCharacters the limit on the text extracted from each
+	 *                               document given in the request parameters, or
+	 *                               <code>null</code>.
+	 * @param multiPart the documents in the batch.
+	 * @return the response, which will stream the extracted documents.
+	 * @throws WebApplicationException if the request body is too large.
+	 */
+	Response handleMultiPartBatch(String opKey, HttpServletRequest request, HttpHeaders headers,
+								  String requestedMaxCharacters, FormDataMultiPart multiPart) {
+		checkUploadSize(request);
+		final int limit = getMaxCharacters(headers, requestedMaxCharacters);
+		return handleBatch(opKey, limit, BatchExtractionOutput.multiPartEntries(multiPart, spooler));
+	}
+
+	private Response handleBatch(final String opKey, final int limit, BatchExtractionOutput.EntrySource source) {
+		return buildBatchResponse(source, new PooledEntryExtractor() {
+			@Override
+			public TikaDocument extract(BatchExtractionOutput.Entry entry) {
+				final Metadata metadata = TikaExtractor.buildMetadata(entry.getName(), entry.getMediaType());
+				try {
+					return extractDocument(opKey, metadata, entry.getUpload().getInputStream(), limit, null);
+				} catch (IOException e) {
+					LOGGER.error("IO exception reading batch entry: {}", e.getMessage());
+					return new TikaDocument(e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Extract data from files which are already on the server, without their
+	 * content being sent in the request. The files are extracted in parallel,
+	 * and the results streamed back in the same way as a batch, with each
+	 * document's path set to the path requested. Files which are outside the
+	 * allowed roots, or cannot be found, are returned as error documents.
+	 * @param opKey the type of operation required for each file.
+	 * @param headers the incoming request headers.
+	 * @param requestedMaxCharacters the limit on the text extracted from each
+	 *                               file given in the request parameters, or
+	 *                               <code>null</code>.
+	 * @param paths the absolute paths to the files.
+	 * @return the response, which will stream the extracted documents.
+	 * @throws WebApplicationException if local file extraction is not enabled,
+	 * or no paths are given.
+	 */
+	Response handleLocalFiles(final String opKey, HttpHeaders headers, String requestedMaxCharacters,
+							  List<String> paths) {
+		if (localFiles == null) {
+			throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new TikaDocument("Local file extraction is not enabled"))
+					.build());
+		} else if (paths == null || paths.isEmpty()) {
+			throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new TikaDocument("No file paths given"))
+					.build());
+		}
+
+		final int limit = getMaxCharacters(headers, requestedMaxCharacters);
+		return buildBatchResponse(BatchExtractionOutput.localFileEntries(paths), new PooledEntryExtractor() {
+			@Override
+			public TikaDocument extract(BatchExtractionOutput.Entry entry) {
+				return extractLocalFile(opKey, entry.getName(), limit);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of bytes of a request body read to detect its type.
+	 */
+	long getDetectionLength() {
+		return parserRegistry.getConfig().getMimeRepository().getMinLength();
+	}
+
+	/**
+	 * Find the total size of the local files requested, counting only those
+	 * which can be extracted.
+	 * @param paths the absolute paths to the files, or <code>null</code>.
+	 * @return the total size of the files in bytes, or 0 if local file
+	 * extraction is not enabled.
+	 */
+	long getLocalFilesSize(List<String> paths) {
+		long ret = 0;
+		if (localFiles != null && paths != null) {
+			for (String path : paths) {
+				try {
+					ret += Files.size(localFiles.resolve(path));
+				} catch (IOException e) {
+					// Refused or missing - returned as an error document, so not counted
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Build a response streaming the extracted documents in a batch.
+	 */
+	private Response buildBatchResponse(BatchExtractionOutput.EntrySource source,
+										BatchExtractionOutput.EntryExtractor extractor) {
+		final BatchExtractionOutput output = new BatchExtractionOutput(source, extractor, mapper,
+				executor.getThreads() * 2);
+		return Response.ok(output, BatchExtractionOutput.NDJSON).build();
+	}
+
+	/**
+	 * Extract data from a local file on the current thread, converting any
+	 * errors into an error document.
+	 * @param opKey the type of operation required.
+	 * @param path the requested path to the file.
+	 * @param maxCharacters the maximum number of characters of text to extract,
+	 *                      or 0 for no limit.
 	 * @return a {@link TikaDocument} containing the extracted data, or suitable error
 	 * messages if problems occurred.
 	 */
-	TikaDocument handlePut(String opKey, HttpServletRequest request, HttpHeaders headers) {
+	TikaDocument extractLocalFile(String opKey, String path, int maxCharacters) {
+		final Path file;
+		try {
+			file = localFiles.resolve(path);
+		} catch (IOException e) {
+			LOGGER.warn("Cannot extract local file: {}", e.getMessage());
+			return new TikaDocument(e.getMessage());
+		}
+
+		// Opened from the path, so parsers needing random access read the file directly
+		final Metadata metadata = TikaExtractor.buildMetadata(file.getFileName().toString(), null);
+		try (TikaInputStream input = TikaInputStream.get(file, metadata)) {
+			return extractDocument(opKey, metadata, input, maxCharacters, null);
+		} catch (IOException e) {
+			LOGGER.error("IO exception reading local file: {}", e.getMessage());
+			return new TikaDocument(e.getMessage());
+		}
+	}
+
+	/**
+	 * Read a request body, and run a task using it on the extraction pool,
+	 * resuming the response with the task's result. In asynchronous mode, the
+	 * body is read without blocking as it arrives, and the task is only
+	 * submitted once it has all been read, so slow uploads hold neither a
+	 * container thread nor an extraction thread. Otherwise, the body is read
+	 * by the extraction thread once the task has been accepted, so requests
+	 * refused because the pool is busy are not read at all.
+	 * @param opKey the operation being carried out, for logging.
+	 * @param request the incoming request object.
+	 * @param headers the incoming request headers.
+	 * @param hash <code>true</code> if the body should be hashed as it is read.
+	 * @param task the task, which must close the upload once it is finished.
+	 * @param response the suspended response.
+	 */
+	private void dispatchUpload(final String opKey, final HttpServletRequest request, HttpHeaders headers,
+								final boolean hash, final UploadTask task, final AsyncResponse response) {
+		final org.apache.tika.mime.MediaType type = getDeclaredType(headers);
+		if (!async) {
+			dispatch(opKey, type, new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					final SpooledUpload upload;
+					try {
+						upload = spooler.spool(request.getInputStream(), request.getContentLengthLong(), hash);
+					} catch (IOException e) {
+						throw buildReadFailure(e);
+					}
+					return task.call(upload);
+				}
+			}, response);
+			return;
+		}
+
+		try {
+			AsyncUploadReader.read(request.getInputStream(),
+					spooler.open(request.getContentLengthLong(), hash, spooler.getMaxUploadSize()),
+					new AsyncUploadReader.Callback() {
+						@Override
+						public void completed(final SpooledUpload upload) {
+							final boolean submitted = dispatch(opKey, type, new Callable<Object>() {
+								@Override
+								public Object call() throws Exception {
+									return task.call(upload);
+								}
+							}, response);
+							if (!submitted) {
+								upload.close();
+							}
+						}
+
+						@Override
+						public void failed(IOException e) {
+							response.resume(buildReadFailure(e));
+						}
+					});
+		} catch (IOException e) {
+			response.resume(buildReadFailure(e));
+		}
+	}
+
+	/**
+	 * Run a task on the extraction pool, resuming the response with its result.
+	 * Responses are resumed from the extraction thread, so any streamed output is
+	 * also written there. In asynchronous mode, the calling thread returns as soon
+	 * as the task has been queued; otherwise it waits for the task to finish.
+	 * The task runs in the bulkhead for the document's type, if there is one.
+	 * If the pool is too busy to accept the task, the response is resumed with a
+	 * <code>503 Service Unavailable</code> error.
+	 * @param opKey the operation being carried out, for logging.
+	 * @param type the declared type of the document.
+	 * @param task the task, returning the response entity.
+	 * @param response the suspended response.
+	 * @return <code>false</code> if the task was refused.
+	 */
+	private boolean dispatch(String opKey, org.apache.tika.mime.MediaType type, final Callable<Object> task,
+							 final AsyncResponse response) {
+		final Future<?> result;
+		try {
+			result = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					try {
+						response.resume(task.call());
+					} catch (WebApplicationException e) {
+						response.resume(e);
+					} catch (Exception e) {
+						LOGGER.error("Unexpected exception extracting document: {}", e.getMessage());
+						response.resume(new TikaDocument(e.getMessage()));
+					}
+					return null;
+				}
+			}, type);
+		} catch (RejectedExecutionException e) {
+			LOGGER.warn("Rejecting {} request for {} - extraction queue is full", opKey, type);
+			response.resume(new WebApplicationException(buildBusyResponse()));
+			return false;
+		}
+
+		if (!async) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				LOGGER.error("Interrupted waiting for extraction");
+				result.cancel(true);
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				LOGGER.error("Unexpected exception extracting document: {}", e.getCause().getMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Extract data from an uploaded request body on the current thread,
+	 * converting any extraction errors into an error document. If the upload
+	 * was hashed as it was read and caching is enabled, the result is returned
+	 * from the cache where possible, without parsing the document.
+	 * @param opKey the type of operation required.
+	 * @param upload the request body, which is closed once it has been extracted.
+	 * @param request the incoming request object.
+	 * @param headers the incoming request headers.
+	 * @param maxCharacters the maximum number of characters of text to extract,
+	 *                      or 0 for no limit.
+	 * @param pages the range of pages to extract, or <code>null</code> for the
+	 *              whole document.
+	 * @return a {@link TikaDocument} containing the extracted data, or suitable error
+	 * messages if problems occurred.
+	 */
+	TikaDocument extract(String opKey, SpooledUpload upload, HttpServletRequest request, HttpHeaders headers,
+						 int maxCharacters, PageRange pages) {
 		TikaDocument ret;
-		
+
 		try {
-			TikaExtractor extractor = new TikaExtractor(headers, request, opKey);
-			extractor.extract();
+			String cacheKey = null;
+			if (upload.getHash() != null && cache.isCacheable(upload.getLength())) {
+				cacheKey = ExtractionCache.buildKey(opKey, headers, maxCharacters, pages, upload.getHash());
+				TikaDocument cached = cache.get(cacheKey);
+				if (cached != null) {
+					return cached;
+				}
+			}
 
-			if (opKey.equalsIgnoreCase(METADATA_OPKEY)) {
-				ret = new TikaDocument(extractor.getMetadataAsMap(), null);
-			} else if (opKey.equalsIgnoreCase(TEXT_OPKEY)) {
-				ret = new TikaDocument(null, extractor.getBodyText());
+			Metadata metadata = TikaExtractor.buildMetadata(headers);
+			ret = extractDocument(opKey, metadata, upload.getInputStream(), maxCharacters, pages);
+			request.setAttribute(SerialisationTimer.TYPE_PROPERTY, metrics.getMetricType(metadata));
+
+			if (cacheKey != null) {
+				cache.put(cacheKey, ret);
+			}
+		} catch (IOException e) {
+			LOGGER.error("IO exception: {}", e.getMessage());
+			ret = new TikaDocument(e.getMessage());
+		} finally {
+			upload.close();
+		}
+		
+		return ret;
+	}
+
+	/**
+	 * Extract data from a document on the current thread, or in a worker process
+	 * if they are enabled, converting any extraction errors into an error document.
+	 * Errors are counted against the document's detected type, or its declared
+	 * type if the document was parsed in a worker process.
+	 * @param opKey the type of operation required.
+	 * @param metadata the initial metadata for the document.
+	 * @param input the document content.
+	 * @param maxCharacters the maximum number of characters of text to extract,
+	 *                      or 0 for no limit.
+	 * @param pages the range of pages to extract, or <code>null</code> for the
+	 *              whole document.
+	 * @return a {@link TikaDocument} containing the extracted data, or suitable error
+	 * messages if problems occurred.
+	 */
+	TikaDocument extractDocument(String opKey, Metadata metadata, InputStream input, int maxCharacters,
+								 PageRange pages) {
+		TikaDocument ret;
+
+		try {
+			if (forkPool != null) {
+				ret = forkPool.extract(opKey, metadata, input, maxCharacters, pages);
 			} else {
-				ret = new TikaDocument(extractor.getMetadataAsMap(), extractor.getBodyText());
+				TikaExtractor extractor = new TikaExtractor(parserRegistry, watchdog, metrics, metadata, input, opKey);
+				extractor.setMaxCharacters(maxCharacters);
+				extractor.setPageRange(pages);
+				extractor.extract();
+				ret = extractor.buildDocument();
 			}
 		} catch (IOException e) {
 			LOGGER.error("IO exception: {}", e.getMessage());
+			metrics.recordError(metrics.getMetricType(metadata), e);
 			ret = new TikaDocument(e.getMessage());
+		} catch (ParseTimeoutException e) {
+			LOGGER.error("Timeout parsing document: {}", e.getMessage());
+			metrics.recordError(metrics.getMetricType(metadata), e);
+			ret = new TikaDocument(TikaDocument.TIMEOUT_STATUS, e.getMessage(), null, null);
 		} catch (TikaException e) {
 			LOGGER.error("Tika exception for document: {}", e.getMessage());
+			metrics.recordError(metrics.getMetricType(metadata), e);
 			ret = new TikaDocument(e.getMessage());
 		} catch (SAXException e) {
 			LOGGER.error("SAX exception parsing document: {}", e.getMessage());
+			metrics.recordError(metrics.getMetricType(metadata), e);
 			ret = new TikaDocument(e.getMessage());
 		}
-		
+
+		return ret;
+	}
+
+	/**
+	 * Find the character limit for a request. Clients may ask for a lower limit
+	 * than the server's through the {@link TikaResource#MAX_CHARACTERS_PARAM}
+	 * query parameter, or the {@link TikaResource#MAX_CHARACTERS_HEADER} header,
+	 * but cannot raise it.
+	 * @param headers the incoming request headers.
+	 * @param requested the limit given in the query parameters, or
+	 *                  <code>null</code>.
+	 * @return the limit, or 0 for no limit.
+	 * @throws WebApplicationException if the requested limit is not a number.
+	 */
+	int getMaxCharacters(HttpHeaders headers, String requested) {
+		if (requested == null) {
+			requested = headers.getHeaderString(TikaResource.MAX_CHARACTERS_HEADER);
+		}
+
+		int ret = maxCharacters;
+		if (requested != null) {
+			final int limit;
+			try {
+				limit = Integer.parseInt(requested.trim());
+			} catch (NumberFormatException e) {
+				throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+						.type(MediaType.APPLICATION_JSON_TYPE)
+						.entity(new TikaDocument("Invalid character limit: " + requested))
+						.build());
+			}
+			if (limit > 0 && (ret == 0 || limit < ret)) {
+				ret = limit;
+			}
+		}
+
 		return ret;
 	}
 
+	/**
+	 * Find the range of pages to extract for a request, given through the
+	 * {@link TikaResource#PAGES_PARAM} query parameter, or the
+	 * {@link TikaResource#PAGES_HEADER} header.
+	 * @param headers the incoming request headers.
+	 * @param requested the range given in the query parameters, or
+	 *                  <code>null</code>.
+	 * @return the range, or <code>null</code> if the whole document should be
+	 * extracted.
+	 * @throws WebApplicationException if the requested range is not valid.
+	 */
+	PageRange getPageRange(HttpHeaders headers, String requested) {
+		if (requested == null) {
+			requested = headers.getHeaderString(TikaResource.PAGES_HEADER);
+		}
+		if (requested == null || requested.trim().isEmpty()) {
+			return null;
+		}
+
+		try {
+			return PageRange.parse(requested);
+		} catch (IllegalArgumentException e) {
+			throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new TikaDocument("Invalid page range: " + requested))
+					.build());
+		}
+	}
+
+	/**
+	 * Find the type of the document in a request from its headers, without
+	 * reading the request body, to choose the pool to extract it on.
+	 * @param headers the incoming request headers.
+	 * @return the declared type of the document.
+	 */
+	private org.apache.tika.mime.MediaType getDeclaredType(HttpHeaders headers) {
+		return TikaExtractor.detectDeclaredType(parserRegistry, TikaExtractor.buildMetadata(headers));
+	}
+
+	/**
+	 * Refuse a request whose declared length is larger than the largest upload
+	 * accepted, before any of its body is read.
+	 * @param request the incoming request.
+	 * @throws WebApplicationException if the request body is too large.
+	 */
+	private void checkUploadSize(HttpServletRequest request) {
+		if (request.getContentLengthLong() > spooler.getMaxUploadSize()) {
+			throw new WebApplicationException(buildTooLargeResponse(spooler.getMaxUploadSize()));
+		}
+	}
+
+	/**
+	 * Build the error for a request body which could not be read: a
+	 * <code>413 Request Entity Too Large</code> response if it is too large,
+	 * or <code>400 Bad Request</code> otherwise.
+	 */
+	private static WebApplicationException buildReadFailure(IOException e) {
+		if (e instanceof UploadTooLargeException) {
+			return new WebApplicationException(buildTooLargeResponse(((UploadTooLargeException) e).getMaxSize()));
+		}
+		LOGGER.error("IO exception reading request body: {}", e.getMessage());
+		return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+				.type(MediaType.APPLICATION_JSON_TYPE)
+				.entity(new TikaDocument("Cannot read request body: " + e.getMessage()))
+				.build());
+	}
+
+	private static Response buildTooLargeResponse(long maxSize) {
+		return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+				.type(MediaType.APPLICATION_JSON_TYPE)
+				.entity(new TikaDocument("Document is larger than the maximum size of " + maxSize + " bytes"))
+				.build();
+	}
+
+	private Response buildBusyResponse() {
+		return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, executor.getRetryAfterSeconds())
+				.type(MediaType.APPLICATION_JSON_TYPE)
+				.entity(new TikaDocument("Server is busy - please retry later"))
+				.build();
+	}
+
 	String handleGet() {
 		return "Use PUT request with the required document in the request body to convert your document.";
 	}
 
+
+	/**
+	 * Work carried out on a request body once it has been read.
+	 */
+	private interface UploadTask {
+
+		/**
+		 * @param upload the request body, which the task must close once it
+		 *               has finished with it.
+		 * @return the response entity.
+		 */
+		Object call(SpooledUpload upload) throws Exception;
+	}
+
+	/**
+	 * Batch entry extractor running its tasks on the extraction pool, or the
+	 * bulkhead for the entry's declared type, or on the calling thread if the
+	 * pool is full, so large batches are slowed down rather than rejected.
+	 */
+	private abstract class PooledEntryExtractor implements BatchExtractionOutput.EntryExtractor {
+
+		@Override
+		public void submit(BatchExtractionOutput.Entry entry, Callable<Void> task) {
+			executor.submitOrRun(task, TikaExtractor.detectDeclaredType(parserRegistry,
+					TikaExtractor.buildMetadata(entry.getName(), entry.getMediaType())));
+		}
+	}
+
 }
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.resources;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.flax.tika.service.upload.SpooledUpload;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.IOException;
+
+/**
+ * Reads a request body without blocking, using the Servlet 3.1 read
+ * listener, writing it to an upload as it arrives. Once the whole body has
+ * been read, the callback is given the upload; if it cannot be read, or
+ * turns out to be too large, the upload is discarded and the callback given
+ * the exception. The request must be in asynchronous mode.
+ *
+ * @author mlp
+ */
+class AsyncUploadReader implements ReadListener {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncUploadReader.class);
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private final ServletInputStream input;
+	private final UploadSpooler.UploadWriter writer;
+	private final Callback callback;
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private boolean done;
+
+	private AsyncUploadReader(ServletInputStream input, UploadSpooler.UploadWriter writer, Callback callback) {
+		this.input = input;
+		this.writer = writer;
+		this.callback = callback;
+	}
+
+	/**
+	 * Start reading a request body. The callback is called on a container
+	 * thread once the body has been read.
+	 * @param input the request body.
+	 * @param writer the upload to write the body to.
+	 * @param callback the callback to be given the upload.
+	 */
+	static void read(ServletInputStream input, UploadSpooler.UploadWriter writer, Callback callback) {
+		input.setReadListener(new AsyncUploadReader(input, writer, callback));
+	}
+
+	@Override
+	public void onDataAvailable() {
+		try {
+			int read;
+			while (!done && input.isReady() && (read = input.read(chunk)) >= 0) {
+				writer.write(chunk, 0, read);
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void onAllDataRead() {
+		if (!done) {
+			done = true;
+			final SpooledUpload upload;
+			try {
+				upload = writer.finish();
+			} catch (IOException e) {
+				writer.close();
+				callback.failed(e);
+				return;
+			}
+			callback.completed(upload);
+		}
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		LOGGER.debug("Error reading request body: {}", t.getMessage());
+		fail(t instanceof IOException ? (IOException) t : new IOException(t));
+	}
+
+	private void fail(IOException e) {
+		if (!done) {
+			done = true;
+			writer.close();
+			callback.failed(e);
+		}
+	}
+
+
+	/**
+	 * Receives the result of reading a request body.
+	 */
+	interface Callback {
+
+		/**
+		 * @param upload the request body, which the callback must close.
+		 */
+		void completed(SpooledUpload upload);
+
+		/**
+		 * @param e the reason the body could not be read - an
+		 *          {@link uk.co.flax.tika.service.upload.UploadTooLargeException}
+		 *          if it is too large.
+		 */
+		void failed(IOException e);
+	}
+
+}
@@ -16,36 +16,165 @@
 
 package uk.co.flax.tika.resources;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dropwizard.auth.Auth;
+import org.glassfish.jersey.media.multipart.FormDataMultiPart;
+import org.glassfish.jersey.server.CloseableService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.List;
 
 import uk.co.flax.tika.api.TikaDocument;
 import uk.co.flax.tika.auth.User;
+import uk.co.flax.tika.config.EmbeddedConfiguration;
+import uk.co.flax.tika.service.cache.ExtractionCache;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+import uk.co.flax.tika.service.fork.ForkWorkerPool;
+import uk.co.flax.tika.service.local.LocalFileResolver;
+import uk.co.flax.tika.service.quota.QuotaExceededException;
+import uk.co.flax.tika.service.quota.UserQuotas;
+import uk.co.flax.tika.service.tika.ExtractionMetrics;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+import uk.co.flax.tika.service.upload.UploadSpooler;
 
 /**
- * Authenticated version of the Tika class.
+ * Authenticated version of the Tika class. Each extraction request is
+ * counted against the user's quota, and refused with
+ * <code>429 Too Many Requests</code> if it would exceed it. Requests are
+ * charged for the bytes they cause to be read: the request body for most,
+ * only the start of the body for type detection, and the sizes of the
+ * requested files for local file extraction.
  *
  * @author mlp
  */
 @Path("/tika")
 public class AuthenticatedTikaResource extends AbstractTikaResource {
-	
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AuthenticatedTikaResource.class);
+
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	private final UserQuotas quotas;
+
+	public AuthenticatedTikaResource(TikaParserRegistry parserRegistry, ExtractionExecutor executor,
+			ParseWatchdog watchdog, ExtractionMetrics metrics, ForkWorkerPool forkPool, UploadSpooler spooler,
+			LocalFileResolver localFiles, ExtractionCache cache, ObjectMapper mapper, int maxCharacters,
+			EmbeddedConfiguration embeddedLimits, boolean async, UserQuotas quotas) {
+		super(parserRegistry, executor, watchdog, metrics, forkPool, spooler, localFiles, cache, mapper,
+				maxCharacters, embeddedLimits, async);
+		this.quotas = quotas;
+	}
+
 	@PUT @Path("/{opKey}")
-	@Produces(MediaType.APPLICATION_JSON)
-	public TikaDocument handlePut(@Auth User user,
-			@PathParam("opKey") String opKey, 
+	@Produces({ MediaType.APPLICATION_JSON, BinaryDocumentWriter.SMILE, BinaryDocumentWriter.CBOR,
+			BinaryDocumentWriter.MSGPACK })
+	public void handlePut(@Auth User user,
+			@PathParam("opKey") String opKey,
 			@Context HttpServletRequest request,
-			@Context HttpHeaders headers) {
-		return handlePut(opKey, request, headers);
+			@Context HttpHeaders headers,
+			@Context CloseableService closer,
+			@QueryParam(TikaResource.MAX_CHARACTERS_PARAM) String maxCharacters,
+			@QueryParam(TikaResource.PAGES_PARAM) String pages,
+			@Suspended AsyncResponse response) {
+		acquireQuota(user, headers, closer);
+		handlePut(opKey, request, headers, maxCharacters, pages, response);
+	}
+
+	@PUT @Path("/" + TikaResource.TEXT_STREAM_OPKEY)
+	@Produces(MediaType.TEXT_PLAIN + "; charset=UTF-8")
+	public void handleTextStream(@Auth User user,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@Context CloseableService closer,
+			@QueryParam(TikaResource.MAX_CHARACTERS_PARAM) String maxCharacters,
+			@QueryParam(TikaResource.PAGES_PARAM) String pages,
+			@Suspended AsyncResponse response) {
+		acquireQuota(user, headers, closer);
+		handleTextStream(request, headers, maxCharacters, pages, response);
+	}
+
+	@PUT @Path("/" + TikaResource.DETECT_OPKEY)
+	@Produces({ MediaType.APPLICATION_JSON, BinaryDocumentWriter.SMILE, BinaryDocumentWriter.CBOR,
+			BinaryDocumentWriter.MSGPACK })
+	public Response handleDetect(@Auth User user,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@Context CloseableService closer) {
+		// Only the start of the body is read, whatever its length
+		final long length = headers.getLength();
+		acquireQuota(user, length < 0 ? getDetectionLength() : Math.min(length, getDetectionLength()), closer);
+		return handleDetect(request, headers);
+	}
+
+	@PUT @Path("/" + TikaResource.RECURSIVE_PATH + "/{opKey}")
+	@Produces(BatchExtractionOutput.NDJSON)
+	public void handleRecursive(@Auth User user,
+			@PathParam("opKey") String opKey,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@Context CloseableService closer,
+			@QueryParam(TikaResource.MAX_CHARACTERS_PARAM) String maxCharacters,
+			@Suspended AsyncResponse response) {
+		acquireQuota(user, headers, closer);
+		handleRecursive(opKey, request, headers, maxCharacters, response);
+	}
+
+	@PUT @Path("/" + TikaResource.BATCH_PATH + "/{opKey}")
+	@Produces(BatchExtractionOutput.NDJSON)
+	public Response handleZipBatch(@Auth User user,
+			@PathParam("opKey") String opKey,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@Context CloseableService closer,
+			@QueryParam(TikaResource.MAX_CHARACTERS_PARAM) String maxCharacters) throws IOException {
+		acquireQuota(user, headers, closer);
+		return handleZipBatch(opKey, request, headers, maxCharacters);
+	}
+
+	@POST @Path("/" + TikaResource.BATCH_PATH + "/{opKey}")
+	@Consumes(MediaType.MULTIPART_FORM_DATA)
+	@Produces(BatchExtractionOutput.NDJSON)
+	public Response handleMultiPartBatch(@Auth User user,
+			@PathParam("opKey") String opKey,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@Context CloseableService closer,
+			@QueryParam(TikaResource.MAX_CHARACTERS_PARAM) String maxCharacters,
+			FormDataMultiPart multiPart) {
+		acquireQuota(user, headers, closer);
+		return handleMultiPartBatch(opKey, request, headers, maxCharacters, multiPart);
+	}
+
+	@POST @Path("/" + TikaResource.LOCAL_PATH + "/{opKey}")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(BatchExtractionOutput.NDJSON)
+	public Response handleLocalFiles(@Auth User user,
+			@PathParam("opKey") String opKey,
+			@Context HttpHeaders headers,
+			@Context CloseableService closer,
+			@QueryParam(TikaResource.MAX_CHARACTERS_PARAM) String maxCharacters,
+			List<String> paths) {
+		acquireQuota(user, getLocalFilesSize(paths), closer);
+		return handleLocalFiles(opKey, headers, maxCharacters, paths);
 	}
 
 	@GET
@@ -53,5 +182,51 @@ public class AuthenticatedTikaResource extends AbstractTikaResource {
 	public String handleGet(@Auth User user) {
 		return handleGet();
 	}
+
+	/**
+	 * Count a request against the user's quota, charging it for the length of
+	 * its body, and releasing it when the response has been written.
+	 * @param user the authenticated user.
+	 * @param headers the incoming request headers.
+	 * @param closer the request's closeable service, which closes the quota
+	 *               permit once the response is complete.
+	 * @throws WebApplicationException if the request would exceed the user's
+	 * quota, or the user's bytes are limited and the request has no
+	 * <code>Content-Length</code>.
+	 */
+	private void acquireQuota(User user, HttpHeaders headers, CloseableService closer) {
+		acquireQuota(user, headers.getLength(), closer);
+	}
+
+	/**
+	 * Count a request against the user's quota, releasing it when the
+	 * response has been written.
+	 * @param user the authenticated user.
+	 * @param length the number of bytes to charge the request for, or -1 if
+	 *               not known.
+	 * @param closer the request's closeable service, which closes the quota
+	 *               permit once the response is complete.
+	 * @throws WebApplicationException if the request would exceed the user's
+	 * quota, or the user's bytes are limited and the length is not known.
+	 */
+	private void acquireQuota(User user, long length, CloseableService closer) {
+		if (length < 0 && quotas.isLengthRequired(user.getName())) {
+			throw new WebApplicationException(Response.status(Response.Status.LENGTH_REQUIRED)
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new TikaDocument("Content-Length is required"))
+					.build());
+		}
+
+		try {
+			closer.add(quotas.acquire(user.getName(), length));
+		} catch (QuotaExceededException e) {
+			LOGGER.warn("Rejecting request: {}", e.getMessage());
+			throw new WebApplicationException(Response.status(TOO_MANY_REQUESTS)
+					.header(HttpHeaders.RETRY_AFTER, e.getRetryAfterSeconds())
+					.type(MediaType.APPLICATION_JSON_TYPE)
+					.entity(new TikaDocument(e.getMessage()))
+					.build());
+		}
+	}
 	
 }
@@ -0,0 +1,406 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.flax.tika.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.glassfish.jersey.media.multipart.BodyPart;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataMultiPart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.upload.SpooledUpload;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+import uk.co.flax.tika.service.upload.UploadTooLargeException;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streaming output for batch requests, writing one {@link TikaDocument} per
+ * batch entry as newline-delimited JSON.
+ * <p>
+ * Entries are read from their source one at a time, and handed to a task
+ * for extraction; results are written as soon as each task finishes, so
+ * they are not in the same order as the entries. Entries are spooled in the
+ * same way as single uploads, and a limited number are held awaiting
+ * extraction at any one time. Failures for individual entries, including
+ * entries larger than the maximum upload size, are written as error
+ * documents, and do not stop the rest of the batch; a batch with too many
+ * entries, or too large in total, is cut short with an error document.
+ *
+ * @author mlp
+ */
+class BatchExtractionOutput implements StreamingOutput {
+
+	static final String NDJSON = "application/x-ndjson";
+
+	private static final byte[] ZIP_SIGNATURE = { 'P', 'K', 3, 4 };
+	private static final byte[] EMPTY_ZIP_SIGNATURE = { 'P', 'K', 5, 6 };
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BatchExtractionOutput.class);
+
+	private final EntrySource source;
+	private final EntryExtractor extractor;
+	private final ObjectMapper mapper;
+	private final int maxInFlight;
+
+	BatchExtractionOutput(EntrySource source, EntryExtractor extractor, ObjectMapper mapper, int maxInFlight) {
+		this.source = source;
+		this.extractor = extractor;
+		this.mapper = mapper;
+		this.maxInFlight = maxInFlight;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		final BlockingQueue<TikaDocument> completed = new LinkedBlockingQueue<>();
+		int inFlight = 0;
+
+		try {
+			Entry entry = nextEntry(output);
+			while (entry != null) {
+				if (entry.getError() != null) {
+					writeDocument(output, new TikaDocument(entry.getError()).withPath(entry.getName()));
+				} else {
+					extractor.submit(entry, buildTask(entry, completed));
+					inFlight++;
+				}
+
+				// Write out anything which has finished while we were reading
+				TikaDocument doc;
+				while ((doc = completed.poll()) != null) {
+					writeDocument(output, doc);
+					inFlight--;
+				}
+
+				// Wait for a free slot before reading the next entry
+				if (inFlight == maxInFlight) {
+					writeDocument(output, completed.take());
+					inFlight--;
+				}
+
+				entry = nextEntry(output);
+			}
+
+			while (inFlight > 0) {
+				writeDocument(output, completed.take());
+				inFlight--;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for batch entries to complete", e);
+		}
+	}
+
+	private Entry nextEntry(OutputStream output) throws IOException {
+		Entry entry = null;
+		try {
+			entry = source.next();
+		} catch (IOException e) {
+			// The batch body is unreadable - report it, and stop reading
+			LOGGER.error("Cannot read batch entry: {}", e.getMessage());
+			writeDocument(output, new TikaDocument("Cannot read batch entry: " + e.getMessage()));
+		}
+		return entry;
+	}
+
+	private Callable<Void> buildTask(final Entry entry, final BlockingQueue<TikaDocument> completed) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() {
+				TikaDocument ret;
+				try {
+					ret = extractor.extract(entry);
+				} catch (RuntimeException e) {
+					LOGGER.error("Unexpected exception extracting batch entry {}: {}", entry.getName(), e.getMessage());
+					ret = new TikaDocument(e.getMessage());
+				} finally {
+					entry.close();
+				}
+				completed.add(ret.withPath(entry.getName()));
+				return null;
+			}
+		};
+	}
+
+	private void writeDocument(OutputStream output, TikaDocument document) throws IOException {
+		output.write(mapper.writeValueAsBytes(document));
+		output.write('\n');
+		output.flush();
+	}
+
+	/**
+	 * Build a source reading the files in a ZIP archive. Directory entries are
+	 * skipped, and the type of each file is detected when it is parsed. The
+	 * start of the archive is read straight away, to check that it is one.
+	 * @param input the archive content.
+	 * @param spooler the spooler used to read each file, which also sets the
+	 *                limits on the batch.
+	 * @return the entry source.
+	 * @throws ZipException if the input is not a ZIP archive.
+	 * @throws IOException if the input cannot be read.
+	 */
+	static EntrySource zipEntries(InputStream input, UploadSpooler spooler) throws IOException {
+		final PushbackInputStream pushback = new PushbackInputStream(input, ZIP_SIGNATURE.length);
+		final byte[] signature = new byte[ZIP_SIGNATURE.length];
+		int read = 0;
+		int count;
+		while (read < signature.length && (count = pushback.read(signature, read, signature.length - read)) > 0) {
+			read += count;
+		}
+		// An empty archive has only its end record
+		if (!Arrays.equals(signature, ZIP_SIGNATURE) && !Arrays.equals(signature, EMPTY_ZIP_SIGNATURE)) {
+			throw new ZipException("Request body is not a ZIP archive");
+		}
+		pushback.unread(signature, 0, read);
+
+		final ZipInputStream zip = new ZipInputStream(pushback);
+		return new SpoolingEntrySource(spooler) {
+			@Override
+			public Entry next() throws IOException {
+				ZipEntry zipEntry = zip.getNextEntry();
+				while (zipEntry != null && zipEntry.isDirectory()) {
+					zipEntry = zip.getNextEntry();
+				}
+
+				Entry ret = null;
+				if (zipEntry != null) {
+					ret = spool(zipEntry.getName(), null, zip, zipEntry.getSize());
+				}
+				return ret;
+			}
+		};
+	}
+
+	/**
+	 * Build a source reading the parts of a multipart request. Each part is
+	 * named by its file name, or its field name if it has no file name.
+	 * @param multiPart the request body.
+	 * @param spooler the spooler used to read each part, which also sets the
+	 *                limits on the batch.
+	 * @return the entry source.
+	 */
+	static EntrySource multiPartEntries(FormDataMultiPart multiPart, UploadSpooler spooler) {
+		final Iterator<BodyPart> parts = multiPart.getBodyParts().iterator();
+		return new SpoolingEntrySource(spooler) {
+			@Override
+			public Entry next() throws IOException {
+				Entry ret = null;
+				if (parts.hasNext()) {
+					FormDataBodyPart part = (FormDataBodyPart) parts.next();
+					String name = part.getFormDataContentDisposition().getFileName();
+					if (name == null) {
+						name = part.getName();
+					}
+					// Parts without a declared type default to text/plain - detect their type instead
+					MediaType mediaType = null;
+					if (part.getHeaders().containsKey(HttpHeaders.CONTENT_TYPE)) {
+						mediaType = part.getMediaType();
+					}
+					try (InputStream partInput = part.getEntityAs(InputStream.class)) {
+						ret = spool(name, mediaType, partInput, -1);
+					}
+				}
+				return ret;
+			}
+		};
+	}
+
+
+	/**
+	 * Build a source naming files on the server, which are read when they are
+	 * extracted rather than when the batch is read.
+	 * @param paths the paths to the files.
+	 * @return the entry source.
+	 */
+	static EntrySource localFileEntries(List<String> paths) {
+		final Iterator<String> pathIterator = paths.iterator();
+		return new EntrySource() {
+			@Override
+			public Entry next() {
+				Entry ret = null;
+				if (pathIterator.hasNext()) {
+					ret = new Entry(pathIterator.next(), null, null);
+				}
+				return ret;
+			}
+		};
+	}
+
+
+	/**
+	 * A single document in a batch, spooled in memory or to a temporary file;
+	 * a file to be read when the document is extracted; or a document which
+	 * could not be read.
+	 */
+	static class Entry {
+
+		private final String name;
+		private final MediaType mediaType;
+		private final SpooledUpload upload;
+		private final String error;
+
+		Entry(String name, MediaType mediaType, SpooledUpload upload) {
+			this.name = name;
+			this.mediaType = mediaType;
+			this.upload = upload;
+			this.error = null;
+		}
+
+		Entry(String name, String error) {
+			this.name = name;
+			this.mediaType = null;
+			this.upload = null;
+			this.error = error;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the declared type of the entry, or <code>null</code> if the
+		 * type should be detected.
+		 */
+		MediaType getMediaType() {
+			return mediaType;
+		}
+
+		/**
+		 * @return the content of the entry, or <code>null</code> if the entry's
+		 * name is the path to a local file, or the entry could not be read.
+		 */
+		SpooledUpload getUpload() {
+			return upload;
+		}
+
+		/**
+		 * @return the reason the entry could not be read, or <code>null</code>.
+		 */
+		String getError() {
+			return error;
+		}
+
+		/**
+		 * Release the entry's content, once it has been extracted.
+		 */
+		void close() {
+			if (upload != null) {
+				upload.close();
+			}
+		}
+	}
+
+	/**
+	 * Base for sources reading the content of each entry from the request,
+	 * spooling it through the upload spooler, and enforcing the limits on the
+	 * number of entries in a batch and their total size.
+	 */
+	abstract static class SpoolingEntrySource implements EntrySource {
+
+		private final UploadSpooler spooler;
+		private int count;
+		private long totalSize;
+
+		SpoolingEntrySource(UploadSpooler spooler) {
+			this.spooler = spooler;
+		}
+
+		/**
+		 * Spool the content of the next entry.
+		 * @param name the entry's name.
+		 * @param mediaType the entry's declared type, or <code>null</code>.
+		 * @param input the entry content. This is read to the end of the entry,
+		 *              or the maximum size, but not closed.
+		 * @param length the declared length of the entry, or -1 if not known.
+		 * @return the entry, or an entry holding an error if it is larger than
+		 * the maximum upload size.
+		 * @throws IOException if the entry cannot be read, or the batch has
+		 * too many entries or is too large.
+		 */
+		Entry spool(String name, MediaType mediaType, InputStream input, long length) throws IOException {
+			if (++count > spooler.getMaxBatchDocuments()) {
+				throw new IOException("Batch has more than the maximum of " + spooler.getMaxBatchDocuments()
+						+ " documents");
+			}
+
+			final long remaining = spooler.getMaxBatchSize() - totalSize;
+			final long maxSize = Math.min(spooler.getMaxUploadSize(), remaining);
+			try {
+				final SpooledUpload upload = spooler.spool(input, length, false, maxSize);
+				totalSize += upload.getLength();
+				return new Entry(name, mediaType, upload);
+			} catch (UploadTooLargeException e) {
+				if (maxSize == remaining) {
+					throw new IOException("Batch is larger than the maximum size of " + spooler.getMaxBatchSize()
+							+ " bytes");
+				}
+				LOGGER.warn("Batch entry {} is larger than the maximum size of {} bytes", name, maxSize);
+				return new Entry(name, "Document is larger than the maximum size of " + maxSize + " bytes");
+			}
+		}
+	}
+
+	/**
+	 * Source of the entries in a batch.
+	 */
+	interface EntrySource {
+
+		/**
+		 * @return the next entry, or <code>null</code> if there are no more.
+		 * @throws IOException if the batch cannot be read.
+		 */
+		Entry next() throws IOException;
+	}
+
+	/**
+	 * Extracts the data from batch entries.
+	 */
+	interface EntryExtractor {
+
+		/**
+		 * Run a task, usually on another thread.
+		 * @param entry the entry the task will extract.
+		 * @param task the task to run.
+		 */
+		void submit(Entry entry, Callable<Void> task);
+
+		/**
+		 * Extract the data from an entry, converting any errors into an
+		 * error document.
+		 * @param entry the entry.
+		 * @return the extracted document.
+		 */
+		TikaDocument extract(Entry entry);
+	}
+
+}
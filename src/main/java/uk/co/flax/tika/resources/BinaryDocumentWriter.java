@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.resources;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.dropwizard.jackson.Jackson;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import uk.co.flax.tika.api.TikaDocument;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes {@link TikaDocument} responses in a binary encoding of the JSON data
+ * model, for clients which ask for it through the <code>Accept</code> header.
+ * The documents have the same structure as the JSON responses, but are
+ * smaller and cheaper to write, particularly when they hold long text.
+ * <p>
+ * Each encoding has its own subclass, so that they can all be registered
+ * with Jersey.
+ *
+ * @author mlp
+ */
+public abstract class BinaryDocumentWriter implements MessageBodyWriter<TikaDocument> {
+
+	/** Smile, Jackson's binary JSON format. */
+	public static final String SMILE = "application/x-jackson-smile";
+	/** CBOR, as defined by RFC 7049. */
+	public static final String CBOR = "application/cbor";
+	/** MessagePack. */
+	public static final String MSGPACK = "application/x-msgpack";
+
+	private final JsonFactory factory;
+	private final ObjectWriter writer;
+
+	BinaryDocumentWriter(JsonFactory factory) {
+		// The response stream is closed by the container
+		this.factory = factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		this.writer = Jackson.newObjectMapper(factory).writerFor(TikaDocument.class);
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return TikaDocument.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public long getSize(TikaDocument document, Class<?> type, Type genericType, Annotation[] annotations,
+						MediaType mediaType) {
+		return -1;
+	}
+
+	@Override
+	public void writeTo(TikaDocument document, Class<?> type, Type genericType, Annotation[] annotations,
+						MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream output)
+			throws IOException, WebApplicationException {
+		try (JsonGenerator generator = factory.createGenerator(output)) {
+			writer.writeValue(generator, document);
+		}
+	}
+
+
+	/**
+	 * Writer for {@link #SMILE} responses.
+	 */
+	@Provider
+	@Produces(SMILE)
+	public static class Smile extends BinaryDocumentWriter {
+
+		public Smile() {
+			super(new SmileFactory());
+		}
+	}
+
+	/**
+	 * Writer for {@link #CBOR} responses.
+	 */
+	@Provider
+	@Produces(CBOR)
+	public static class Cbor extends BinaryDocumentWriter {
+
+		public Cbor() {
+			super(new CBORFactory());
+		}
+	}
+
+	/**
+	 * Writer for {@link #MSGPACK} responses.
+	 */
+	@Provider
+	@Produces(MSGPACK)
+	public static class MessagePack extends BinaryDocumentWriter {
+
+		public MessagePack() {
+			super(new MessagePackFactory());
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.resources;
+
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.tika.ExtractionMetrics;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Interceptor timing how long extracted documents take to be written to
+ * the response. The resource sets the {@link #TYPE_PROPERTY} request
+ * property to the document's metric type when it extracts a document;
+ * responses without it, such as cache hits and error responses, are not
+ * timed.
+ *
+ * @author mlp
+ */
+@Provider
+public class SerialisationTimer implements WriterInterceptor {
+
+	static final String TYPE_PROPERTY = SerialisationTimer.class.getName() + ".type";
+
+	private final ExtractionMetrics metrics;
+
+	public SerialisationTimer(ExtractionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+		final Object type = context.getProperty(TYPE_PROPERTY);
+		if (type == null || !(context.getEntity() instanceof TikaDocument)) {
+			context.proceed();
+		} else {
+			final long start = System.nanoTime();
+			context.proceed();
+			metrics.recordSerialisation(type.toString(), System.nanoTime() - start);
+		}
+	}
+
+}
@@ -17,16 +17,34 @@
 package uk.co.flax.tika.resources;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.List;
 
-import uk.co.flax.tika.api.TikaDocument;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.glassfish.jersey.media.multipart.FormDataMultiPart;
+import uk.co.flax.tika.config.EmbeddedConfiguration;
+import uk.co.flax.tika.service.cache.ExtractionCache;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+import uk.co.flax.tika.service.fork.ForkWorkerPool;
+import uk.co.flax.tika.service.local.LocalFileResolver;
+import uk.co.flax.tika.service.tika.ExtractionMetrics;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+import uk.co.flax.tika.service.upload.UploadSpooler;
 
 /**
  * Resource handler for the /tika endpoint, converting documents
@@ -40,16 +58,106 @@ public class TikaResource extends AbstractTikaResource {
 	public static final String METADATA_OPKEY = "metadata";
 	public static final String FULLDATA_OPKEY = "fulldata";
 	public static final String TEXT_OPKEY = "text";
+	public static final String TEXT_STREAM_OPKEY = "text/stream";
+	public static final String DETECT_OPKEY = "detect";
+	public static final String BATCH_PATH = "batch";
+	public static final String LOCAL_PATH = "local";
+	public static final String RECURSIVE_PATH = "recursive";
+
+	/** Query parameter used to lower the limit on the characters extracted. */
+	public static final String MAX_CHARACTERS_PARAM = "maxCharacters";
+	/** Header used to lower the limit on the characters extracted. */
+	public static final String MAX_CHARACTERS_HEADER = "Max-Characters";
+	/** Query parameter used to extract the text of a range of pages. */
+	public static final String PAGES_PARAM = "pages";
+	/** Header used to extract the text of a range of pages. */
+	public static final String PAGES_HEADER = "Page-Range";
+
+	public TikaResource(TikaParserRegistry parserRegistry, ExtractionExecutor executor,
+			ParseWatchdog watchdog, ExtractionMetrics metrics, ForkWorkerPool forkPool, UploadSpooler spooler,
+			LocalFileResolver localFiles, ExtractionCache cache, ObjectMapper mapper, int maxCharacters,
+			EmbeddedConfiguration embeddedLimits, boolean async) {
+		super(parserRegistry, executor, watchdog, metrics, forkPool, spooler, localFiles, cache, mapper,
+				maxCharacters, embeddedLimits, async);
+	}
 
 	@Override
 	@PUT @Path("/{opKey}")
-	@Produces(MediaType.APPLICATION_JSON)
-	public TikaDocument handlePut(@PathParam("opKey") String opKey, 
+	@Produces({ MediaType.APPLICATION_JSON, BinaryDocumentWriter.SMILE, BinaryDocumentWriter.CBOR,
+			BinaryDocumentWriter.MSGPACK })
+	public void handlePut(@PathParam("opKey") String opKey,
 			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@QueryParam(MAX_CHARACTERS_PARAM) String maxCharacters,
+			@QueryParam(PAGES_PARAM) String pages,
+			@Suspended AsyncResponse response) {
+		super.handlePut(opKey, request, headers, maxCharacters, pages, response);
+	}
+
+	@Override
+	@PUT @Path("/" + TEXT_STREAM_OPKEY)
+	@Produces(MediaType.TEXT_PLAIN + "; charset=UTF-8")
+	public void handleTextStream(@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@QueryParam(MAX_CHARACTERS_PARAM) String maxCharacters,
+			@QueryParam(PAGES_PARAM) String pages,
+			@Suspended AsyncResponse response) {
+		super.handleTextStream(request, headers, maxCharacters, pages, response);
+	}
+
+	@Override
+	@PUT @Path("/" + DETECT_OPKEY)
+	@Produces({ MediaType.APPLICATION_JSON, BinaryDocumentWriter.SMILE, BinaryDocumentWriter.CBOR,
+			BinaryDocumentWriter.MSGPACK })
+	public Response handleDetect(@Context HttpServletRequest request,
 			@Context HttpHeaders headers) {
-		return super.handlePut(opKey, request, headers);
+		return super.handleDetect(request, headers);
 	}
 	
+	@Override
+	@PUT @Path("/" + RECURSIVE_PATH + "/{opKey}")
+	@Produces(BatchExtractionOutput.NDJSON)
+	public void handleRecursive(@PathParam("opKey") String opKey,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@QueryParam(MAX_CHARACTERS_PARAM) String maxCharacters,
+			@Suspended AsyncResponse response) {
+		super.handleRecursive(opKey, request, headers, maxCharacters, response);
+	}
+
+	@Override
+	@PUT @Path("/" + BATCH_PATH + "/{opKey}")
+	@Produces(BatchExtractionOutput.NDJSON)
+	public Response handleZipBatch(@PathParam("opKey") String opKey,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@QueryParam(MAX_CHARACTERS_PARAM) String maxCharacters) throws IOException {
+		return super.handleZipBatch(opKey, request, headers, maxCharacters);
+	}
+
+	@Override
+	@POST @Path("/" + BATCH_PATH + "/{opKey}")
+	@Consumes(MediaType.MULTIPART_FORM_DATA)
+	@Produces(BatchExtractionOutput.NDJSON)
+	public Response handleMultiPartBatch(@PathParam("opKey") String opKey,
+			@Context HttpServletRequest request,
+			@Context HttpHeaders headers,
+			@QueryParam(MAX_CHARACTERS_PARAM) String maxCharacters,
+			FormDataMultiPart multiPart) {
+		return super.handleMultiPartBatch(opKey, request, headers, maxCharacters, multiPart);
+	}
+
+	@Override
+	@POST @Path("/" + LOCAL_PATH + "/{opKey}")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(BatchExtractionOutput.NDJSON)
+	public Response handleLocalFiles(@PathParam("opKey") String opKey,
+			@Context HttpHeaders headers,
+			@QueryParam(MAX_CHARACTERS_PARAM) String maxCharacters,
+			List<String> paths) {
+		return super.handleLocalFiles(opKey, headers, maxCharacters, paths);
+	}
+
 	@Override
 	@GET
 	@Produces(MediaType.TEXT_PLAIN)
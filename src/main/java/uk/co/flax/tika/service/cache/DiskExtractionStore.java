@@ -0,0 +1,669 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.cache;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.DiskCacheConfiguration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Persistent store for extraction results, used as a second tier behind the
+ * in-memory cache so that cached results survive a restart.
+ * <p>
+ * Results are appended to segment files in the cache directory. Each record
+ * holds a CRC32 checksum, the time it was written, the cache key and the
+ * document serialized as JSON. When a segment reaches the configured size it
+ * is sealed: it is flushed to disk, memory-mapped for reading, and a compact
+ * index file listing the location of each record is written alongside it.
+ * <p>
+ * On startup, the in-memory index is rebuilt from the index files of sealed
+ * segments, scanning any segment without one. Scanning stops at the first
+ * record which fails its checksum, and the segment is truncated there, so a
+ * record left half-written by a crash is discarded.
+ * <p>
+ * When the total size of the segments passes the configured maximum, the
+ * oldest segments are compacted on a background thread, so writers are not
+ * held up: records which have been read since they were written, and have
+ * not expired, are copied to the current segment, and the old segment is
+ * deleted. At most half a segment of records is copied from each segment,
+ * newest first, and the rest are evicted, so compaction always frees space
+ * and the store is brought back under its maximum. While compaction is more
+ * than a segment behind, new results are not stored. Whether a record has
+ * been read is not stored, so records loaded at startup are treated as read,
+ * and the first compaction after a restart keeps as many as it can.
+ *
+ * @author mlp
+ */
+public class DiskExtractionStore implements Managed {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DiskExtractionStore.class);
+
+	private static final int MAGIC = 0x544b4331;
+	/** Magic, checksum, timestamp, key length, value length. */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String INDEX_SUFFIX = ".idx";
+
+	private static final long COMPACTION_SHUTDOWN_SECONDS = 30;
+
+	private final ObjectMapper mapper = Jackson.newObjectMapper();
+
+	private final File directory;
+	private final long maxBytes;
+	private final long segmentBytes;
+	private final long ttlMillis;
+
+	private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<>();
+	private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final Object writeLock = new Object();
+	private Segment active;
+
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+			.setNameFormat("tika-cache-compaction")
+			.setDaemon(true)
+			.build());
+	private final AtomicBoolean compactionPending = new AtomicBoolean();
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter compactions;
+	private final Counter evictions;
+	private final Counter skipped;
+
+	public DiskExtractionStore(DiskCacheConfiguration config, long ttlMillis, MetricRegistry metrics) {
+		this.directory = new File(config.getDirectory());
+		this.maxBytes = config.getMaxSize().toBytes();
+		this.segmentBytes = Math.min(config.getSegmentSize().toBytes(), Integer.MAX_VALUE);
+		this.ttlMillis = ttlMillis;
+
+		this.hits = metrics.counter(name(DiskExtractionStore.class, "hits"));
+		this.misses = metrics.counter(name(DiskExtractionStore.class, "misses"));
+		this.compactions = metrics.counter(name(DiskExtractionStore.class, "compactions"));
+		this.evictions = metrics.counter(name(DiskExtractionStore.class, "evictions"));
+		this.skipped = metrics.counter(name(DiskExtractionStore.class, "skipped"));
+		metrics.register(name(DiskExtractionStore.class, "bytes"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return totalBytes.get();
+			}
+		});
+		metrics.register(name(DiskExtractionStore.class, "entries"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return index.size();
+			}
+		});
+	}
+
+	/**
+	 * Rebuild the index from the segment files, and open a new segment for writing.
+	 * @throws IOException if the cache directory cannot be read.
+	 */
+	@Override
+	public void start() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create cache directory " + directory);
+		}
+
+		int lastId = 0;
+		for (int id : listSegmentIds()) {
+			lastId = id;
+			Segment segment = new Segment(id);
+			if (!segment.loadIndex()) {
+				segment.scan();
+				if (segment.size == 0) {
+					segment.delete();
+					continue;
+				}
+				segment.writeIndex();
+			}
+			segment.map();
+			segments.put(id, segment);
+			totalBytes.addAndGet(segment.size);
+		}
+
+		synchronized (writeLock) {
+			active = new Segment(lastId + 1);
+			active.open();
+			segments.put(active.id, active);
+		}
+
+		LOGGER.info("Loaded {} cached results from {} segments in {}", index.size(), segments.size() - 1, directory);
+		// The maximum size may have been reduced since the last run
+		scheduleCompaction();
+	}
+
+	/**
+	 * Seal the current segment, so its index is available on restart.
+	 * @throws IOException if the segment cannot be written.
+	 */
+	@Override
+	public void stop() throws IOException {
+		compactor.shutdown();
+		try {
+			if (!compactor.awaitTermination(COMPACTION_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+				LOGGER.warn("Cache compaction did not finish within {}s", COMPACTION_SHUTDOWN_SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (writeLock) {
+			if (active != null) {
+				if (active.size == 0) {
+					active.channel.close();
+					active.delete();
+				} else {
+					active.seal();
+				}
+				active = null;
+			}
+		}
+	}
+
+	/**
+	 * Look up a stored result.
+	 * @param key the cache key.
+	 * @return the stored document, or <code>null</code> if there is no current
+	 * result for the key.
+	 */
+	public TikaDocument get(String key) {
+		TikaDocument ret = null;
+
+		final Location location = index.get(key);
+		if (location != null && !isExpired(location)) {
+			try {
+				byte[] record = readRecord(location);
+				if (record != null) {
+					ret = mapper.readValue(record, HEADER_SIZE + keyLength(record),
+							record.length - HEADER_SIZE - keyLength(record), TikaDocument.class);
+					location.accessed = true;
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Cannot read cached result from segment {}: {}", location.segment, e.getMessage());
+			}
+		}
+
+		if (ret == null) {
+			misses.inc();
+		} else {
+			hits.inc();
+		}
+		return ret;
+	}
+
+	/**
+	 * Store a result, unless one is already stored for the key, or the store
+	 * is more than a segment over its maximum size while it is compacted.
+	 * @param key the cache key.
+	 * @param document the document to store.
+	 */
+	public void put(String key, TikaDocument document) {
+		if (index.containsKey(key)) {
+			return;
+		} else if (totalBytes.get() > maxBytes + segmentBytes) {
+			skipped.inc();
+			return;
+		}
+
+		try {
+			final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+			final byte[] value = mapper.writeValueAsBytes(document);
+			final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + value.length);
+			record.putInt(MAGIC).putInt(0).putLong(System.currentTimeMillis())
+					.putInt(keyBytes.length).putInt(value.length).put(keyBytes).put(value);
+			record.putInt(4, checksum(record.array(), 8, record.capacity() - 8));
+
+			synchronized (writeLock) {
+				append(key, record.array());
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Cannot store cached result: {}", e.getMessage());
+		}
+
+		scheduleCompaction();
+	}
+
+	/**
+	 * Start compacting the store on the background thread if it is over its
+	 * maximum size, and compaction is not already under way.
+	 */
+	private void scheduleCompaction() {
+		if (totalBytes.get() > maxBytes && compactionPending.compareAndSet(false, true)) {
+			try {
+				compactor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							compact();
+						} catch (IOException e) {
+							LOGGER.warn("Cannot compact cache: {}", e.getMessage());
+						} finally {
+							compactionPending.set(false);
+						}
+						// Records may have been stored since the last segment was compacted
+						if (canCompact()) {
+							scheduleCompaction();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Stopped
+				compactionPending.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Wait for any compaction under way to finish. Used by tests.
+	 */
+	void awaitCompaction() throws InterruptedException, ExecutionException {
+		while (compactionPending.get()) {
+			compactor.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}).get();
+		}
+	}
+
+	/**
+	 * Append a record to the current segment, sealing it first if the record
+	 * would take it over the segment size. Must be called holding the write lock.
+	 */
+	private void append(String key, byte[] record) throws IOException {
+		if (active == null) {
+			throw new IOException("Disk cache is not open");
+		}
+		if (active.size > 0 && active.size + record.length > segmentBytes) {
+			active.seal();
+			active = new Segment(active.id + 1);
+			active.open();
+			segments.put(active.id, active);
+		}
+
+		final int offset = active.append(record);
+		totalBytes.addAndGet(record.length);
+		index.put(key, new Location(active.id, offset, record.length, ByteBuffer.wrap(record).getLong(8)));
+	}
+
+	/**
+	 * Compact the oldest segments until the store is back under its maximum
+	 * size. Each segment's unexpired records which have been read are copied
+	 * to the current segment, newest first, up to half a segment in total; the
+	 * rest are evicted. Runs on the compaction thread, holding the write lock
+	 * only while each record is copied.
+	 */
+	private void compact() throws IOException {
+		while (totalBytes.get() > maxBytes && canCompact()) {
+			final Segment oldest = segments.firstEntry().getValue();
+
+			final List<Map.Entry<String, Location>> entries = new ArrayList<>();
+			for (Map.Entry<String, Location> entry : index.entrySet()) {
+				if (entry.getValue().segment == oldest.id) {
+					entries.add(entry);
+				}
+			}
+			Collections.sort(entries, new Comparator<Map.Entry<String, Location>>() {
+				@Override
+				public int compare(Map.Entry<String, Location> a, Map.Entry<String, Location> b) {
+					return Long.compare(b.getValue().timestamp, a.getValue().timestamp);
+				}
+			});
+
+			long budget = segmentBytes / 2;
+			int copied = 0;
+			int evicted = 0;
+			for (Map.Entry<String, Location> entry : entries) {
+				final Location location = entry.getValue();
+				byte[] record = null;
+				if (location.accessed && !isExpired(location) && location.length <= budget) {
+					try {
+						record = readRecord(location);
+					} catch (IOException e) {
+						LOGGER.warn("Cannot read cached result from segment {}: {}", oldest.id, e.getMessage());
+					}
+				}
+
+				synchronized (writeLock) {
+					if (record != null && index.get(entry.getKey()) == location) {
+						append(entry.getKey(), record);
+						budget -= record.length;
+						copied++;
+					} else if (index.remove(entry.getKey(), location)) {
+						evicted++;
+					}
+				}
+			}
+
+			segments.remove(oldest.id);
+			totalBytes.addAndGet(-oldest.size);
+			oldest.delete();
+			compactions.inc();
+			evictions.inc(evicted);
+			LOGGER.debug("Compacted cache segment {}, keeping {} records and evicting {}", oldest.id, copied, evicted);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if there is a sealed segment to compact.
+	 */
+	private boolean canCompact() {
+		synchronized (writeLock) {
+			return active != null && segments.firstKey() != active.id;
+		}
+	}
+
+	private boolean isExpired(Location location) {
+		return System.currentTimeMillis() - location.timestamp > ttlMillis;
+	}
+
+	private byte[] readRecord(Location location) throws IOException {
+		final Segment segment = segments.get(location.segment);
+		return segment == null ? null : segment.read(location.offset, location.length);
+	}
+
+	private List<Integer> listSegmentIds() {
+		final List<Integer> ids = new ArrayList<>();
+		final String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+								name.length() - SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						LOGGER.warn("Ignoring unexpected file {} in cache directory", name);
+					}
+				}
+			}
+		}
+		Integer[] sorted = ids.toArray(new Integer[ids.size()]);
+		Arrays.sort(sorted);
+		return Arrays.asList(sorted);
+	}
+
+	private static int keyLength(byte[] record) {
+		return ByteBuffer.wrap(record).getInt(16);
+	}
+
+	private static int checksum(byte[] bytes, int offset, int length) {
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+
+	/**
+	 * The location of a record in the segment files.
+	 */
+	private static class Location {
+
+		private final int segment;
+		private final int offset;
+		private final int length;
+		private final long timestamp;
+		private volatile boolean accessed;
+
+		Location(int segment, int offset, int length, long timestamp) {
+			this(segment, offset, length, timestamp, false);
+		}
+
+		Location(int segment, int offset, int length, long timestamp, boolean accessed) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.timestamp = timestamp;
+			this.accessed = accessed;
+		}
+	}
+
+	/**
+	 * A single segment file. The current segment is written through a file
+	 * channel; sealed segments are read through a memory-mapped buffer.
+	 */
+	private class Segment {
+
+		private final int id;
+		private final File dataFile;
+		private final File indexFile;
+
+		private volatile FileChannel channel;
+		private volatile MappedByteBuffer buffer;
+		private long size;
+
+		Segment(int id) {
+			this.id = id;
+			this.dataFile = new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+			this.indexFile = new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, INDEX_SUFFIX));
+		}
+
+		void open() throws IOException {
+			channel = new RandomAccessFile(dataFile, "rw").getChannel();
+			size = channel.size();
+		}
+
+		int append(byte[] record) throws IOException {
+			final int offset = (int) size;
+			final ByteBuffer src = ByteBuffer.wrap(record);
+			while (src.hasRemaining()) {
+				channel.write(src, size + src.position());
+			}
+			size += record.length;
+			return offset;
+		}
+
+		/**
+		 * Read a record, through the channel if the segment is still being
+		 * written, or the buffer once it has been sealed. The segment may be
+		 * sealed while it is being read, in which case the buffer is used.
+		 */
+		byte[] read(int offset, int length) throws IOException {
+			final byte[] record = new byte[length];
+			final FileChannel readChannel = channel;
+			if (buffer == null && readChannel != null) {
+				final ByteBuffer dst = ByteBuffer.wrap(record);
+				try {
+					while (dst.hasRemaining()) {
+						if (readChannel.read(dst, offset + dst.position()) < 0) {
+							throw new IOException("Unexpected end of segment " + id);
+						}
+					}
+					return record;
+				} catch (ClosedByInterruptException e) {
+					throw e;
+				} catch (ClosedChannelException e) {
+					// Sealed while reading - the buffer has been mapped before the channel was closed
+				}
+			}
+
+			final MappedByteBuffer mapped = buffer;
+			if (mapped == null) {
+				throw new IOException("Segment " + id + " has been deleted");
+			}
+			final ByteBuffer view = mapped.duplicate();
+			view.position(offset);
+			view.get(record);
+			return record;
+		}
+
+		/**
+		 * Flush the segment to disk, write its index, and switch to reading it
+		 * through a memory-mapped buffer.
+		 */
+		void seal() throws IOException {
+			channel.force(true);
+			writeIndex();
+			map();
+			channel.close();
+			channel = null;
+		}
+
+		void map() throws IOException {
+			try (FileChannel readChannel = new RandomAccessFile(dataFile, "r").getChannel()) {
+				buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+			}
+		}
+
+		/**
+		 * Rebuild the index entries for this segment by reading its records,
+		 * truncating the file at the first record which is incomplete or fails
+		 * its checksum.
+		 */
+		void scan() throws IOException {
+			try (FileChannel scanChannel = new RandomAccessFile(dataFile, "rw").getChannel()) {
+				final long fileSize = scanChannel.size();
+				final ByteBuffer data = scanChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+				int position = 0;
+				while (position + HEADER_SIZE <= fileSize) {
+					final int keyLength = data.getInt(position + 16);
+					final int valueLength = data.getInt(position + 20);
+					final long length = (long) HEADER_SIZE + keyLength + valueLength;
+					if (data.getInt(position) != MAGIC || keyLength < 0 || valueLength < 0
+							|| position + length > fileSize) {
+						break;
+					}
+
+					final byte[] record = new byte[(int) length];
+					final ByteBuffer view = data.duplicate();
+					view.position(position);
+					view.get(record);
+					if (checksum(record, 8, record.length - 8) != data.getInt(position + 4)) {
+						break;
+					}
+
+					final String key = new String(record, HEADER_SIZE, keyLength, StandardCharsets.UTF_8);
+					index.put(key, new Location(id, position, record.length, data.getLong(position + 8), true));
+					position += record.length;
+				}
+
+				if (position < fileSize) {
+					LOGGER.warn("Discarding {} bytes of incomplete records from {}", fileSize - position, dataFile);
+					scanChannel.truncate(position);
+				}
+				size = position;
+			}
+		}
+
+		/**
+		 * Write the index file for this segment. The file is written under a
+		 * temporary name and then renamed, so an index file is never partial.
+		 */
+		void writeIndex() throws IOException {
+			final File tmpFile = new File(indexFile.getPath() + ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				out.writeLong(size);
+				for (Map.Entry<String, Location> entry : index.entrySet()) {
+					final Location location = entry.getValue();
+					if (location.segment == id) {
+						out.writeBoolean(true);
+						out.writeUTF(entry.getKey());
+						out.writeInt(location.offset);
+						out.writeInt(location.length);
+						out.writeLong(location.timestamp);
+					}
+				}
+				out.writeBoolean(false);
+			}
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		/**
+		 * Load the index entries for this segment from its index file.
+		 * @return <code>false</code> if there is no usable index file.
+		 */
+		boolean loadIndex() {
+			if (!indexFile.exists() || dataFile.length() == 0) {
+				return false;
+			}
+
+			final Map<String, Location> entries = new ConcurrentHashMap<>();
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+				size = in.readLong();
+				if (size != dataFile.length()) {
+					return false;
+				}
+				while (in.readBoolean()) {
+					final String key = in.readUTF();
+					entries.put(key, new Location(id, in.readInt(), in.readInt(), in.readLong(), true));
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Cannot read index file {}: {}", indexFile, e.getMessage());
+				return false;
+			}
+
+			index.putAll(entries);
+			return true;
+		}
+
+		void delete() throws IOException {
+			buffer = null;
+			Files.deleteIfExists(indexFile.toPath());
+			Files.deleteIfExists(dataFile.toPath());
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.CacheConfiguration;
+import uk.co.flax.tika.service.tika.PageRange;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * In-memory cache of extraction results, keyed on a hash of the request
+ * body along with the operation and the headers which affect extraction.
+ * The cache is bounded by the estimated size of the cached documents,
+ * evicting the least recently used entries first, and entries expire
+ * after a configurable time.
+ * <p>
+ * Only bodies up to a configured size are cached. They are hashed as they
+ * are read, by the {@link uk.co.flax.tika.service.upload.UploadSpooler},
+ * before the cache is checked.
+ * <p>
+ * If a {@link DiskExtractionStore} is supplied, results are also written to
+ * disk, and results missing from memory are looked up there before the
+ * document is parsed.
+ *
+ * @author mlp
+ */
+public class ExtractionCache {
+
+	static final String FILE_NAME_HEADER = "File-Name";
+
+	/** Rough per-object overhead used when estimating the size of a document. */
+	private static final int OBJECT_OVERHEAD = 32;
+
+	private final boolean enabled;
+	private final long maxDocumentBytes;
+	private final Cache<String, TikaDocument> cache;
+	private final AtomicLong cachedBytes = new AtomicLong();
+	private final DiskExtractionStore diskStore;
+
+	public ExtractionCache(CacheConfiguration config, MetricRegistry metrics) {
+		this(config, null, metrics);
+	}
+
+	/**
+	 * @param config the cache configuration.
+	 * @param diskStore the on-disk store, or <code>null</code> if results are
+	 * only cached in memory.
+	 * @param metrics the metrics registry.
+	 */
+	public ExtractionCache(CacheConfiguration config, DiskExtractionStore diskStore, MetricRegistry metrics) {
+		this.diskStore = diskStore;
+		this.enabled = config.isEnabled();
+		this.maxDocumentBytes = config.getMaxDocumentSize().toBytes();
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(config.getMaxSize().toBytes())
+				.weigher(new Weigher<String, TikaDocument>() {
+					@Override
+					public int weigh(String key, TikaDocument value) {
+						return (int) Math.min(Integer.MAX_VALUE, estimateSize(key, value));
+					}
+				})
+				.expireAfterWrite(config.getTtl().toMilliseconds(), TimeUnit.MILLISECONDS)
+				.removalListener(new RemovalListener<String, TikaDocument>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, TikaDocument> notification) {
+						cachedBytes.addAndGet(-estimateSize(notification.getKey(), notification.getValue()));
+					}
+				})
+				.recordStats()
+				.build();
+
+		metrics.register(name(ExtractionCache.class, "hits"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return cache.stats().hitCount();
+			}
+		});
+		metrics.register(name(ExtractionCache.class, "misses"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return cache.stats().missCount();
+			}
+		});
+		metrics.register(name(ExtractionCache.class, "evictions"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return cache.stats().evictionCount();
+			}
+		});
+		metrics.register(name(ExtractionCache.class, "bytes"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return cachedBytes.get();
+			}
+		});
+		metrics.register(name(ExtractionCache.class, "entries"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return cache.size();
+			}
+		});
+	}
+
+	/**
+	 * @return <code>true</code> if results should be cached.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param length the length of a request body, or -1 if not known.
+	 * @return <code>true</code> if the results for a body of that length may
+	 * be cached - that is, caching is enabled and the body is no larger than
+	 * the maximum cacheable document size. Bodies of unknown length may be
+	 * cached, if they turn out to be small enough.
+	 */
+	public boolean isCacheable(long length) {
+		return enabled && length <= maxDocumentBytes;
+	}
+
+	/**
+	 * Build the cache key for a request.
+	 * @param opKey the operation requested.
+	 * @param headers the request headers.
+	 * @param maxCharacters the limit on the extracted text for the request.
+	 * @param pages the range of pages requested, or <code>null</code>.
+	 * @param bodyHash the hash of the request body.
+	 * @return the key.
+	 */
+	public static String buildKey(String opKey, HttpHeaders headers, int maxCharacters, PageRange pages,
+								  HashCode bodyHash) {
+		final MediaType mediaType = headers.getMediaType();
+		final String fileName = headers.getHeaderString(FILE_NAME_HEADER);
+
+		return bodyHash.toString() + '|' + opKey.toLowerCase()
+				+ '|' + (mediaType == null ? "" : mediaType.toString())
+				+ '|' + (fileName == null ? "" : fileName)
+				+ '|' + maxCharacters
+				+ '|' + (pages == null ? "" : pages.toString());
+	}
+
+	/**
+	 * Look up a cached result, checking the disk store if it is not held in memory.
+	 * @param key the cache key.
+	 * @return the cached document, or <code>null</code> if there is no entry
+	 * for the key.
+	 */
+	public TikaDocument get(String key) {
+		TikaDocument ret = cache.getIfPresent(key);
+		if (ret == null && diskStore != null) {
+			ret = diskStore.get(key);
+			if (ret != null) {
+				cachedBytes.addAndGet(estimateSize(key, ret));
+				cache.put(key, ret);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Cache a result. Only successful extractions are cached.
+	 * @param key the cache key.
+	 * @param document the extracted document.
+	 */
+	public void put(String key, TikaDocument document) {
+		if (TikaDocument.OK_STATUS.equals(document.getStatus())) {
+			cachedBytes.addAndGet(estimateSize(key, document));
+			cache.put(key, document);
+			if (diskStore != null) {
+				diskStore.put(key, document);
+			}
+		}
+	}
+
+	/**
+	 * Estimate the heap used by a cache entry.
+	 */
+	static long estimateSize(String key, TikaDocument document) {
+		long size = OBJECT_OVERHEAD + estimateSize(key);
+		size += estimateSize(document.getText());
+		if (document.getMetadata() != null) {
+			for (Map.Entry<String, Object> entry : document.getMetadata().entrySet()) {
+				size += OBJECT_OVERHEAD + estimateSize(entry.getKey());
+				if (entry.getValue() instanceof Collection) {
+					for (Object value : (Collection<?>) entry.getValue()) {
+						size += estimateSize(String.valueOf(value));
+					}
+				} else {
+					size += estimateSize(String.valueOf(entry.getValue()));
+				}
+			}
+		}
+		return size;
+	}
+
+	private static long estimateSize(String value) {
+		return value == null ? 0 : OBJECT_OVERHEAD + 2L * value.length();
+	}
+
+}
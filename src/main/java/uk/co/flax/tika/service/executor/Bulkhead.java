@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.executor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * One of the extraction thread pools - a fixed number of threads with a
+ * bounded wait queue, rejecting further submissions once the queue is full.
+ * Each reports its queue depth, active thread count, saturation (the
+ * fraction of its threads and queue in use) and rejections under its own
+ * metric names.
+ * <p>
+ * Threads stuck in a parse which has timed out can be replaced temporarily,
+ * up to the size of the pool.
+ *
+ * @author mlp
+ */
+class Bulkhead {
+
+	/** The bulkhead running the current thread's task, if any. */
+	private static final ThreadLocal<Bulkhead> CURRENT = new ThreadLocal<>();
+
+	private final String name;
+	private final ThreadPoolExecutor pool;
+	private final int threads;
+	private final int queueSize;
+	private final Meter rejected;
+	private final Meter overflowed;
+
+	private int replacementThreads;
+
+	/**
+	 * @param name the bulkhead name, used in log messages.
+	 * @param threadNameFormat the format for the pool's thread names.
+	 * @param metricPrefix the prefix for the bulkhead's metric names.
+	 * @param threads the number of threads.
+	 * @param queueSize the number of tasks which may wait for a thread.
+	 * @param lifecycle the lifecycle managing the pool.
+	 * @param metrics the metric registry.
+	 */
+	Bulkhead(String name, String threadNameFormat, String metricPrefix, int threads, int queueSize,
+			 LifecycleEnvironment lifecycle, MetricRegistry metrics) {
+		this.name = name;
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.rejected = metrics.meter(name(metricPrefix, "rejected"));
+		this.overflowed = metrics.meter(name(metricPrefix, "overflowed"));
+		this.pool = (ThreadPoolExecutor) lifecycle.executorService(threadNameFormat)
+				.minThreads(threads)
+				.maxThreads(threads)
+				.workQueue(buildQueue(queueSize))
+				.rejectedExecutionHandler(new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						rejected.mark();
+						throw new RejectedExecutionException("Extraction queue is full");
+					}
+				})
+				.build();
+
+		metrics.register(name(metricPrefix, "queue-depth"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return getQueueDepth();
+			}
+		});
+		metrics.register(name(metricPrefix, "active"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return pool.getActiveCount();
+			}
+		});
+		metrics.register(name(metricPrefix, "saturation"), new Gauge<Double>() {
+			@Override
+			public Double getValue() {
+				return getSaturation();
+			}
+		});
+		metrics.register(name(metricPrefix, "replacement-threads"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return getReplacementThreads();
+			}
+		});
+	}
+
+	private static BlockingQueue<Runnable> buildQueue(int queueSize) {
+		final BlockingQueue<Runnable> queue;
+		if (queueSize == 0) {
+			queue = new SynchronousQueue<>();
+		} else {
+			queue = new ArrayBlockingQueue<>(queueSize);
+		}
+		return queue;
+	}
+
+	/**
+	 * @return the bulkhead running the current thread's task, or
+	 * <code>null</code> if the thread does not belong to a bulkhead.
+	 */
+	static Bulkhead current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Submit a task to the pool.
+	 * @param task the task to run.
+	 * @param <T> the type of the task's result.
+	 * @return a future holding the result of the task.
+	 * @throws RejectedExecutionException if the pool and its queue are full.
+	 */
+	<T> Future<T> submit(final Callable<T> task) {
+		return pool.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				CURRENT.set(Bulkhead.this);
+				try {
+					return task.call();
+				} finally {
+					CURRENT.remove();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Record that a task rejected by this bulkhead was passed to the overflow pool.
+	 */
+	void markOverflowed() {
+		overflowed.mark();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return the number of tasks waiting for a thread.
+	 */
+	int getQueueDepth() {
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * @return the fraction of the pool's threads and queue in use, from 0 to 1.
+	 */
+	double getSaturation() {
+		final int busy = Math.min(pool.getActiveCount(), threads) + pool.getQueue().size();
+		return (double) busy / (threads + queueSize);
+	}
+
+	/**
+	 * Add a thread to the pool, to stand in for a thread which is stuck in a
+	 * parse that has timed out. This should be matched by a call to
+	 * {@link #removeReplacementThread()} once the stuck thread is free.
+	 * @return <code>true</code> if a thread was added, <code>false</code> if
+	 * there are already as many replacement threads as are allowed.
+	 */
+	synchronized boolean addReplacementThread() {
+		if (replacementThreads >= threads) {
+			return false;
+		}
+
+		replacementThreads++;
+		pool.setMaximumPoolSize(threads + replacementThreads);
+		pool.setCorePoolSize(threads + replacementThreads);
+		return true;
+	}
+
+	/**
+	 * Remove a thread added by {@link #addReplacementThread()}. The pool
+	 * shrinks as its threads become idle.
+	 */
+	synchronized void removeReplacementThread() {
+		replacementThreads--;
+		pool.setCorePoolSize(threads + replacementThreads);
+		pool.setMaximumPoolSize(threads + replacementThreads);
+	}
+
+	synchronized int getReplacementThreads() {
+		return replacementThreads;
+	}
+
+}
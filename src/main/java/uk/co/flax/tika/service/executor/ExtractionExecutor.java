@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.executor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowReservoir;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import uk.co.flax.tika.config.BulkheadConfiguration;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Fixed-size thread pools for document extraction, with bounded wait
+ * queues. Once a queue is full, further submissions are rejected
+ * immediately with a {@link RejectedExecutionException}, rather than
+ * being queued without limit.
+ * <p>
+ * Documents are extracted on the main pool, unless their type belongs to one
+ * of the configured bulkheads, which have their own threads and queues - so
+ * a flood of large PDFs, say, cannot hold up small HTML documents. When a
+ * pool and its queue are full, the task is passed to the shared overflow pool
+ * if there is one, and only rejected if that is full too.
+ * <p>
+ * The pools are managed by the Dropwizard lifecycle, and report their queue
+ * depth, active thread count, saturation and rejections to the metrics
+ * registry - the main pool under this class's name, the bulkheads under
+ * <code>bulkheads.&lt;name&gt;</code>, and the overflow pool under
+ * <code>overflow</code>. The time each task takes, from submission until it
+ * has finished, is recorded over the last minute by the <code>latency</code>
+ * timer, so that it reflects the current load. The time taken by the first
+ * task after startup is kept as the <code>first-request-latency</code> gauge,
+ * showing how well the server was warmed up.
+ * <p>
+ * Threads stuck in a parse which has timed out can be replaced temporarily,
+ * so that runaway documents do not reduce the capacity of the pools. The
+ * number of replacement threads in each pool is limited to the size of the
+ * pool.
+ *
+ * @author mlp
+ */
+public class ExtractionExecutor {
+
+	/** Period over which task latency is measured, in seconds. */
+	static final int LATENCY_WINDOW_SECONDS = 60;
+
+	private final Bulkhead mainPool;
+	private final Map<Bulkhead, List<MediaType>> bulkheads = new LinkedHashMap<>();
+	private final Bulkhead overflow;
+	private final MediaTypeRegistry mediaTypes;
+	private final int retryAfterSeconds;
+	private final Timer latency;
+	private final AtomicLong firstLatency = new AtomicLong(-1);
+
+	/**
+	 * @param config the extraction configuration.
+	 * @param mediaTypes the Tika media type registry, used to match document
+	 *                   types to bulkheads.
+	 * @param lifecycle the lifecycle managing the pools.
+	 * @param metrics the metrics registry.
+	 */
+	public ExtractionExecutor(ExtractionConfiguration config, MediaTypeRegistry mediaTypes,
+							  LifecycleEnvironment lifecycle, MetricRegistry metrics) {
+		this.mediaTypes = mediaTypes;
+		this.mainPool = new Bulkhead("main", "tika-extraction-%d", name(ExtractionExecutor.class),
+				config.getThreads(), config.getQueueSize(), lifecycle, metrics);
+		for (Map.Entry<String, BulkheadConfiguration> entry : config.getBulkheads().entrySet()) {
+			final BulkheadConfiguration bulkheadConfig = entry.getValue();
+			final List<MediaType> types = new ArrayList<>();
+			for (String type : bulkheadConfig.getTypes()) {
+				types.add(mediaTypes.normalize(MediaType.parse(type).getBaseType()));
+			}
+			bulkheads.put(new Bulkhead(entry.getKey(), "tika-extraction-" + entry.getKey() + "-%d",
+					name(ExtractionExecutor.class, "bulkheads", entry.getKey()), bulkheadConfig.getThreads(),
+					bulkheadConfig.getQueueSize(), lifecycle, metrics), types);
+		}
+		this.overflow = (config.getOverflowThreads() == 0 ? null : new Bulkhead("overflow", "tika-overflow-%d",
+				name(ExtractionExecutor.class, "overflow"), config.getOverflowThreads(), config.getOverflowQueueSize(),
+				lifecycle, metrics));
+		this.retryAfterSeconds = config.getRetryAfterSeconds();
+		this.latency = metrics.register(name(ExtractionExecutor.class, "latency"),
+				new Timer(new SlidingTimeWindowReservoir(LATENCY_WINDOW_SECONDS, TimeUnit.SECONDS)));
+		metrics.register(name(ExtractionExecutor.class, "first-request-latency"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return getFirstLatencyMillis();
+			}
+		});
+	}
+
+	/**
+	 * Submit a task to the main extraction pool.
+	 * @param task the task to run.
+	 * @param <T> the type of the task's result.
+	 * @return a future holding the result of the task.
+	 * @throws RejectedExecutionException if the pool and its queue are full,
+	 * as is the overflow pool.
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		return submit(task, null);
+	}
+
+	/**
+	 * Submit a task to the bulkhead for a document type, or the main pool if
+	 * the type is not in any bulkhead.
+	 * @param task the task to run.
+	 * @param type the type of the document being extracted, or
+	 *             <code>null</code> if it is not known.
+	 * @param <T> the type of the task's result.
+	 * @return a future holding the result of the task.
+	 * @throws RejectedExecutionException if the pool and its queue are full,
+	 * as is the overflow pool.
+	 */
+	public <T> Future<T> submit(Callable<T> task, MediaType type) {
+		final Bulkhead bulkhead = getBulkhead(type);
+		final Callable<T> timedTask = timed(task);
+		try {
+			return bulkhead.submit(timedTask);
+		} catch (RejectedExecutionException e) {
+			if (overflow == null) {
+				throw e;
+			}
+			final Future<T> ret = overflow.submit(timedTask);
+			bulkhead.markOverflowed();
+			return ret;
+		}
+	}
+
+	/**
+	 * Submit a task to the bulkhead for a document type, running it on the
+	 * calling thread if the pools are full. This slows down callers which
+	 * submit many tasks, such as batch requests, rather than rejecting their work.
+	 * @param task the task to run.
+	 * @param type the type of the document being extracted, or
+	 *             <code>null</code> if it is not known.
+	 * @param <T> the type of the task's result.
+	 * @return a future holding the result of the task.
+	 */
+	public <T> Future<T> submitOrRun(Callable<T> task, MediaType type) {
+		Future<T> ret;
+		try {
+			ret = submit(task, type);
+		} catch (RejectedExecutionException e) {
+			FutureTask<T> futureTask = new FutureTask<>(timed(task));
+			futureTask.run();
+			ret = futureTask;
+		}
+		return ret;
+	}
+
+	/**
+	 * Wrap a task to record its latency, measured from now until it finishes.
+	 */
+	private <T> Callable<T> timed(final Callable<T> task) {
+		final long submitted = System.nanoTime();
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				try {
+					return task.call();
+				} finally {
+					final long elapsed = System.nanoTime() - submitted;
+					latency.update(elapsed, TimeUnit.NANOSECONDS);
+					firstLatency.compareAndSet(-1, elapsed);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Find the pool for a document type - the first bulkhead holding the type
+	 * or one of its supertypes, or matching it with a wildcard, or the main
+	 * pool if there is none.
+	 */
+	Bulkhead getBulkhead(MediaType type) {
+		if (type != null && !bulkheads.isEmpty()) {
+			final MediaType baseType = mediaTypes.normalize(type.getBaseType());
+			for (Map.Entry<Bulkhead, List<MediaType>> entry : bulkheads.entrySet()) {
+				for (MediaType bulkheadType : entry.getValue()) {
+					if ("*".equals(bulkheadType.getSubtype())
+							? bulkheadType.getType().equals(baseType.getType())
+							: mediaTypes.isInstanceOf(baseType, bulkheadType)) {
+						return entry.getKey();
+					}
+				}
+			}
+		}
+		return mainPool;
+	}
+
+	/**
+	 * @return the pool running the current thread, or the main pool if the
+	 * thread does not belong to one, so that a stuck thread can be replaced.
+	 */
+	Bulkhead getCurrentBulkhead() {
+		final Bulkhead current = Bulkhead.current();
+		return current == null ? mainPool : current;
+	}
+
+	/**
+	 * @return the number of threads in the main extraction pool.
+	 */
+	public int getThreads() {
+		return mainPool.getThreads();
+	}
+
+	/**
+	 * @return the number of threads currently standing in for stuck threads,
+	 * across all of the pools.
+	 */
+	public int getReplacementThreads() {
+		int ret = mainPool.getReplacementThreads();
+		for (Bulkhead bulkhead : bulkheads.keySet()) {
+			ret += bulkhead.getReplacementThreads();
+		}
+		if (overflow != null) {
+			ret += overflow.getReplacementThreads();
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of tasks waiting for a thread, across all of the pools.
+	 */
+	public int getQueueDepth() {
+		int ret = mainPool.getQueueDepth();
+		for (Bulkhead bulkhead : bulkheads.keySet()) {
+			ret += bulkhead.getQueueDepth();
+		}
+		if (overflow != null) {
+			ret += overflow.getQueueDepth();
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the timer recording how long tasks take from submission until
+	 * they finish, over the last minute.
+	 */
+	public Timer getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return the time the first task took from submission until it finished,
+	 * in milliseconds, or <code>null</code> if no task has finished yet.
+	 */
+	public Long getFirstLatencyMillis() {
+		final long nanos = firstLatency.get();
+		return (nanos < 0 ? null : TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+
+	/**
+	 * @return the number of seconds clients should wait before retrying
+	 * a rejected request.
+	 */
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+}
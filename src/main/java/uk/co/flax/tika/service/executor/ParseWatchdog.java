@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import org.apache.tika.io.ProxyInputStream;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+import uk.co.flax.tika.service.tika.ExtractionMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Watchdog which stops parses running for longer than the configured timeout.
+ * <p>
+ * Java offers no safe way to kill a thread, so when a parse times out, the
+ * watchdog interrupts the parsing thread, and makes any further reads from the
+ * document or writes to the content handler fail. Almost all runaway parsers
+ * are stopped by one of these. The thread is not interrupted while it is reading
+ * the document, since interrupting a read from the request breaks the client's
+ * connection before the timeout can be reported. In case the thread is still stuck, the
+ * extraction pool running the parse is given a replacement thread until the parse finishes.
+ * <p>
+ * Timeouts are counted per content type. Only types known to the Tika MIME
+ * registry are reported individually, to limit the number of metrics created
+ * from declared content types.
+ *
+ * @author mlp
+ */
+public class ParseWatchdog {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParseWatchdog.class);
+
+	private final long defaultTimeout;
+	private final Map<MediaType, Long> typeTimeouts = new HashMap<>();
+	private final ExtractionExecutor executor;
+	private final MediaTypeRegistry mediaTypes;
+	private final ScheduledExecutorService scheduler;
+	private final MetricRegistry metrics;
+
+	/**
+	 * @param config the extraction configuration, holding the timeouts.
+	 * @param executor the extraction pool, which will be given replacement
+	 *                 threads for any which are stuck.
+	 * @param mediaTypes the Tika media type registry.
+	 * @param scheduler the scheduler used to time parses.
+	 * @param metrics the metrics registry.
+	 */
+	public ParseWatchdog(ExtractionConfiguration config, ExtractionExecutor executor, MediaTypeRegistry mediaTypes,
+						 ScheduledExecutorService scheduler, MetricRegistry metrics) {
+		this.defaultTimeout = config.getTimeout().toMilliseconds();
+		for (Map.Entry<String, Duration> entry : config.getTypeTimeouts().entrySet()) {
+			typeTimeouts.put(MediaType.parse(entry.getKey()).getBaseType(), entry.getValue().toMilliseconds());
+		}
+		this.executor = executor;
+		this.mediaTypes = mediaTypes;
+		this.scheduler = scheduler;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the timeout for a content type, falling back to a wildcard match on
+	 * the primary type, and then to the default timeout.
+	 * @param type the content type.
+	 * @return the timeout in milliseconds, or 0 if there is no timeout.
+	 */
+	long getTimeout(MediaType type) {
+		Long timeout = typeTimeouts.get(type.getBaseType());
+		if (timeout == null) {
+			timeout = typeTimeouts.get(new MediaType(type.getType(), "*"));
+		}
+		return timeout == null ? defaultTimeout : timeout;
+	}
+
+	/**
+	 * Create a watch for a parse on the current thread. The watch does
+	 * nothing until it is started.
+	 * @return a new watch, which must be closed when the parse has finished.
+	 */
+	public Watch newWatch() {
+		return new Watch(Thread.currentThread(), executor.getCurrentBulkhead());
+	}
+
+
+	/**
+	 * Timer for a single parse.
+	 */
+	public class Watch implements Closeable {
+
+		private final Thread thread;
+		private final Bulkhead bulkhead;
+		private volatile boolean expired;
+
+		private MediaType type;
+		private ScheduledFuture<?> future;
+		private boolean replaced;
+		private boolean closed;
+		private boolean reading;
+		private Runnable expiryAction;
+
+		Watch(Thread thread, Bulkhead bulkhead) {
+			this.thread = thread;
+			this.bulkhead = bulkhead;
+		}
+
+		/**
+		 * Set an action to take when the parse times out, in addition to the
+		 * usual interruption - for example, killing a worker process.
+		 * @param action the action, which is run on the watchdog thread.
+		 */
+		public synchronized void onExpiry(Runnable action) {
+			this.expiryAction = action;
+		}
+
+		/**
+		 * Start timing the parse.
+		 * @param type the content type of the document, used to choose the timeout.
+		 */
+		public synchronized void start(MediaType type) {
+			this.type = type;
+			final long timeout = getTimeout(type);
+			if (timeout > 0 && !closed) {
+				future = scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						expire();
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private synchronized void expire() {
+			if (!closed) {
+				LOGGER.warn("Parse of {} document timed out after {}ms - aborting", type, getTimeout(type));
+				metrics.meter(name(ParseWatchdog.class, "timeouts", ExtractionMetrics.getMetricType(mediaTypes, type))).mark();
+				replaced = bulkhead.addReplacementThread();
+				expired = true;
+				if (expiryAction != null) {
+					expiryAction.run();
+				}
+				if (!reading) {
+					thread.interrupt();
+				}
+			}
+		}
+
+		private synchronized void startRead() throws IOException {
+			if (expired) {
+				throw new IOException("Parse timed out");
+			}
+			reading = true;
+		}
+
+		private synchronized void endRead() {
+			reading = false;
+		}
+
+		/**
+		 * @return <code>true</code> if the parse has timed out.
+		 */
+		public boolean isExpired() {
+			return expired;
+		}
+
+		/**
+		 * Wrap the document stream, so that reads fail once the parse has timed out.
+		 * @param input the document stream.
+		 * @return the wrapped stream.
+		 */
+		public InputStream watch(InputStream input) {
+			return new ProxyInputStream(input) {
+				@Override
+				protected void beforeRead(int n) throws IOException {
+					startRead();
+				}
+
+				@Override
+				protected void afterRead(int n) {
+					endRead();
+				}
+
+				@Override
+				protected void handleIOException(IOException e) throws IOException {
+					endRead();
+					throw e;
+				}
+			};
+		}
+
+		/**
+		 * Wrap the content handler, so that parser output fails once the parse has
+		 * timed out.
+		 * @param handler the content handler.
+		 * @return the wrapped handler.
+		 */
+		public ContentHandler watch(ContentHandler handler) {
+			return new ContentHandlerDecorator(handler) {
+				@Override
+				public void startElement(String uri, String localName, String name, Attributes atts) throws SAXException {
+					checkExpired();
+					super.startElement(uri, localName, name, atts);
+				}
+
+				@Override
+				public void endElement(String uri, String localName, String name) throws SAXException {
+					checkExpired();
+					super.endElement(uri, localName, name);
+				}
+
+				@Override
+				public void characters(char[] ch, int start, int length) throws SAXException {
+					checkExpired();
+					super.characters(ch, start, length);
+				}
+
+				@Override
+				public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+					checkExpired();
+					super.ignorableWhitespace(ch, start, length);
+				}
+
+				private void checkExpired() throws SAXException {
+					if (expired) {
+						throw new SAXException("Parse timed out");
+					}
+				}
+			};
+		}
+
+		/**
+		 * Stop timing the parse. This must be called on the parsing thread. If the
+		 * parse timed out, the thread's interrupt flag is cleared, and any
+		 * replacement thread is removed from the pool.
+		 */
+		@Override
+		public synchronized void close() {
+			closed = true;
+			if (future != null) {
+				future.cancel(false);
+			}
+			if (expired) {
+				Thread.interrupted();
+				if (replaced) {
+					bulkhead.removeReplacementThread();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.fork;
+
+import org.apache.tika.metadata.Metadata;
+import uk.co.flax.tika.service.tika.PageRange;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire protocol between the server and its worker processes, which talk
+ * over the worker's standard input and output.
+ * <p>
+ * Once started, the worker writes {@link #READY}. Each request is then
+ * {@link #PARSE}, the operation key, a flag set if the text should be
+ * streamed, the character limit, the page range (the first and last pages,
+ * or zeroes for the whole document), the initial metadata, and the document
+ * content as a series of length-prefixed chunks ending with an empty chunk
+ * (or {@link #ABORTED} if the document could not be read). The worker reads
+ * the whole document before replying with any number of {@link #TEXT} frames
+ * when streaming, followed by a {@link #DOCUMENT} or {@link #ERROR} frame. The
+ * final frame ends with the worker's heap usage.
+ *
+ * @author mlp
+ */
+final class ForkProtocol {
+
+	static final int READY = 'R';
+	static final int PARSE = 'P';
+	static final int EXIT = 'X';
+
+	static final int TEXT = 'T';
+	static final int DOCUMENT = 'D';
+	static final int ERROR = 'E';
+
+	static final int IO_ERROR = 'I';
+	static final int TIKA_ERROR = 'K';
+	static final int SAX_ERROR = 'S';
+
+	/** Chunk length sent in place of the final chunk if the document could not be read. */
+	static final int ABORTED = -1;
+
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private ForkProtocol() {
+	}
+
+	static void writePageRange(DataOutputStream out, PageRange pages) throws IOException {
+		out.writeInt(pages == null ? 0 : pages.getFirst());
+		out.writeInt(pages == null ? 0 : pages.getLast());
+	}
+
+	static PageRange readPageRange(DataInputStream in) throws IOException {
+		final int first = in.readInt();
+		final int last = in.readInt();
+		return first == 0 ? null : new PageRange(first, last);
+	}
+
+	static void writeMetadata(DataOutputStream out, Metadata metadata) throws IOException {
+		final String[] names = metadata.names();
+		out.writeInt(names.length);
+		for (String name : names) {
+			final String[] values = metadata.getValues(name);
+			out.writeUTF(name);
+			out.writeInt(values.length);
+			for (String value : values) {
+				writeString(out, value);
+			}
+		}
+	}
+
+	static Metadata readMetadata(DataInputStream in) throws IOException {
+		final Metadata metadata = new Metadata();
+		final int names = in.readInt();
+		for (int i = 0; i < names; i++) {
+			final String name = in.readUTF();
+			final int values = in.readInt();
+			for (int j = 0; j < values; j++) {
+				metadata.add(name, readString(in));
+			}
+		}
+		return metadata;
+	}
+
+	/**
+	 * Write a string of any length - {@link DataOutputStream#writeUTF(String)}
+	 * is limited to 64KB.
+	 */
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Copy a document to the worker as a series of chunks.
+	 * @param input the document.
+	 * @param out the worker's input.
+	 * @throws IOException if the document cannot be read, or the worker cannot
+	 * be written to. If the document cannot be read, the worker is told that
+	 * it has been aborted.
+	 */
+	static void writeChunks(InputStream input, DataOutputStream out) throws IOException {
+		final byte[] buffer = new byte[CHUNK_SIZE];
+		int read;
+		do {
+			try {
+				read = input.read(buffer);
+			} catch (IOException e) {
+				out.writeInt(ABORTED);
+				out.flush();
+				throw e;
+			}
+			if (read > 0) {
+				out.writeInt(read);
+				out.write(buffer, 0, read);
+			}
+		} while (read >= 0);
+		out.writeInt(0);
+		out.flush();
+	}
+
+
+	/**
+	 * Stream reading a document sent as a series of chunks.
+	 */
+	static class ChunkedInputStream extends InputStream {
+
+		private final DataInputStream in;
+		private int remaining;
+		private boolean finished;
+
+		ChunkedInputStream(DataInputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!nextChunk()) {
+				return -1;
+			}
+
+			final int read = in.read(b, off, Math.min(len, remaining));
+			if (read == -1) {
+				throw new IOException("Unexpected end of input from server");
+			}
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return remaining;
+		}
+
+		private boolean nextChunk() throws IOException {
+			if (remaining == 0 && !finished) {
+				remaining = in.readInt();
+				if (remaining == ABORTED) {
+					remaining = 0;
+					finished = true;
+					throw new IOException("Document could not be read by the server");
+				} else if (remaining == 0) {
+					finished = true;
+				}
+			}
+			return !finished;
+		}
+
+		/**
+		 * Skip the rest of the document, leaving the input ready for the next request.
+		 */
+		void drain() throws IOException {
+			// Read rather than skip - standard input is a pipe, which cannot seek
+			final byte[] buffer = new byte[CHUNK_SIZE];
+			while (read(buffer, 0, buffer.length) != -1) {
+				// Discard
+			}
+		}
+
+		@Override
+		public void close() {
+			// Leave the underlying stream open for the next request
+		}
+	}
+
+
+	/**
+	 * Writer sending text back to the server as {@link #TEXT} frames.
+	 */
+	static class TextFrameWriter extends Writer {
+
+		private final DataOutputStream out;
+
+		TextFrameWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if (len > 0) {
+				out.writeByte(TEXT);
+				writeString(out, new String(cbuf, off, len));
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+}
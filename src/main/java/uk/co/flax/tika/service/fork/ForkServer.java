@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.fork;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import uk.co.flax.tika.service.tika.PageRange;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+
+/**
+ * Main class for a worker process, which parses documents sent by the
+ * server over standard input, and writes the results to standard output.
+ * Anything else written to standard output, such as log messages, is sent
+ * to standard error instead.
+ * <p>
+ * The worker builds its parser registry and parses a small document before
+ * reporting that it is ready, so that the parsers are loaded before the
+ * first real request arrives.
+ *
+ * @author mlp
+ */
+public class ForkServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ForkServer.class);
+
+	private static final String WARM_UP_DOCUMENT = "<html><head><title>Warm up</title></head>"
+			+ "<body><p>Document parsed while the worker starts.</p></body></html>";
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final ObjectMapper mapper = Jackson.newObjectMapper();
+
+	private TikaParserRegistry registry;
+
+	ForkServer(DataInputStream in, DataOutputStream out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	public static void main(String... args) throws Exception {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+		System.setOut(System.err);
+
+		new ForkServer(new DataInputStream(new BufferedInputStream(System.in)), out).run();
+		System.exit(0);
+	}
+
+	void run() throws Exception {
+		registry = new TikaParserRegistry();
+		warmUp();
+		out.writeByte(ForkProtocol.READY);
+		out.flush();
+
+		int request;
+		while ((request = in.read()) == ForkProtocol.PARSE) {
+			handleRequest();
+		}
+
+		if (request != ForkProtocol.EXIT && request != -1) {
+			LOGGER.error("Unexpected request {} from server - exiting", request);
+		}
+	}
+
+	private void warmUp() throws Exception {
+		final Metadata metadata = new Metadata();
+		metadata.set(Metadata.RESOURCE_NAME_KEY, "warmup.html");
+		new TikaExtractor(registry, metadata,
+				new ByteArrayInputStream(WARM_UP_DOCUMENT.getBytes(StandardCharsets.UTF_8)), FULLDATA_OPKEY).extract();
+	}
+
+	private void handleRequest() throws IOException {
+		final String opKey = in.readUTF();
+		final boolean streamText = in.readBoolean();
+		final int maxCharacters = in.readInt();
+		final PageRange pages = ForkProtocol.readPageRange(in);
+		final Metadata metadata = ForkProtocol.readMetadata(in);
+		final ForkProtocol.ChunkedInputStream input = new ForkProtocol.ChunkedInputStream(in);
+
+		try {
+			final TikaExtractor extractor = new TikaExtractor(registry, metadata, input, opKey);
+			extractor.setMaxCharacters(maxCharacters);
+			extractor.setPageRange(pages);
+			if (streamText) {
+				final Writer writer = new BufferedWriter(new ForkProtocol.TextFrameWriter(out));
+				extractor.extractText(writer);
+				writer.flush();
+			} else {
+				extractor.extract();
+			}
+			final byte[] document = mapper.writeValueAsBytes(extractor.buildDocument());
+			input.drain();
+
+			out.writeByte(ForkProtocol.DOCUMENT);
+			out.writeInt(document.length);
+			out.write(document);
+			writeHeapUsage();
+		} catch (IOException e) {
+			writeError(input, ForkProtocol.IO_ERROR, e);
+		} catch (TikaException e) {
+			writeError(input, ForkProtocol.TIKA_ERROR, e);
+		} catch (SAXException e) {
+			writeError(input, ForkProtocol.SAX_ERROR, e);
+		} catch (OutOfMemoryError e) {
+			// Report the failure if possible, then give up - the heap may be in any state
+			try {
+				writeError(input, ForkProtocol.IO_ERROR, new IOException("Worker ran out of memory", e));
+			} finally {
+				Runtime.getRuntime().halt(1);
+			}
+		}
+	}
+
+	private void writeError(ForkProtocol.ChunkedInputStream input, int type, Exception e) throws IOException {
+		try {
+			input.drain();
+		} catch (IOException drainException) {
+			LOGGER.debug("Document was aborted: {}", drainException.getMessage());
+		}
+
+		out.writeByte(ForkProtocol.ERROR);
+		out.writeByte(type);
+		ForkProtocol.writeString(out, String.valueOf(e.getMessage()));
+		writeHeapUsage();
+	}
+
+	/**
+	 * Report the heap in use after the last garbage collection, summed over
+	 * the collected heap pools, so that garbage left by the last document does
+	 * not count towards recycling the worker. The current usage is reported
+	 * if the JVM does not record usage after collection.
+	 */
+	private void writeHeapUsage() throws IOException {
+		final Runtime runtime = Runtime.getRuntime();
+		long used = 0;
+		boolean collected = false;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			final MemoryUsage usage = (pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null);
+			if (usage != null) {
+				used += usage.getUsed();
+				collected = true;
+			}
+		}
+		out.writeLong(collected ? used : runtime.totalMemory() - runtime.freeMemory());
+		out.writeLong(runtime.maxMemory());
+		out.flush();
+	}
+
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.fork;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.xml.sax.SAXException;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.tika.PageRange;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Handle on a single worker process. A worker handles one document at a time.
+ *
+ * @author mlp
+ */
+class ForkWorker {
+
+	private static final long EXIT_POLL_MS = 50;
+
+	private final Process process;
+	private final DataOutputStream toWorker;
+	private final DataInputStream fromWorker;
+
+	private int documents;
+	private boolean broken;
+	private long heapUsed;
+	private long heapMax;
+
+	private ForkWorker(Process process) {
+		this.process = process;
+		this.toWorker = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+		this.fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+	}
+
+	/**
+	 * Start a worker process, waiting until it is ready to parse documents.
+	 * @param command the command line used to start the process.
+	 * @return the worker.
+	 * @throws IOException if the worker cannot be started.
+	 */
+	static ForkWorker start(List<String> command) throws IOException {
+		final Process process = new ProcessBuilder(command)
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		final ForkWorker worker = new ForkWorker(process);
+
+		final int ready = worker.fromWorker.read();
+		if (ready != ForkProtocol.READY) {
+			worker.destroy();
+			throw new IOException("Worker process failed to start");
+		}
+		return worker;
+	}
+
+	/**
+	 * Parse a document in the worker.
+	 * @param opKey the operation required.
+	 * @param metadata the initial document metadata.
+	 * @param input the document content.
+	 * @param textWriter the writer to receive the document text as it is
+	 *                   extracted, or <code>null</code> if the text should be
+	 *                   returned in the document.
+	 * @param maxCharacters the maximum number of characters of text to extract,
+	 *                      or 0 for no limit.
+	 * @param pages the range of pages to extract, or <code>null</code> for the
+	 *              whole document.
+	 * @param inputPump executor used to send the document to the worker, while
+	 *                  the calling thread reads its output.
+	 * @param mapper the object mapper used to read the result.
+	 * @return the extracted document.
+	 * @throws IOException if the document cannot be read, or the worker fails.
+	 * @throws TikaException if the worker reports a Tika error.
+	 * @throws SAXException if the worker reports a SAX error.
+	 */
+	TikaDocument extract(String opKey, Metadata metadata, final InputStream input, Writer textWriter, int maxCharacters,
+						 PageRange pages, ExecutorService inputPump, ObjectMapper mapper)
+			throws IOException, TikaException, SAXException {
+		documents++;
+		// Until the worker's reply has been read, it is in an unknown state
+		broken = true;
+
+		toWorker.writeByte(ForkProtocol.PARSE);
+		toWorker.writeUTF(opKey);
+		toWorker.writeBoolean(textWriter != null);
+		toWorker.writeInt(maxCharacters);
+		ForkProtocol.writePageRange(toWorker, pages);
+		ForkProtocol.writeMetadata(toWorker, metadata);
+
+		// The worker reads the whole document before replying, unless it is streaming
+		// text, so small documents can be sent without handing over to another thread
+		final byte[] buffer = new byte[ForkProtocol.CHUNK_SIZE];
+		final int read;
+		try {
+			read = (textWriter == null ? ByteStreams.read(input, buffer, 0, buffer.length) : 0);
+		} catch (IOException e) {
+			toWorker.writeInt(ForkProtocol.ABORTED);
+			toWorker.flush();
+			try {
+				readResult(null, mapper);
+			} catch (IOException | TikaException | SAXException workerException) {
+				// Expected - the worker reports the aborted document
+			}
+			throw e;
+		}
+		if (textWriter == null && read < buffer.length) {
+			if (read > 0) {
+				toWorker.writeInt(read);
+				toWorker.write(buffer, 0, read);
+			}
+			toWorker.writeInt(0);
+			toWorker.flush();
+			return readResult(textWriter, mapper);
+		}
+
+		final Future<Void> pump = inputPump.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				if (read > 0) {
+					toWorker.writeInt(read);
+					toWorker.write(buffer, 0, read);
+				}
+				ForkProtocol.writeChunks(input, toWorker);
+				return null;
+			}
+		});
+
+		try {
+			final TikaDocument ret = readResult(textWriter, mapper);
+			waitFor(pump);
+			return ret;
+		} catch (IOException | TikaException | SAXException e) {
+			pump.cancel(true);
+			throw e;
+		}
+	}
+
+	private TikaDocument readResult(Writer textWriter, ObjectMapper mapper) throws IOException, TikaException, SAXException {
+		int frame;
+		while ((frame = fromWorker.read()) == ForkProtocol.TEXT) {
+			final String text = ForkProtocol.readString(fromWorker);
+			if (textWriter != null) {
+				textWriter.write(text);
+			}
+		}
+
+		if (frame == ForkProtocol.DOCUMENT) {
+			final byte[] document = new byte[fromWorker.readInt()];
+			fromWorker.readFully(document);
+			readHeapUsage();
+			return mapper.readValue(document, TikaDocument.class);
+		} else if (frame == ForkProtocol.ERROR) {
+			final int type = fromWorker.readByte();
+			final String message = ForkProtocol.readString(fromWorker);
+			readHeapUsage();
+			if (type == ForkProtocol.TIKA_ERROR) {
+				throw new TikaException(message);
+			} else if (type == ForkProtocol.SAX_ERROR) {
+				throw new SAXException(message);
+			}
+			throw new IOException(message);
+		} else {
+			throw new IOException("Worker process failed");
+		}
+	}
+
+	private void readHeapUsage() throws IOException {
+		heapUsed = fromWorker.readLong();
+		heapMax = fromWorker.readLong();
+		broken = false;
+	}
+
+	private static void waitFor(Future<Void> pump) throws IOException {
+		try {
+			pump.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted sending document to worker", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * @return the number of documents sent to this worker.
+	 */
+	int getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * @return the percentage of its maximum heap the worker was using after the
+	 * last garbage collection, as reported after its last document.
+	 */
+	int getHeapPercent() {
+		return heapMax == 0 ? 0 : (int) (100 * heapUsed / heapMax);
+	}
+
+	/**
+	 * @return <code>true</code> if the worker failed to reply to its last
+	 * request, and cannot be used again.
+	 */
+	boolean isBroken() {
+		return broken;
+	}
+
+	/**
+	 * Ask the worker to exit once it has finished its current request.
+	 */
+	void stop() {
+		try {
+			toWorker.writeByte(ForkProtocol.EXIT);
+			toWorker.flush();
+		} catch (IOException e) {
+			destroy();
+		}
+	}
+
+	/**
+	 * Kill the worker process immediately.
+	 */
+	void destroy() {
+		process.destroy();
+	}
+
+	/**
+	 * Wait for the worker process to exit.
+	 * @param timeoutMs the maximum time to wait, in milliseconds.
+	 * @return <code>true</code> if the process has exited.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	boolean awaitExit(long timeoutMs) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeoutMs;
+		while (true) {
+			try {
+				process.exitValue();
+				return true;
+			} catch (IllegalThreadStateException e) {
+				// Still running
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			Thread.sleep(EXIT_POLL_MS);
+		}
+	}
+
+}
@@ -0,0 +1,368 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.fork;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.ForkConfiguration;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+import uk.co.flax.tika.service.tika.PageRange;
+import uk.co.flax.tika.service.tika.ParseTimeoutException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.apache.tika.metadata.HttpHeaders.CONTENT_TYPE;
+import static uk.co.flax.tika.resources.TikaResource.TEXT_OPKEY;
+
+/**
+ * Pool of worker processes which parse documents outside the server JVM,
+ * so that a parser crashing or running out of memory only takes down its
+ * worker. Each worker is a separate JVM running {@link ForkServer}, talking
+ * to the server over its standard input and output.
+ * <p>
+ * The workers are started, and their parsers loaded, before the server
+ * accepts requests. A worker which fails is replaced. A worker is recycled
+ * after a configured number of documents, or when its heap usage passes a
+ * threshold; it carries on working while its replacement starts.
+ * <p>
+ * Parses which time out are stopped by killing the worker. Since the
+ * document's type is not known until the worker has parsed it, only the
+ * declared content type is used to choose the timeout.
+ *
+ * @author mlp
+ */
+public class ForkWorkerPool implements Managed {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ForkWorkerPool.class);
+
+	private static final long RESTART_DELAY_MS = 1000;
+	private static final long STOP_TIMEOUT_MS = 5000;
+
+	private final ForkConfiguration config;
+	private final List<String> command;
+	private final ParseWatchdog watchdog;
+	private final ObjectMapper mapper;
+
+	private final BlockingQueue<ForkWorker> idle = new LinkedBlockingQueue<>();
+	private final Set<ForkWorker> workers = new HashSet<>();
+	private final Set<ForkWorker> retiring = new HashSet<>();
+	private final Set<ForkWorker> replaced = new HashSet<>();
+	private final ExecutorService background;
+
+	private final Meter restarts;
+	private final Meter recycles;
+
+	private volatile boolean running;
+
+	/**
+	 * @param config the worker configuration.
+	 * @param watchdog the parse watchdog, or <code>null</code> if parses should
+	 *                 not time out.
+	 * @param mapper the object mapper used to read results from the workers.
+	 * @param metrics the metrics registry.
+	 */
+	public ForkWorkerPool(ForkConfiguration config, ParseWatchdog watchdog, ObjectMapper mapper, MetricRegistry metrics) {
+		this.config = config;
+		this.command = buildCommand(config);
+		this.watchdog = watchdog;
+		this.mapper = mapper;
+		this.background = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+				.setNameFormat("tika-fork-%d")
+				.setDaemon(true)
+				.build());
+
+		this.restarts = metrics.meter(name(ForkWorkerPool.class, "restarts"));
+		this.recycles = metrics.meter(name(ForkWorkerPool.class, "recycles"));
+		metrics.register(name(ForkWorkerPool.class, "idle-workers"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return idle.size();
+			}
+		});
+	}
+
+	/**
+	 * Build the command line for a worker, using the same JVM and classpath
+	 * as the server.
+	 */
+	static List<String> buildCommand(ForkConfiguration config) {
+		final List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(config.getJavaOptions());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ForkServer.class.getName());
+		return command;
+	}
+
+	@Override
+	public void start() throws Exception {
+		running = true;
+
+		// Start the workers in parallel, since each takes a while to load its parsers
+		final List<Future<ForkWorker>> starting = new ArrayList<>();
+		for (int i = 0; i < config.getWorkers(); i++) {
+			starting.add(background.submit(new Callable<ForkWorker>() {
+				@Override
+				public ForkWorker call() throws IOException {
+					return ForkWorker.start(command);
+				}
+			}));
+		}
+		for (Future<ForkWorker> worker : starting) {
+			addWorker(worker.get());
+		}
+		LOGGER.info("Started {} worker processes", config.getWorkers());
+	}
+
+	/**
+	 * Stop the workers. Idle workers are asked to exit straight away, and busy
+	 * workers once their current document is finished; any which have not
+	 * exited after {@link #STOP_TIMEOUT_MS} are killed.
+	 */
+	@Override
+	public void stop() throws Exception {
+		final List<ForkWorker> live;
+		synchronized (this) {
+			running = false;
+			live = new ArrayList<>(workers);
+			workers.clear();
+			ForkWorker worker;
+			while ((worker = idle.poll()) != null) {
+				worker.stop();
+			}
+		}
+
+		final long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+		try {
+			for (ForkWorker worker : live) {
+				if (!worker.awaitExit(Math.max(deadline - System.currentTimeMillis(), 0))) {
+					LOGGER.warn("Worker process did not exit - killing it");
+					worker.destroy();
+				}
+			}
+		} finally {
+			background.shutdownNow();
+		}
+	}
+
+	/**
+	 * Extract data from a document in a worker process.
+	 * @param opKey the type of operation required.
+	 * @param metadata the initial metadata for the document.
+	 * @param input the document content.
+	 * @param maxCharacters the maximum number of characters of text to extract,
+	 *                      or 0 for no limit.
+	 * @param pages the range of pages to extract, or <code>null</code> for the
+	 *              whole document.
+	 * @return the extracted document.
+	 * @throws IOException if the document cannot be read, or the worker fails.
+	 * @throws TikaException if the document cannot be parsed, including a
+	 * {@link ParseTimeoutException} if the parse times out.
+	 * @throws SAXException if the document cannot be parsed.
+	 */
+	public TikaDocument extract(String opKey, Metadata metadata, InputStream input, int maxCharacters,
+								PageRange pages) throws IOException, TikaException, SAXException {
+		return run(opKey, metadata, input, null, maxCharacters, pages);
+	}
+
+	/**
+	 * Extract the text from a document in a worker process, writing it to the
+	 * given writer as the worker produces it.
+	 * @param metadata the initial metadata for the document.
+	 * @param input the document content.
+	 * @param writer the writer to receive the text. This is not flushed or closed.
+	 * @param maxCharacters the maximum number of characters of text to extract,
+	 *                      or 0 for no limit.
+	 * @param pages the range of pages to extract, or <code>null</code> for the
+	 *              whole document.
+	 * @throws IOException if the document cannot be read, the text cannot be
+	 * written, or the worker fails.
+	 * @throws TikaException if the document cannot be parsed, including a
+	 * {@link ParseTimeoutException} if the parse times out.
+	 * @throws SAXException if the document cannot be parsed.
+	 */
+	public void extractText(Metadata metadata, InputStream input, Writer writer, int maxCharacters, PageRange pages)
+			throws IOException, TikaException, SAXException {
+		run(TEXT_OPKEY, metadata, input, writer, maxCharacters, pages);
+	}
+
+	private TikaDocument run(String opKey, Metadata metadata, InputStream input, Writer writer, int maxCharacters,
+							 PageRange pages) throws IOException, TikaException, SAXException {
+		final ForkWorker worker = takeWorker();
+		final MediaType type = getDeclaredType(metadata);
+		final ParseWatchdog.Watch watch = (watchdog == null ? null : watchdog.newWatch());
+
+		try {
+			if (watch != null) {
+				watch.onExpiry(new Runnable() {
+					@Override
+					public void run() {
+						worker.destroy();
+					}
+				});
+				watch.start(type);
+			}
+			return worker.extract(opKey, metadata, input, writer, maxCharacters, pages, background, mapper);
+		} catch (IOException | TikaException | SAXException e) {
+			if (watch != null && watch.isExpired()) {
+				throw new ParseTimeoutException(type, e);
+			}
+			throw e;
+		} finally {
+			if (watch != null) {
+				watch.close();
+			}
+			release(worker);
+		}
+	}
+
+	private static MediaType getDeclaredType(Metadata metadata) {
+		MediaType type = null;
+		if (metadata.get(CONTENT_TYPE) != null) {
+			type = MediaType.parse(metadata.get(CONTENT_TYPE));
+		}
+		return type == null ? MediaType.OCTET_STREAM : type;
+	}
+
+	private ForkWorker takeWorker() throws IOException {
+		try {
+			ForkWorker worker = null;
+			while (worker == null && running) {
+				worker = idle.poll(1, TimeUnit.SECONDS);
+			}
+			if (worker == null) {
+				throw new IOException("Worker pool has been stopped");
+			}
+			return worker;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a worker process", e);
+		}
+	}
+
+	/**
+	 * Return a worker to the pool after use, replacing it if it has failed
+	 * or needs recycling.
+	 */
+	private synchronized void release(ForkWorker worker) {
+		if (worker.isBroken()) {
+			LOGGER.warn("Worker process failed - restarting");
+			worker.destroy();
+			workers.remove(worker);
+			restarts.mark();
+			// If the worker was being recycled, its replacement is already on the way
+			final boolean replacing = retiring.remove(worker) | replaced.remove(worker);
+			if (!replacing) {
+				startReplacement(null);
+			}
+		} else if (!running || replaced.remove(worker)) {
+			worker.stop();
+			workers.remove(worker);
+		} else {
+			if (needsRecycling(worker) && retiring.add(worker)) {
+				LOGGER.debug("Recycling worker process after {} documents, heap {}% full",
+						worker.getDocuments(), worker.getHeapPercent());
+				recycles.mark();
+				startReplacement(worker);
+			}
+			idle.add(worker);
+		}
+	}
+
+	private boolean needsRecycling(ForkWorker worker) {
+		return (config.getMaxDocuments() > 0 && worker.getDocuments() >= config.getMaxDocuments())
+				|| worker.getHeapPercent() >= config.getMaxHeapPercent();
+	}
+
+	/**
+	 * Start a new worker in the background. Once it is ready, the old worker
+	 * (if any) is stopped - immediately if it is idle, otherwise once its
+	 * current document is finished.
+	 * @param old the worker being replaced, or <code>null</code>.
+	 */
+	private void startReplacement(final ForkWorker old) {
+		background.submit(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					try {
+						addReplacement(ForkWorker.start(command), old);
+						return;
+					} catch (IOException e) {
+						LOGGER.error("Could not start worker process: {}", e.getMessage());
+					}
+
+					try {
+						Thread.sleep(RESTART_DELAY_MS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		});
+	}
+
+	private synchronized void addReplacement(ForkWorker worker, ForkWorker old) {
+		if (!running) {
+			worker.stop();
+			return;
+		}
+
+		addWorker(worker);
+		if (old != null && retiring.remove(old)) {
+			if (idle.remove(old)) {
+				old.stop();
+				workers.remove(old);
+			} else {
+				replaced.add(old);
+			}
+		}
+	}
+
+	private synchronized void addWorker(ForkWorker worker) {
+		workers.add(worker);
+		idle.add(worker);
+	}
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.local;
+
+import uk.co.flax.tika.config.LocalFilesConfiguration;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the paths of local files requested for extraction, allowing only
+ * regular files under the configured root directories.
+ * <p>
+ * Each path is checked twice: first as given, once any <code>..</code>
+ * segments are removed, so that the existence of files outside the roots is
+ * not revealed; and again once any symbolic links have been followed, so that
+ * a link cannot lead out of the roots.
+ *
+ * @author mlp
+ */
+public class LocalFileResolver {
+
+	/** The roots as configured, which may themselves be symbolic links. */
+	private final List<Path> configuredRoots;
+	private final List<Path> roots;
+
+	/**
+	 * @param config the local file configuration.
+	 * @throws IOException if any of the root directories cannot be found.
+	 */
+	public LocalFileResolver(LocalFilesConfiguration config) throws IOException {
+		final List<Path> absoluteRoots = new ArrayList<>(config.getRoots().size());
+		final List<Path> realRoots = new ArrayList<>(config.getRoots().size());
+		for (String root : config.getRoots()) {
+			final Path path = Paths.get(root).toAbsolutePath().normalize();
+			final Path realPath = path.toRealPath();
+			if (!Files.isDirectory(realPath)) {
+				throw new IOException("Local file root " + root + " is not a directory");
+			}
+			absoluteRoots.add(path);
+			realRoots.add(realPath);
+		}
+		this.configuredRoots = Collections.unmodifiableList(absoluteRoots);
+		this.roots = Collections.unmodifiableList(realRoots);
+	}
+
+	/**
+	 * Find the file for a requested path.
+	 * @param path the absolute path to the file.
+	 * @return the real path to the file.
+	 * @throws AccessDeniedException if the path is not absolute, is outside the
+	 * allowed roots, or is not a regular file.
+	 * @throws NoSuchFileException if the path is under an allowed root, but
+	 * does not exist.
+	 * @throws IOException if the file cannot be checked.
+	 */
+	public Path resolve(String path) throws IOException {
+		final Path requested;
+		try {
+			requested = Paths.get(path);
+		} catch (InvalidPathException e) {
+			throw new AccessDeniedException(path, null, "invalid path");
+		}
+		if (!requested.isAbsolute()) {
+			throw new AccessDeniedException(path, null, "path must be absolute");
+		}
+
+		final Path normalised = requested.normalize();
+		if (!isUnderRoot(normalised, configuredRoots) && !isUnderRoot(normalised, roots)) {
+			throw new AccessDeniedException(path, null, "path is not under an allowed root");
+		}
+
+		final Path real;
+		try {
+			real = normalised.toRealPath();
+		} catch (NoSuchFileException e) {
+			throw new NoSuchFileException(path, null, "file not found");
+		}
+		if (!isUnderRoot(real, roots)) {
+			throw new AccessDeniedException(path, null, "path is not under an allowed root");
+		} else if (!Files.isRegularFile(real)) {
+			throw new AccessDeniedException(path, null, "not a regular file");
+		}
+
+		return real;
+	}
+
+	private static boolean isUnderRoot(Path path, List<Path> roots) {
+		for (Path root : roots) {
+			if (path.startsWith(root)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.quota;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented with the generic cell rate algorithm:
+ * rather than counting tokens, it holds the time at which the bucket would
+ * be full again, which is moved forward by each acquisition with a single
+ * compare-and-set. A caller may take its tokens while the bucket holds at
+ * least that many; a cost larger than the whole bucket is allowed when the
+ * bucket is full, leaving it in debt until the cost has been paid off.
+ * <p>
+ * The time each acquisition costs is worked out from the rate when it is
+ * made, rather than from a whole number of nanoseconds per token, so that
+ * rates of more than one token per nanosecond - such as high byte rates -
+ * are kept accurately.
+ *
+ * @author mlp
+ */
+class TokenBucket {
+
+	private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+	/** Rate at which the bucket is refilled, in tokens per nanosecond. */
+	private final double tokensPerNano;
+	/** Time taken to refill the whole bucket, in nanoseconds. */
+	private final long capacity;
+	/** Time at which the bucket will be full. */
+	private final AtomicLong fullAt;
+
+	/**
+	 * @param tokensPerSecond the rate at which the bucket is refilled.
+	 * @param burst the number of tokens the bucket holds.
+	 * @param now the current time, in nanoseconds. The bucket starts full.
+	 */
+	TokenBucket(double tokensPerSecond, long burst, long now) {
+		this.tokensPerNano = tokensPerSecond / NANOS_PER_SECOND;
+		this.capacity = toNanos(burst);
+		this.fullAt = new AtomicLong(now);
+	}
+
+	/**
+	 * Take tokens from the bucket, if it holds enough.
+	 * @param tokens the number of tokens required.
+	 * @param now the current time, in nanoseconds.
+	 * @return 0 if the tokens were taken, or the time in nanoseconds until
+	 * enough will be available.
+	 */
+	long tryAcquire(long tokens, long now) {
+		final long cost = toNanos(tokens);
+		// The debt which may be outstanding before the tokens are taken
+		final long allowed = capacity - Math.min(cost, capacity);
+		while (true) {
+			final long current = fullAt.get();
+			final long start = Math.max(current, now);
+			final long debt = start - now;
+			if (debt > allowed) {
+				return debt - allowed;
+			}
+			if (fullAt.compareAndSet(current, start + cost)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Return tokens taken by {@link #tryAcquire(long, long)}, when the
+	 * request they were taken for was refused by another limit.
+	 * @param tokens the number of tokens to return.
+	 */
+	void refund(long tokens) {
+		fullAt.addAndGet(-toNanos(tokens));
+	}
+
+	/**
+	 * @param now the current time, in nanoseconds.
+	 * @return the number of tokens in the bucket - negative if it is in debt.
+	 */
+	long getAvailable(long now) {
+		return Math.round((capacity - Math.max(0, fullAt.get() - now)) * tokensPerNano);
+	}
+
+	/**
+	 * @return the time taken to refill the given number of tokens, in
+	 * nanoseconds.
+	 */
+	private long toNanos(long tokens) {
+		return Math.round(tokens / tokensPerNano);
+	}
+
+}
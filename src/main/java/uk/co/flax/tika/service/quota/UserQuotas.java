@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.quota;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import uk.co.flax.tika.config.QuotaConfiguration;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Per-user limits on request rate, request body bytes and concurrent
+ * requests, so one busy user cannot starve the others. Each user has their
+ * own counters, created on their first request, so users do not contend with
+ * each other; the rate limits are lock-free {@link TokenBucket}s, and the
+ * concurrent request count an atomic integer.
+ * <p>
+ * Each user's requests, bytes and rejections are metered, and their requests
+ * in progress reported, under this class's name followed by the user name.
+ *
+ * @author mlp
+ */
+public class UserQuotas {
+
+	private final QuotaConfiguration defaultQuota;
+	private final Map<String, QuotaConfiguration> userQuotas;
+	private final MetricRegistry metrics;
+	private final Ticker ticker;
+
+	private final ConcurrentMap<String, UserQuota> quotas = new ConcurrentHashMap<>();
+
+	/**
+	 * @param defaultQuota the limits for users without their own quota.
+	 * @param userQuotas the limits for particular users.
+	 * @param metrics the metrics registry.
+	 * @param ticker the source of the current time.
+	 */
+	public UserQuotas(QuotaConfiguration defaultQuota, Map<String, QuotaConfiguration> userQuotas,
+					  MetricRegistry metrics, Ticker ticker) {
+		this.defaultQuota = defaultQuota;
+		this.userQuotas = userQuotas;
+		this.metrics = metrics;
+		this.ticker = ticker;
+	}
+
+	/**
+	 * Start a request for a user, if it is within their quota. The permit
+	 * returned must be closed when the request has finished.
+	 * @param user the user name.
+	 * @param length the length of the request body, or -1 if not known. A
+	 *               body of unknown length is not counted against the byte limit.
+	 * @return the permit for the request.
+	 * @throws QuotaExceededException if the user has too many requests in
+	 * progress, or has sent too many requests or bytes recently.
+	 */
+	public Permit acquire(String user, long length) throws QuotaExceededException {
+		return getQuota(user).acquire(Math.max(0, length), ticker.read());
+	}
+
+	/**
+	 * @param user the user name.
+	 * @return <code>true</code> if the user's request bodies are limited, so
+	 * their length must be known in advance.
+	 */
+	public boolean isLengthRequired(String user) {
+		return getQuota(user).bytes != null;
+	}
+
+	private UserQuota getQuota(String user) {
+		UserQuota quota = quotas.get(user);
+		if (quota == null) {
+			final QuotaConfiguration config = userQuotas.containsKey(user) ? userQuotas.get(user) : defaultQuota;
+			final UserQuota created = new UserQuota(user, config, ticker.read());
+			quota = quotas.putIfAbsent(user, created);
+			if (quota == null) {
+				quota = created;
+				metrics.register(name(UserQuotas.class, user, "in-flight"), new Gauge<Integer>() {
+					@Override
+					public Integer getValue() {
+						return created.inFlight.get();
+					}
+				});
+			}
+		}
+		return quota;
+	}
+
+	private static int toRetrySeconds(long nanos) {
+		return (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(nanos + TimeUnit.SECONDS.toNanos(1) - 1));
+	}
+
+
+	/**
+	 * The limits and counters for one user.
+	 */
+	private class UserQuota {
+
+		private final String user;
+		private final TokenBucket requests;
+		private final TokenBucket bytes;
+		private final int maxConcurrent;
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private final Meter requestMeter;
+		private final Meter byteMeter;
+		private final Meter rejectedMeter;
+
+		UserQuota(String user, QuotaConfiguration config, long now) {
+			this.user = user;
+			this.requests = (config.getRequestsPerSecond() == 0 ? null
+					: new TokenBucket(config.getRequestsPerSecond(), config.getRequestBurst(), now));
+			this.bytes = (config.getBytesPerSecond().toBytes() == 0 ? null
+					: new TokenBucket(config.getBytesPerSecond().toBytes(), config.getByteBurst().toBytes(), now));
+			this.maxConcurrent = config.getMaxConcurrent();
+
+			this.requestMeter = metrics.meter(name(UserQuotas.class, user, "requests"));
+			this.byteMeter = metrics.meter(name(UserQuotas.class, user, "bytes"));
+			this.rejectedMeter = metrics.meter(name(UserQuotas.class, user, "rejected"));
+		}
+
+		Permit acquire(long length, long now) throws QuotaExceededException {
+			if (inFlight.incrementAndGet() > maxConcurrent && maxConcurrent > 0) {
+				inFlight.decrementAndGet();
+				throw reject("Too many requests in progress for " + user, 1);
+			}
+
+			final long requestWait = (requests == null ? 0 : requests.tryAcquire(1, now));
+			if (requestWait > 0) {
+				inFlight.decrementAndGet();
+				throw reject("Request rate limit exceeded for " + user, toRetrySeconds(requestWait));
+			}
+
+			final long byteWait = (bytes == null ? 0 : bytes.tryAcquire(length, now));
+			if (byteWait > 0) {
+				if (requests != null) {
+					requests.refund(1);
+				}
+				inFlight.decrementAndGet();
+				throw reject("Byte rate limit exceeded for " + user, toRetrySeconds(byteWait));
+			}
+
+			requestMeter.mark();
+			byteMeter.mark(length);
+			return new Permit(this);
+		}
+
+		private QuotaExceededException reject(String message, int retryAfterSeconds) {
+			rejectedMeter.mark();
+			return new QuotaExceededException(message, retryAfterSeconds);
+		}
+	}
+
+
+	/**
+	 * A request in progress, which must be closed when the request has
+	 * finished. Closing a permit more than once has no further effect.
+	 */
+	public static class Permit implements Closeable {
+
+		private final UserQuota quota;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private Permit(UserQuota quota) {
+			this.quota = quota;
+		}
+
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) {
+				quota.inFlight.decrementAndGet();
+			}
+		}
+	}
+
+}
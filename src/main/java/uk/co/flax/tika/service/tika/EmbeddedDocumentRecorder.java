@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.io.CloseShieldInputStream;
+import org.apache.tika.io.TemporaryResources;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaMetadataKeys;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Embedded document extractor which parses each embedded document separately,
+ * rather than adding its content to its container's, and passes the result
+ * to a {@link TikaExtractor.DocumentSink} as soon as it is finished. The
+ * embedded documents are found through the same parse context, so documents
+ * nested within them are handled in the same way.
+ * <p>
+ * Each document's path is its parent's path, followed by its resource name
+ * (or <code>embedded-<i>n</i></code> if it has none), so a file in a ZIP
+ * attached to an email has the path <code>/archive.zip/file.txt</code>. The
+ * nesting depth and the total number of embedded documents are limited;
+ * documents beyond the limits are skipped.
+ *
+ * @author mlp
+ */
+class EmbeddedDocumentRecorder implements EmbeddedDocumentExtractor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedDocumentRecorder.class);
+
+	private static final String UNNAMED_PREFIX = "embedded-";
+
+	private final Parser parser;
+	private final TikaExtractor.DocumentSink sink;
+	private final String opKey;
+	private final boolean requiresBody;
+	private final int maxCharacters;
+	private final int maxDepth;
+	private final int maxDocuments;
+
+	/** The paths of the embedded documents currently being parsed, innermost first. */
+	private final Deque<String> paths = new ArrayDeque<>();
+	private ParseContext context;
+	private ParseWatchdog.Watch watch;
+	private int count;
+	private boolean limitReached;
+	private IOException sinkFailure;
+
+	/**
+	 * @param parser the parser for the embedded documents.
+	 * @param sink the sink receiving the embedded documents.
+	 * @param opKey the operation being carried out.
+	 * @param requiresBody <code>true</code> if the text of the documents is required.
+	 * @param maxCharacters the maximum number of characters of text to extract
+	 *                      from each document, or 0 for no limit.
+	 * @param maxDepth the maximum nesting depth of the documents parsed, where
+	 *                 the container's own attachments have depth 1.
+	 * @param maxDocuments the maximum number of embedded documents parsed.
+	 */
+	EmbeddedDocumentRecorder(Parser parser, TikaExtractor.DocumentSink sink, String opKey, boolean requiresBody,
+							 int maxCharacters, int maxDepth, int maxDocuments) {
+		this.parser = parser;
+		this.sink = sink;
+		this.opKey = opKey;
+		this.requiresBody = requiresBody;
+		this.maxCharacters = maxCharacters;
+		this.maxDepth = maxDepth;
+		this.maxDocuments = maxDocuments;
+	}
+
+	/**
+	 * Set this as the embedded document extractor for a parse.
+	 * @param parseContext the context for the container's parse.
+	 * @param parseWatch the watch for the container's parse, or <code>null</code>.
+	 */
+	void configure(ParseContext parseContext, ParseWatchdog.Watch parseWatch) {
+		this.context = parseContext;
+		this.watch = parseWatch;
+		parseContext.set(EmbeddedDocumentExtractor.class, this);
+	}
+
+	@Override
+	public boolean shouldParseEmbedded(Metadata metadata) {
+		if (sinkFailure != null) {
+			return false;
+		} else if (paths.size() >= maxDepth || count >= maxDocuments) {
+			limitReached = true;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void parseEmbedded(InputStream stream, ContentHandler containerHandler, Metadata metadata,
+							  boolean outputHtml) throws SAXException, IOException {
+		// Not every parser asks first
+		if (!shouldParseEmbedded(metadata)) {
+			return;
+		}
+
+		count++;
+		final String name = metadata.get(TikaMetadataKeys.RESOURCE_NAME_KEY);
+		final String path = (paths.isEmpty() ? "" : paths.peek()) + "/" + (name == null ? UNNAMED_PREFIX + count : name);
+		paths.push(path);
+
+		final StringWriter text = new StringWriter();
+		final WriteOutContentHandler limitHandler = new WriteOutContentHandler(text, maxCharacters > 0 ? maxCharacters : -1);
+		final ContentHandler handler = (requiresBody ? new BodyContentHandler(limitHandler) : new DefaultHandler());
+		final TemporaryResources tmp = new TemporaryResources();
+		try {
+			TikaDocument document = null;
+			boolean truncated = false;
+			try {
+				final TikaInputStream input = TikaInputStream.get(new CloseShieldInputStream(stream), tmp);
+				parser.parse(input, watch == null ? handler : watch.watch(handler), metadata, context);
+			} catch (IOException | TikaException | SAXException e) {
+				if (sinkFailure != null) {
+					throw sinkFailure;
+				} else if (watch != null && watch.isExpired()) {
+					// Stop the container's parse, which will report the timeout
+					throw new IOException("Parse timed out in embedded document " + path, e);
+				} else if (limitHandler.isWriteLimitReached(e)) {
+					truncated = true;
+				} else {
+					// Report the failure, and carry on with the container
+					LOGGER.debug("Cannot parse embedded document {}: {}", path, e.getMessage());
+					document = new TikaDocument(e.getMessage());
+				}
+			}
+
+			if (document == null) {
+				document = TikaExtractor.buildDocument(opKey, metadata, requiresBody ? text.toString() : null, truncated);
+			}
+			add(document.withPath(path));
+		} finally {
+			paths.pop();
+			tmp.close();
+		}
+	}
+
+	private void add(TikaDocument document) throws IOException {
+		try {
+			sink.add(document);
+		} catch (IOException e) {
+			// Remember the failure, in case the container's parser swallows it
+			sinkFailure = e;
+			throw e;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if any embedded documents were skipped because
+	 * they were beyond the depth or document limits.
+	 */
+	boolean isLimitReached() {
+		return limitReached;
+	}
+
+	/**
+	 * @throws IOException if a document could not be passed to the sink.
+	 */
+	void checkSink() throws IOException {
+		if (sinkFailure != null) {
+			throw sinkFailure;
+		}
+	}
+
+}
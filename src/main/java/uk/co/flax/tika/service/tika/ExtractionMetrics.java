@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.apache.tika.metadata.HttpHeaders.CONTENT_TYPE;
+
+/**
+ * Per content type extraction metrics: timers for detection, parsing and
+ * serialisation, histograms of the bytes read and characters extracted,
+ * and meters counting errors by exception class.
+ * <p>
+ * Declared content types are trusted, so clients can send any type they like.
+ * To stop the number of metrics growing without limit, only types known to the
+ * Tika MIME registry are reported individually; anything else is reported as
+ * {@link #OTHER_TYPE}.
+ *
+ * @author mlp
+ */
+public class ExtractionMetrics {
+
+	/**
+	 * The name used to report content types not known to the MIME registry.
+	 */
+	public static final String OTHER_TYPE = "other";
+
+	private final MediaTypeRegistry mediaTypes;
+	private final MetricRegistry metrics;
+
+	/**
+	 * @param mediaTypes the Tika media type registry.
+	 * @param metrics the metrics registry.
+	 */
+	public ExtractionMetrics(MediaTypeRegistry mediaTypes, MetricRegistry metrics) {
+		this.mediaTypes = mediaTypes;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Build the name used to report a content type in the metrics - the
+	 * normalised base type if it is known to the registry, or
+	 * {@link #OTHER_TYPE} otherwise.
+	 * @param mediaTypes the Tika media type registry.
+	 * @param type the content type.
+	 * @return the name for the type.
+	 */
+	public static String getMetricType(MediaTypeRegistry mediaTypes, MediaType type) {
+		String ret = OTHER_TYPE;
+		if (type != null) {
+			final MediaType baseType = mediaTypes.normalize(type.getBaseType());
+			if (mediaTypes.getTypes().contains(baseType)) {
+				ret = baseType.toString();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @param type the content type, or <code>null</code> if not known.
+	 * @return the name used to report the type in the metrics.
+	 */
+	public String getMetricType(MediaType type) {
+		return getMetricType(mediaTypes, type);
+	}
+
+	/**
+	 * @param metadata the document metadata.
+	 * @return the name used to report the document's content type in the
+	 * metrics, or {@link #OTHER_TYPE} if it has no type.
+	 */
+	public String getMetricType(Metadata metadata) {
+		final String contentType = metadata.get(CONTENT_TYPE);
+		return getMetricType(contentType == null ? null : MediaType.parse(contentType));
+	}
+
+	/**
+	 * Record the time taken to detect a document's type.
+	 * @param type the metric name for the detected type.
+	 * @param nanos the time taken, in nanoseconds.
+	 */
+	public void recordDetection(String type, long nanos) {
+		metrics.timer(name(ExtractionMetrics.class, type, "detect")).update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a successful parse.
+	 * @param type the metric name for the document type.
+	 * @param nanos the time taken, in nanoseconds.
+	 * @param inputBytes the number of bytes read from the document.
+	 */
+	public void recordParse(String type, long nanos, long inputBytes) {
+		metrics.timer(name(ExtractionMetrics.class, type, "parse")).update(nanos, TimeUnit.NANOSECONDS);
+		metrics.histogram(name(ExtractionMetrics.class, type, "input-bytes")).update(inputBytes);
+	}
+
+	/**
+	 * Record the amount of text extracted from a document.
+	 * @param type the metric name for the document type.
+	 * @param chars the number of characters extracted.
+	 */
+	public void recordOutput(String type, long chars) {
+		metrics.histogram(name(ExtractionMetrics.class, type, "output-chars")).update(chars);
+	}
+
+	/**
+	 * Record the time taken to write a document to the response.
+	 * @param type the metric name for the document type.
+	 * @param nanos the time taken, in nanoseconds.
+	 */
+	public void recordSerialisation(String type, long nanos) {
+		metrics.timer(name(ExtractionMetrics.class, type, "serialise")).update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record a failed extraction.
+	 * @param type the metric name for the document type.
+	 * @param e the exception which stopped the extraction.
+	 */
+	public void recordError(String type, Throwable e) {
+		metrics.meter(name(ExtractionMetrics.class, type, "errors", e.getClass().getSimpleName())).mark();
+	}
+
+}
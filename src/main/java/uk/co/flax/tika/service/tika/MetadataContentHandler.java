@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import static org.apache.tika.metadata.HttpHeaders.CONTENT_TYPE;
+
+/**
+ * Content handler for metadata-only extraction, which discards the document
+ * content. For types whose parsers read all of the document-level metadata
+ * before writing any content - PDF (the information dictionary and XMP), OOXML
+ * and OLE2 Office documents (their document properties), and bitmap images
+ * (their headers) - the parse is stopped as soon as the document body starts,
+ * so the content is never extracted. Other types are parsed in full, as some
+ * parsers, such as those for OpenDocument and MP3 files, find the metadata
+ * after the content.
+ *
+ * @author mlp
+ */
+class MetadataContentHandler extends DefaultHandler {
+
+	/** Types whose metadata is complete when the body starts, including their subtypes. */
+	private static final MediaType[] EARLY_STOP_TYPES = {
+			MediaType.application("pdf"),
+			MediaType.application("x-tika-ooxml"),
+			MediaType.application("x-tika-msoffice")
+	};
+
+	private static final String BODY_ELEMENT = "body";
+
+	private final MediaTypeRegistry mediaTypes;
+	private final Metadata metadata;
+	private boolean bodyStarted;
+
+	/**
+	 * @param mediaTypes the Tika media type registry.
+	 * @param metadata the metadata being filled by the parser. This is checked
+	 *                 for the parsed type when the body starts.
+	 */
+	MetadataContentHandler(MediaTypeRegistry mediaTypes, Metadata metadata) {
+		this.mediaTypes = mediaTypes;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Configure the parse context so that the parsers do not carry on after
+	 * this handler stops the parse. The PDF parser normally records errors
+	 * starting each page as warnings, and moves on to the next page.
+	 * @param context the context for the parse.
+	 */
+	void configure(ParseContext context) {
+		final PDFParserConfig pdfConfig = new PDFParserConfig();
+		pdfConfig.setCatchIntermediateIOExceptions(false);
+		context.set(PDFParserConfig.class, pdfConfig);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if (!bodyStarted && XHTMLContentHandler.XHTML.equals(uri) && BODY_ELEMENT.equals(localName)) {
+			bodyStarted = true;
+			final String type = metadata.get(CONTENT_TYPE);
+			if (type != null && isEarlyStopType(MediaType.parse(type))) {
+				throw new BodyStartedException(this);
+			}
+		}
+	}
+
+	/**
+	 * @param type the document type.
+	 * @return <code>true</code> if the document's metadata is known to be
+	 * complete once its body starts.
+	 */
+	boolean isEarlyStopType(MediaType type) {
+		if (type == null) {
+			return false;
+		}
+
+		final MediaType baseType = mediaTypes.normalize(type.getBaseType());
+		if ("image".equals(baseType.getType())) {
+			// XML images, such as SVG, may hold their metadata anywhere
+			return !mediaTypes.isInstanceOf(baseType, MediaType.APPLICATION_XML);
+		}
+		for (MediaType earlyStopType : EARLY_STOP_TYPES) {
+			if (mediaTypes.isInstanceOf(baseType, earlyStopType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether an exception thrown by the parser was caused by this
+	 * handler stopping the parse at the start of the body.
+	 * @param t the exception.
+	 * @return <code>true</code> if the parse was stopped by this handler.
+	 */
+	boolean isBodyStarted(Throwable t) {
+		while (t != null) {
+			if (t instanceof BodyStartedException && ((BodyStartedException) t).handler == this) {
+				return true;
+			}
+			t = t.getCause();
+		}
+		return false;
+	}
+
+
+	/**
+	 * Exception used to stop the parse, identifying the handler which threw it.
+	 */
+	private static class BodyStartedException extends SAXException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient MetadataContentHandler handler;
+
+		BodyStartedException(MetadataContentHandler handler) {
+			super("Document body started - metadata complete");
+			this.handler = handler;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+/**
+ * A range of pages, or of slides in a presentation, to extract from a
+ * document. Ranges are written as a single page (<code>3</code>), a closed
+ * range (<code>3-5</code>), or a range running to the end of the document
+ * (<code>3-</code>). Pages are numbered from 1.
+ *
+ * @author mlp
+ */
+public final class PageRange {
+
+	private final int first;
+	private final int last;
+
+	/**
+	 * @param first the first page, numbered from 1.
+	 * @param last the last page, or 0 if the range runs to the end of the document.
+	 */
+	public PageRange(int first, int last) {
+		if (first < 1 || (last != 0 && last < first)) {
+			throw new IllegalArgumentException("Invalid page range " + first + "-" + last);
+		}
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * Parse a page range.
+	 * @param range the range, as <code>3</code>, <code>3-5</code> or <code>3-</code>.
+	 * @return the range.
+	 * @throws IllegalArgumentException if the range is not valid.
+	 */
+	public static PageRange parse(String range) {
+		final String trimmed = range.trim();
+		final int dash = trimmed.indexOf('-');
+		try {
+			if (dash < 0) {
+				final int page = Integer.parseInt(trimmed);
+				return new PageRange(page, page);
+			}
+			final String end = trimmed.substring(dash + 1).trim();
+			return new PageRange(Integer.parseInt(trimmed.substring(0, dash).trim()),
+					end.isEmpty() ? 0 : Integer.parseInt(end));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid page range " + range, e);
+		}
+	}
+
+	/**
+	 * @return the first page in the range, numbered from 1.
+	 */
+	public int getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return the last page in the range, or 0 if it runs to the end of the document.
+	 */
+	public int getLast() {
+		return last;
+	}
+
+	/**
+	 * @param page a page number.
+	 * @return <code>true</code> if the page is in the range.
+	 */
+	public boolean contains(int page) {
+		return page >= first && !isPastEnd(page);
+	}
+
+	/**
+	 * @param page a page number.
+	 * @return <code>true</code> if the page comes after the end of the range.
+	 */
+	public boolean isPastEnd(int page) {
+		return last != 0 && page > last;
+	}
+
+	/**
+	 * @return the range in the form accepted by {@link #parse(String)}.
+	 */
+	@Override
+	public String toString() {
+		return first + "-" + (last == 0 ? "" : String.valueOf(last));
+	}
+
+}
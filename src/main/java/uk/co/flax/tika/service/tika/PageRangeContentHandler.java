@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Content handler passing on only the text of a range of pages. Pages are
+ * found from the <code>div</code> elements the parsers write around each
+ * page of a PDF (class <code>page</code>) and each slide of a PowerPoint
+ * presentation (<code>slide</code> for the older binary format, which nests a
+ * <code>slide-content</code> element inside it, and <code>slide-content</code>
+ * for OOXML). Everything written from the start of one page to the start of
+ * the next, such as a slide's notes and comments, belongs to the first. The
+ * parse is stopped as soon as the page after the range starts.
+ * <p>
+ * Documents without page elements are passed on in full.
+ *
+ * @author mlp
+ */
+class PageRangeContentHandler extends ContentHandlerDecorator {
+
+	/** Classes of the elements starting a page. */
+	private static final String[] PAGE_CLASSES = { "page", "slide", "slide-content" };
+
+	private static final String DIV_ELEMENT = "div";
+	private static final String CLASS_ATTRIBUTE = "class";
+
+	private final PageRange range;
+
+	private String pageClass;
+	private int page;
+	private int firstReturned;
+	private int lastReturned;
+
+	/**
+	 * @param handler the handler to receive the text of the pages in range.
+	 * @param range the pages to pass on.
+	 */
+	PageRangeContentHandler(ContentHandler handler, PageRange range) {
+		super(handler);
+		this.range = range;
+	}
+
+	/**
+	 * Configure the parse context so that the parsers do not carry on after
+	 * this handler stops the parse. The PDF parser normally records errors
+	 * starting each page as warnings, and moves on to the next page.
+	 * @param context the context for the parse.
+	 */
+	void configure(ParseContext context) {
+		final PDFParserConfig pdfConfig = new PDFParserConfig();
+		pdfConfig.setCatchIntermediateIOExceptions(false);
+		context.set(PDFParserConfig.class, pdfConfig);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if (XHTMLContentHandler.XHTML.equals(uri) && DIV_ELEMENT.equals(localName) && isPageStart(atts)) {
+			page++;
+			if (range.isPastEnd(page)) {
+				throw new RangeCompleteException(this);
+			} else if (range.contains(page)) {
+				if (firstReturned == 0) {
+					firstReturned = page;
+				}
+				lastReturned = page;
+			}
+		}
+		super.startElement(uri, localName, qName, atts);
+	}
+
+	/**
+	 * Check whether an element starts a page. The first page class found is
+	 * used for the rest of the document, so nested elements with other page
+	 * classes are not counted.
+	 */
+	private boolean isPageStart(Attributes atts) {
+		final String elementClass = atts.getValue(CLASS_ATTRIBUTE);
+		if (pageClass == null) {
+			for (String candidate : PAGE_CLASSES) {
+				if (candidate.equals(elementClass)) {
+					pageClass = candidate;
+					return true;
+				}
+			}
+			return false;
+		}
+		return pageClass.equals(elementClass);
+	}
+
+	private boolean isWriting() {
+		return page == 0 || range.contains(page);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (isWriting()) {
+			super.characters(ch, start, length);
+		}
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		if (isWriting()) {
+			super.ignorableWhitespace(ch, start, length);
+		}
+	}
+
+	/**
+	 * @return the pages whose text was passed on, as a range such as
+	 * <code>2-5</code>; an empty string if the document's pages all fell outside
+	 * the range; or <code>null</code> if the document has no pages.
+	 */
+	String getPagesReturned() {
+		if (pageClass == null) {
+			return null;
+		}
+		return firstReturned == 0 ? "" : firstReturned + "-" + lastReturned;
+	}
+
+	/**
+	 * Check whether an exception thrown by the parser was caused by this
+	 * handler stopping the parse after the last page in the range.
+	 * @param t the exception.
+	 * @return <code>true</code> if the parse was stopped by this handler.
+	 */
+	boolean isRangeComplete(Throwable t) {
+		while (t != null) {
+			if (t instanceof RangeCompleteException && ((RangeCompleteException) t).handler == this) {
+				return true;
+			}
+			t = t.getCause();
+		}
+		return false;
+	}
+
+
+	/**
+	 * Exception used to stop the parse, identifying the handler which threw it.
+	 */
+	private static class RangeCompleteException extends SAXException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient PageRangeContentHandler handler;
+
+		RangeCompleteException(PageRangeContentHandler handler) {
+			super("Page range complete");
+			this.handler = handler;
+		}
+	}
+
+}
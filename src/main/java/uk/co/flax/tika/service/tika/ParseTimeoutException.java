@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.mime.MediaType;
+
+/**
+ * Exception thrown when a document takes too long to parse.
+ *
+ * @author mlp
+ */
+public class ParseTimeoutException extends TikaException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ParseTimeoutException(MediaType type, Throwable cause) {
+		super("Timed out parsing " + type + " document", cause);
+	}
+
+}
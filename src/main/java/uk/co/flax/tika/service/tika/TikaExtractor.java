@@ -15,29 +15,33 @@
  */
 package uk.co.flax.tika.service.tika;
 
-import org.apache.tika.config.TikaConfig;
-import org.apache.tika.detect.Detector;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TemporaryResources;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.TikaMetadataKeys;
-import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.RecursiveParserWrapper;
 import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
-import java.io.BufferedInputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -57,112 +61,417 @@ public class TikaExtractor {
 
 	private static final String FILE_NAME = "File-Name";
 
-	private final HttpHeaders headers;
-	private final HttpServletRequest request;
+	/** The path of the container document in a recursive extraction. */
+	public static final String ROOT_PATH = "/";
+
+	private final TikaParserRegistry registry;
+	private final ParseWatchdog watchdog;
+	private final ExtractionMetrics metrics;
+	private final InputStream input;
+	private final String opKey;
 	private final boolean requiresBody;
 
-	private final Metadata metadata = new Metadata();
+	private final Metadata metadata;
 	private String bodyText = null;
+	private String metricType = null;
+	private int maxCharacters;
+	private PageRange pageRange;
+	private boolean truncated;
+	private String pagesReturned;
+	private boolean inputConsumed;
+
+	/**
+	 * Create a new extractor for a single document.
+	 * @param registry the shared parser registry.
+	 * @param headers the request headers, used to set the initial document metadata.
+	 * @param input the document content. This is not closed by the extractor.
+	 * @param opKey the operation being carried out.
+	 */
+	public TikaExtractor(TikaParserRegistry registry, HttpHeaders headers, InputStream input, String opKey) {
+		this(registry, buildMetadata(headers), input, opKey);
+	}
+
+	/**
+	 * Create a new extractor for a single document.
+	 * @param registry the shared parser registry.
+	 * @param metadata the initial document metadata, which will be modified
+	 *                 during extraction.
+	 * @param input the document content. This is not closed by the extractor.
+	 * @param opKey the operation being carried out.
+	 */
+	public TikaExtractor(TikaParserRegistry registry, Metadata metadata, InputStream input, String opKey) {
+		this(registry, null, null, metadata, input, opKey);
+	}
 
-	public TikaExtractor(HttpHeaders headers, HttpServletRequest request, String opKey) {
-		this.headers = headers;
-		this.request = request;
+	/**
+	 * Create a new extractor for a single document, whose parse will be
+	 * stopped if it runs for too long.
+	 * @param registry the shared parser registry.
+	 * @param watchdog the parse watchdog, or <code>null</code> if parses
+	 *                 should not time out.
+	 * @param metrics the extraction metrics, or <code>null</code> if the
+	 *                extraction should not be measured.
+	 * @param metadata the initial document metadata, which will be modified
+	 *                 during extraction.
+	 * @param input the document content. This is not closed by the extractor. If
+	 *              it is a {@link TikaInputStream} backed by a file, the parsers
+	 *              may read the file directly.
+	 * @param opKey the operation being carried out.
+	 */
+	public TikaExtractor(TikaParserRegistry registry, ParseWatchdog watchdog, ExtractionMetrics metrics,
+						 Metadata metadata, InputStream input, String opKey) {
+		this.registry = registry;
+		this.watchdog = watchdog;
+		this.metrics = metrics;
+		this.metadata = metadata;
+		this.input = input;
+		this.opKey = opKey;
 		this.requiresBody = (opKey.equalsIgnoreCase(TEXT_OPKEY) || opKey.equalsIgnoreCase(FULLDATA_OPKEY));
 	}
 
+	/**
+	 * Limit the amount of text extracted from the document. Once the limit is
+	 * reached, the parse is stopped, and the document is marked as truncated.
+	 * @param maxCharacters the maximum number of characters to extract, or
+	 *                      0 if the text should not be limited.
+	 */
+	public void setMaxCharacters(int maxCharacters) {
+		this.maxCharacters = maxCharacters;
+	}
+
+	/**
+	 * Limit the text extracted from the document to a range of pages, for
+	 * PDF documents and PowerPoint presentations. Once the last page in the
+	 * range has been extracted, the parse is stopped. Documents without pages
+	 * are extracted in full. Only the text is limited - the metadata is that
+	 * of the whole document.
+	 * @param pageRange the pages to extract, or <code>null</code> to extract
+	 *                  the whole document.
+	 */
+	public void setPageRange(PageRange pageRange) {
+		this.pageRange = pageRange;
+	}
+
 	/**
 	 * Extract the data from the HTTP request. The data can then be retrieved using
 	 * {@link #getMetadata()}, {@link #getMetadataAsMap()}, and {@link #getBodyText()}.
+	 * If only the metadata is required, the parse stops at the start of the document
+	 * body for types whose metadata is complete by then (see {@link MetadataContentHandler}).
 	 * @throws IOException if there are problems reading the body content.
-	 * @throws TikaException if Tika has problems extracting the metadata or content.
+	 * @throws TikaException if Tika has problems extracting the metadata or content,
+	 * including a {@link ParseTimeoutException} if the parse times out.
 	 * @throws SAXException if the body content cannot be parsed.
 	 */
 	public void extract() throws IOException, TikaException, SAXException {
-		final Detector detector = buildDetectorFromHeaders(headers);
-		final AutoDetectParser parser = new AutoDetectParser(detector);
-		final ParseContext context = new ParseContext();
-		context.set(Parser.class, parser);
-
-		setMetadataFromHeader(parser, metadata, headers);
-
 		StringWriter textBuffer = new StringWriter();
-		ContentHandler handler = buildContentHandler(textBuffer);
+		if (requiresBody) {
+			final WriteOutContentHandler limitHandler = buildLimitHandler(textBuffer);
+			parseBody(limitHandler);
+		} else {
+			final MetadataContentHandler metadataHandler =
+					new MetadataContentHandler(registry.getConfig().getMediaTypeRegistry(), metadata);
+			parse(metadataHandler, null, metadataHandler, null, null);
+		}
 
-		parser.parse(new BufferedInputStream(request.getInputStream()), handler, metadata, context);
 		bodyText = textBuffer.toString();
+		if (metricType != null) {
+			metrics.recordOutput(metricType, bodyText.length());
+		}
+	}
+
+	/**
+	 * Extract the body text from the document, writing it to the given writer as
+	 * the parser produces it. The text is not held by the extractor, so
+	 * {@link #getBodyText()} will return <code>null</code> afterwards; the metadata
+	 * is available as usual.
+	 * @param writer the writer to receive the text. This is not flushed or closed.
+	 * @throws IOException if there are problems reading the body content or writing
+	 * the text.
+	 * @throws TikaException if Tika has problems extracting the metadata or content,
+	 * including a {@link ParseTimeoutException} if the parse times out.
+	 * @throws SAXException if the body content cannot be parsed.
+	 */
+	public void extractText(Writer writer) throws IOException, TikaException, SAXException {
+		final CountingWriter counter = (metrics == null ? null : new CountingWriter(writer));
+		final WriteOutContentHandler limitHandler = buildLimitHandler(counter == null ? writer : counter);
+
+		parseBody(limitHandler);
+		if (counter != null) {
+			metrics.recordOutput(metricType, counter.getCount());
+		}
 	}
 
-	private Detector buildDetectorFromHeaders(HttpHeaders headers) throws IOException, TikaException {
-		final MediaType mediaType = headers.getMediaType();
-		if (mediaType == null || mediaType.equals(MediaType.APPLICATION_OCTET_STREAM_TYPE))
-			return (new TikaConfig()).getMimeRepository();
-		else
-			return new Detector() {
-				private static final long serialVersionUID = 1L;
+	/**
+	 * Extract the data from the document and each of the documents embedded in
+	 * it, such as email attachments or the files in an archive, passing each one
+	 * to the sink as a separate document as soon as it has been extracted. The
+	 * embedded documents are passed to the sink before their containers, and the
+	 * outer document, whose path is {@link #ROOT_PATH}, is passed last; its text
+	 * does not include the text of the embedded documents. The character limit
+	 * applies to each document separately. Embedded documents which cannot be
+	 * parsed are passed to the sink as error documents, without stopping the
+	 * extraction.
+	 * <p>
+	 * Documents nested more deeply than <code>maxDepth</code>, or beyond the first
+	 * <code>maxDocuments</code>, are skipped, and the outer document's metadata
+	 * records that the limit was reached.
+	 * @param sink the sink receiving the extracted documents.
+	 * @param maxDepth the maximum nesting depth of the embedded documents, where
+	 *                 the outer document's own attachments have depth 1.
+	 * @param maxDocuments the maximum number of embedded documents to extract.
+	 * @throws IOException if there are problems reading the content, or passing
+	 * the documents to the sink.
+	 * @throws TikaException if Tika has problems extracting the outer document,
+	 * including a {@link ParseTimeoutException} if the parse times out.
+	 * @throws SAXException if the outer document cannot be parsed.
+	 */
+	public void extractRecursive(DocumentSink sink, int maxDepth, int maxDocuments)
+			throws IOException, TikaException, SAXException {
+		final StringWriter textBuffer = new StringWriter();
+		final EmbeddedDocumentRecorder recorder = new EmbeddedDocumentRecorder(registry.getParser(), sink, opKey,
+				requiresBody, maxCharacters, maxDepth, maxDocuments);
+		if (requiresBody) {
+			final WriteOutContentHandler limitHandler = buildLimitHandler(textBuffer);
+			parse(new BodyContentHandler(limitHandler), limitHandler, null, null, recorder);
+		} else {
+			// The embedded documents may be anywhere in the body, so it is parsed in full
+			parse(new DefaultHandler(), null, null, null, recorder);
+		}
+		recorder.checkSink();
+
+		if (recorder.isLimitReached()) {
+			metadata.set(RecursiveParserWrapper.EMBEDDED_RESOURCE_LIMIT_REACHED, "true");
+		}
+		bodyText = (requiresBody ? textBuffer.toString() : null);
+		if (metricType != null && requiresBody) {
+			metrics.recordOutput(metricType, bodyText.length());
+		}
+		sink.add(buildDocument().withPath(ROOT_PATH));
+	}
+
+	/**
+	 * Detect the document type without parsing it, using the declared type and
+	 * file name as a full extraction would, and the magic bytes at the start of
+	 * the content. Only as much of the content as the MIME repository's magic
+	 * patterns can examine is read. The type is set in the document metadata.
+	 * @return the document type.
+	 * @throws IOException if there are problems reading the content.
+	 */
+	public org.apache.tika.mime.MediaType detect() throws IOException {
+		final long start = System.nanoTime();
+		final int prefixLength = registry.getConfig().getMimeRepository().getMinLength();
+		final byte[] prefix = ByteStreams.toByteArray(ByteStreams.limit(input, prefixLength));
+		inputConsumed = (prefix.length < prefixLength);
+
+		final org.apache.tika.mime.MediaType type = registry.getDetector().detect(TikaInputStream.get(prefix), metadata);
+		metadata.set(CONTENT_TYPE, type.toString());
+		if (metrics != null) {
+			metricType = metrics.getMetricType(type);
+			metrics.recordDetection(metricType, System.nanoTime() - start);
+		}
+		return type;
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #detect()} read to the end of the
+	 * content, <code>false</code> if there may be more to read.
+	 */
+	public boolean isInputConsumed() {
+		return inputConsumed;
+	}
+
+	private WriteOutContentHandler buildLimitHandler(Writer writer) {
+		return new WriteOutContentHandler(writer, maxCharacters > 0 ? maxCharacters : -1);
+	}
+
+	private void parseBody(WriteOutContentHandler limitHandler) throws IOException, TikaException, SAXException {
+		if (pageRange == null) {
+			parse(new BodyContentHandler(limitHandler), limitHandler, null, null, null);
+		} else {
+			final PageRangeContentHandler pageHandler = new PageRangeContentHandler(limitHandler, pageRange);
+			parse(new BodyContentHandler(pageHandler), limitHandler, null, pageHandler, null);
+			pagesReturned = pageHandler.getPagesReturned();
+		}
+	}
+
+	private void parse(ContentHandler handler, WriteOutContentHandler limitHandler,
+					   MetadataContentHandler metadataHandler, PageRangeContentHandler pageHandler,
+					   EmbeddedDocumentRecorder recorder) throws IOException, TikaException, SAXException {
+		final TemporaryResources tmp = new TemporaryResources();
+		final ParseWatchdog.Watch watch = (watchdog == null ? null : watchdog.newWatch());
+		final TikaInputStream stream;
+		final CountingInputStream counter;
+		if (isFileBacked(input)) {
+			// Let the parsers read the file directly - the parse is still stopped
+			// on timeout by interrupting it and failing its output
+			stream = (TikaInputStream) input;
+			counter = null;
+		} else {
+			counter = (metrics == null ? null : new CountingInputStream(input));
+			final InputStream source = (counter == null ? input : counter);
+			stream = TikaInputStream.get(watch == null ? source : watch.watch(source), tmp);
+		}
+		try {
+			org.apache.tika.mime.MediaType type = null;
+			if (watch != null || metrics != null) {
+				// Detect the type first to choose the timeout - the parser's detector will use it as given
+				final long start = System.nanoTime();
+				type = registry.getDetector().detect(stream, metadata);
+				metadata.set(CONTENT_TYPE, type.toString());
+				if (metrics != null) {
+					metricType = metrics.getMetricType(type);
+					metrics.recordDetection(metricType, System.nanoTime() - start);
+				}
+				if (watch != null) {
+					watch.start(type);
+				}
+			}
+
+			final ParseContext context = registry.buildParseContext();
+			if (metadataHandler != null) {
+				metadataHandler.configure(context);
+			}
+			if (pageHandler != null) {
+				pageHandler.configure(context);
+			}
+			if (recorder != null) {
+				recorder.configure(context, watch);
+			}
 
-				@Override
-				public org.apache.tika.mime.MediaType detect(InputStream inputStream,
-															 Metadata metadata) throws IOException {
-					return org.apache.tika.mime.MediaType.parse(mediaType.toString());
+			final long start = System.nanoTime();
+			boolean stopped = false;
+			try {
+				registry.getParser().parse(stream, watch == null ? handler : watch.watch(handler), metadata, context);
+			} catch (IOException | TikaException | SAXException e) {
+				if (limitHandler != null && limitHandler.isWriteLimitReached(e)) {
+					// Stopped deliberately - keep the text extracted so far
+					truncated = true;
+					stopped = true;
+				} else if (metadataHandler != null && metadataHandler.isBodyStarted(e)) {
+					// Stopped deliberately - the metadata is complete
+					stopped = true;
+				} else if (pageHandler != null && pageHandler.isRangeComplete(e)) {
+					// Stopped deliberately - the requested pages have been extracted
+					stopped = true;
+				} else if (watch != null && watch.isExpired()) {
+					throw new ParseTimeoutException(type, e);
+				} else {
+					throw e;
 				}
-			};
+			}
+			// Some parsers swallow errors, so the output may be incomplete
+			if (watch != null && watch.isExpired() && !stopped) {
+				throw new ParseTimeoutException(type, null);
+			}
+			if (metrics != null) {
+				metrics.recordParse(metricType, System.nanoTime() - start,
+						counter == null ? stream.getLength() : counter.getCount());
+			}
+		} finally {
+			if (watch != null) {
+				watch.close();
+			}
+			tmp.dispose();
+		}
+	}
+
+	private static boolean isFileBacked(InputStream input) {
+		return TikaInputStream.isTikaInputStream(input) && ((TikaInputStream) input).hasFile();
 	}
 
 	/**
-	 * Read the metadata from the request headers and add them to a Tika metadata
-	 * object.
+	 * Read the metadata from the request headers into a new Tika metadata
+	 * object. A declared content type is picked up by the registry's detector
+	 * in preference to detecting the type from the content.
 	 *
-	 * @param parser the parser for the incoming document.
-	 * @param metadata the metadata object, which will be modified by this method.
 	 * @param httpHeaders the request headers.
+	 * @return the initial metadata for the document.
 	 */
-	private void setMetadataFromHeader(AutoDetectParser parser, Metadata metadata, HttpHeaders httpHeaders) {
+	public static Metadata buildMetadata(HttpHeaders httpHeaders) {
 		final MultivaluedMap<String, String> headers = httpHeaders.getRequestHeaders();
 
+		final Metadata metadata = buildMetadata(headers.getFirst(FILE_NAME), httpHeaders.getMediaType());
 		if (headers.containsKey(CONTENT_LENGTH)) {
 			metadata.set(CONTENT_LENGTH, headers.getFirst(CONTENT_LENGTH));
 		}
 
-		if (headers.containsKey(FILE_NAME)) {
-			metadata.set(TikaMetadataKeys.RESOURCE_NAME_KEY, headers.getFirst(FILE_NAME));
+		return metadata;
+	}
+
+	/**
+	 * Build the initial metadata for a document.
+	 * @param fileName the document's file name, or <code>null</code> if not known.
+	 * @param mediaType the declared type of the document, or <code>null</code>
+	 *                  if the type should be detected.
+	 * @return the initial metadata for the document.
+	 */
+	public static Metadata buildMetadata(String fileName, MediaType mediaType) {
+		final Metadata metadata = new Metadata();
+
+		if (fileName != null) {
+			metadata.set(TikaMetadataKeys.RESOURCE_NAME_KEY, fileName);
 		}
 
-		final MediaType mediaType = httpHeaders.getMediaType();
 		if (mediaType != null && !mediaType.equals(MediaType.APPLICATION_OCTET_STREAM_TYPE)) {
+			LOGGER.debug("Content type {}", mediaType);
 			metadata.add(CONTENT_TYPE, mediaType.toString());
+		}
 
-			final Detector detector = parser.getDetector();
-
-			parser.setDetector(new Detector() {
-				private static final long serialVersionUID = 1L;
-				@Override
-				public org.apache.tika.mime.MediaType detect(InputStream inputStream, Metadata metadata) throws IOException {
-					String ct = metadata.get(CONTENT_TYPE);
-					LOGGER.info("Content type " + ct);
-					org.apache.tika.mime.MediaType type = null;
-					// Make sure we never return null
-					if (ct != null) {
-						type = org.apache.tika.mime.MediaType.parse(ct);
-					}
-					if (type != null) {
-						return type;
-					} else {
-						return detector.detect(inputStream, metadata);
-					}
-				}
-			});
+		return metadata;
+	}
+
+	/**
+	 * Find the type of a document from its declared content type and file name
+	 * alone, before its content has been read - to choose the extraction pool
+	 * for it, say.
+	 * @param registry the parser registry.
+	 * @param metadata the initial metadata for the document.
+	 * @return the declared type, or the type matching the file name, or
+	 * <code>application/octet-stream</code> if neither is known.
+	 */
+	public static org.apache.tika.mime.MediaType detectDeclaredType(TikaParserRegistry registry, Metadata metadata) {
+		try {
+			return registry.getDetector().detect(null, metadata);
+		} catch (IOException e) {
+			// Not reading any content, so should not happen
+			return org.apache.tika.mime.MediaType.OCTET_STREAM;
 		}
 	}
 
-	private ContentHandler buildContentHandler(StringWriter textBuffer) {
-		final ContentHandler handler;
-		if (requiresBody) {
-			handler = new BodyContentHandler(textBuffer);
+	/**
+	 * Build the response document for the operation, once the data has been
+	 * extracted - the metadata for {@link uk.co.flax.tika.resources.TikaResource#METADATA_OPKEY}
+	 * and {@link uk.co.flax.tika.resources.TikaResource#DETECT_OPKEY},
+	 * the body text for {@link uk.co.flax.tika.resources.TikaResource#TEXT_OPKEY}, and
+	 * both otherwise. The document is marked as truncated if the text reached the
+	 * character limit, and records the pages extracted if a page range was set.
+	 * @return the extracted document.
+	 */
+	public TikaDocument buildDocument() {
+		final TikaDocument ret = buildDocument(opKey, metadata, getBodyText(), truncated);
+		return pagesReturned == null ? ret : ret.withPages(pagesReturned);
+	}
+
+	/**
+	 * Build the response document for an operation.
+	 * @param opKey the operation.
+	 * @param metadata the extracted metadata.
+	 * @param text the extracted text, or <code>null</code>.
+	 * @param truncated <code>true</code> if the text reached the character limit.
+	 * @return the extracted document.
+	 */
+	static TikaDocument buildDocument(String opKey, Metadata metadata, String text, boolean truncated) {
+		final TikaDocument ret;
+
+		if (opKey.equalsIgnoreCase(METADATA_OPKEY) || opKey.equalsIgnoreCase(DETECT_OPKEY)) {
+			ret = new TikaDocument(toMap(metadata), null);
+		} else if (opKey.equalsIgnoreCase(TEXT_OPKEY)) {
+			ret = new TikaDocument(null, text);
 		} else {
-			handler = new DefaultHandler();
+			ret = new TikaDocument(toMap(metadata), text);
 		}
 
-		return handler;
+		return truncated ? ret.withTruncated() : ret;
 	}
 
 	/**
@@ -173,6 +482,23 @@ public class TikaExtractor {
 		return bodyText;
 	}
 
+	/**
+	 * @return <code>true</code> if the parse was stopped at the character limit,
+	 * before the end of the document.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return the pages whose text was extracted, as a range such as <code>2-5</code>;
+	 * an empty string if the document's pages were all outside the page range; or
+	 * <code>null</code> if no page range was set, or the document has no pages.
+	 */
+	public String getPagesReturned() {
+		return pagesReturned;
+	}
+
 	/**
 	 * @return the metadata extracted from the document.
 	 */
@@ -184,6 +510,10 @@ public class TikaExtractor {
 	 * @return the metadata from the document, converted to a Map.
 	 */
 	public Map<String, Object> getMetadataAsMap() {
+		return toMap(metadata);
+	}
+
+	private static Map<String, Object> toMap(Metadata metadata) {
 		final Map<String, Object> retMap = new HashMap<>();
 
 		for (String name : metadata.names()) {
@@ -197,4 +527,52 @@ public class TikaExtractor {
 		return retMap;
 	}
 
+
+	/**
+	 * Receives the documents extracted by {@link #extractRecursive(DocumentSink, int, int)}.
+	 */
+	public interface DocumentSink {
+
+		/**
+		 * @param document an extracted document, with its path set.
+		 * @throws IOException if the document cannot be accepted, which stops
+		 * the extraction.
+		 */
+		void add(TikaDocument document) throws IOException;
+	}
+
+	/**
+	 * Writer which counts the characters written through it.
+	 */
+	private static class CountingWriter extends FilterWriter {
+
+		private long count;
+
+		CountingWriter(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			super.write(c);
+			count++;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			super.write(cbuf, off, len);
+			count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			super.write(str, off, len);
+			count += len;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
 }
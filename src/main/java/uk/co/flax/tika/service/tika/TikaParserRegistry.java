@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.apache.tika.metadata.HttpHeaders.CONTENT_TYPE;
+
+/**
+ * Application-scoped holder for the Tika configuration, parser and
+ * detector. Loading a {@link TikaConfig} scans the service loader and
+ * reads the MIME repository, so this should be built once at startup
+ * and shared between requests.
+ * <p>
+ * The parser and detector returned are never modified after construction,
+ * and are safe to use from multiple threads.
+ *
+ * @author mlp
+ */
+public class TikaParserRegistry {
+
+	private final TikaConfig config;
+	private final Detector detector;
+	private final AutoDetectParser parser;
+
+	/**
+	 * Build a registry using the default Tika configuration.
+	 * @throws IOException if the configuration cannot be read.
+	 * @throws TikaException if the configuration is invalid.
+	 */
+	public TikaParserRegistry() throws IOException, TikaException {
+		this(new TikaConfig());
+	}
+
+	public TikaParserRegistry(TikaConfig config) {
+		this.config = config;
+		this.detector = new DeclaredTypeDetector(config.getMimeRepository());
+		this.parser = new AutoDetectParser(config);
+		this.parser.setDetector(detector);
+	}
+
+	/**
+	 * @return the Tika configuration used to build the parser and detector.
+	 */
+	public TikaConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return the shared detector. This returns the content type set in the
+	 * document metadata, if there is one, and falls back to detection using
+	 * the MIME repository otherwise.
+	 */
+	public Detector getDetector() {
+		return detector;
+	}
+
+	/**
+	 * @return the shared auto-detecting parser.
+	 */
+	public AutoDetectParser getParser() {
+		return parser;
+	}
+
+	/**
+	 * Build a new parse context for a single document, using the shared parser
+	 * for any embedded documents.
+	 * @return a new parse context.
+	 */
+	public ParseContext buildParseContext() {
+		final ParseContext context = new ParseContext();
+		context.set(Parser.class, parser);
+		return context;
+	}
+
+
+	/**
+	 * Detector which trusts the content type passed in the document metadata
+	 * (ie. from the request headers, or from the container of an embedded
+	 * document), only falling back to the delegate detector when none has been
+	 * given, or the type given is <code>application/octet-stream</code>.
+	 */
+	static class DeclaredTypeDetector implements Detector {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Detector delegate;
+
+		DeclaredTypeDetector(Detector delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public MediaType detect(InputStream inputStream, Metadata metadata) throws IOException {
+			String ct = metadata.get(CONTENT_TYPE);
+			MediaType type = null;
+			// Make sure we never return null
+			if (ct != null) {
+				type = MediaType.parse(ct);
+			}
+			// A generic binary type, as often declared for email attachments, says nothing
+			if (type != null && !MediaType.OCTET_STREAM.equals(type.getBaseType())) {
+				return type;
+			} else {
+				return delegate.detect(inputStream, metadata);
+			}
+		}
+	}
+
+}
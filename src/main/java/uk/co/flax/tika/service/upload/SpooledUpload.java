@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.upload;
+
+import com.google.common.hash.HashCode;
+import org.apache.tika.io.TikaInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An uploaded document which has been read in full, either into memory or,
+ * if it is large, into a temporary file. Closing the upload closes any
+ * streams opened on it, and deletes its file.
+ *
+ * @author mlp
+ */
+public class SpooledUpload implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SpooledUpload.class);
+
+	private final byte[] content;
+	private final File file;
+	private final long length;
+	private final HashCode hash;
+	private final AtomicLong inFlightBytes;
+
+	private final List<InputStream> streams = new ArrayList<>();
+	private boolean closed;
+
+	/**
+	 * @param content the upload content.
+	 * @param hash the hash of the content, or <code>null</code>.
+	 * @param inFlightBytes the total size of the open uploads, which this
+	 *                      upload is added to until it is closed.
+	 */
+	SpooledUpload(byte[] content, HashCode hash, AtomicLong inFlightBytes) {
+		this.content = content;
+		this.file = null;
+		this.length = content.length;
+		this.hash = hash;
+		this.inFlightBytes = inFlightBytes;
+		inFlightBytes.addAndGet(length);
+	}
+
+	/**
+	 * @param file the temporary file holding the upload.
+	 * @param hash the hash of the content, or <code>null</code>.
+	 * @param inFlightBytes the total size of the open uploads, which this
+	 *                      upload is added to until it is closed.
+	 */
+	SpooledUpload(File file, HashCode hash, AtomicLong inFlightBytes) {
+		this.content = null;
+		this.file = file;
+		this.length = file.length();
+		this.hash = hash;
+		this.inFlightBytes = inFlightBytes;
+		inFlightBytes.addAndGet(length);
+	}
+
+	/**
+	 * @return the length of the upload, in bytes.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the SHA-256 hash of the upload, or <code>null</code> if it was
+	 * not hashed.
+	 */
+	public HashCode getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return <code>true</code> if the upload has been written to a temporary file.
+	 */
+	public boolean isOnDisk() {
+		return file != null;
+	}
+
+	/**
+	 * Open a stream reading the upload. For uploads held on disk, this is a
+	 * {@link TikaInputStream} backed by the temporary file, so parsers of
+	 * random access formats, such as PDF and ZIP-based files, can read the
+	 * file directly rather than copying the stream. The stream is closed
+	 * when the upload is closed.
+	 * @return a new stream reading the upload from the start.
+	 * @throws IOException if the temporary file cannot be opened.
+	 */
+	public synchronized InputStream getInputStream() throws IOException {
+		final InputStream ret = (file == null ? TikaInputStream.get(content) : TikaInputStream.get(file.toPath()));
+		streams.add(ret);
+		return ret;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (!closed) {
+			closed = true;
+			inFlightBytes.addAndGet(-length);
+		}
+
+		for (InputStream stream : streams) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				LOGGER.warn("Cannot close upload stream: {}", e.getMessage());
+			}
+		}
+		streams.clear();
+
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file.toPath());
+			} catch (IOException e) {
+				LOGGER.warn("Cannot delete upload file {}: {}", file, e.getMessage());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.upload;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.flax.tika.config.UploadConfiguration;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Reads uploaded documents in full before they are parsed, either from a
+ * stream or written as they arrive. Uploads up to the memory threshold are
+ * held in memory; larger ones, or those which turn out to be larger than
+ * their declared length suggested, are written to a temporary file.
+ * <p>
+ * Parsers for random access formats, such as PDF and the ZIP-based Office
+ * formats, either copy a plain stream into memory or spool it to a file of
+ * their own. Spooling large uploads once, here, lets them read the file
+ * directly. Temporary files are deleted when their upload is closed, and
+ * any left behind by a crash are deleted at startup if a dedicated
+ * directory is configured.
+ *
+ * @author mlp
+ */
+public class UploadSpooler implements Managed {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(UploadSpooler.class);
+
+	static final String FILE_PREFIX = "tika-upload-";
+	private static final String FILE_SUFFIX = ".tmp";
+	private static final int CHUNK_SIZE = 8192;
+
+	private final long memoryThreshold;
+	private final long maxUploadSize;
+	private final int maxBatchDocuments;
+	private final long maxBatchSize;
+	private final File directory;
+	private final Meter memoryUploads;
+	private final Meter diskUploads;
+	private final AtomicLong inFlightBytes = new AtomicLong();
+
+	public UploadSpooler(UploadConfiguration config, MetricRegistry metrics) {
+		this.memoryThreshold = config.getMemoryThreshold().toBytes();
+		this.maxUploadSize = config.getMaxUploadSize().toBytes();
+		this.maxBatchDocuments = config.getMaxBatchDocuments();
+		this.maxBatchSize = config.getMaxBatchSize().toBytes();
+		this.directory = (config.getTempDirectory() == null ? null : new File(config.getTempDirectory()));
+		this.memoryUploads = metrics.meter(name(UploadSpooler.class, "memory"));
+		this.diskUploads = metrics.meter(name(UploadSpooler.class, "disk"));
+		metrics.register(name(UploadSpooler.class, "in-flight-bytes"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return getInFlightBytes();
+			}
+		});
+	}
+
+	@Override
+	public void start() throws IOException {
+		if (directory != null) {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Cannot create upload directory " + directory);
+			}
+
+			final File[] leftovers = directory.listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+				}
+			});
+			if (leftovers != null && leftovers.length > 0) {
+				LOGGER.info("Deleting {} upload files left by a previous run", leftovers.length);
+				for (File file : leftovers) {
+					if (!file.delete()) {
+						LOGGER.warn("Cannot delete upload file {}", file);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	/**
+	 * Read an upload, holding it in memory or writing it to a temporary file
+	 * depending on its size. Uploads declared to be larger than the maximum
+	 * size are refused without being read; those which turn out to be larger
+	 * are refused once the maximum has been read, and their temporary file
+	 * deleted.
+	 * @param input the upload content. This is read to the end, but not closed.
+	 * @param contentLength the declared length of the upload, or -1 if not
+	 *                      known. Uploads declared to be larger than the
+	 *                      threshold are written straight to disk.
+	 * @param hash <code>true</code> if the upload should be hashed as it is read.
+	 * @return the upload, which must be closed once it has been parsed.
+	 * @throws UploadTooLargeException if the upload is larger than the maximum
+	 * size.
+	 * @throws IOException if the upload cannot be read, or the temporary file
+	 * cannot be written.
+	 */
+	public SpooledUpload spool(InputStream input, long contentLength, boolean hash) throws IOException {
+		return spool(input, contentLength, hash, maxUploadSize);
+	}
+
+	/**
+	 * Read an upload, refusing it if it is larger than the given size rather
+	 * than the maximum upload size - as for a document in a batch, which is
+	 * also limited by the space left in the batch.
+	 * @param input the upload content. This is read to the end, but not closed.
+	 * @param contentLength the declared length of the upload, or -1 if not
+	 *                      known.
+	 * @param hash <code>true</code> if the upload should be hashed as it is read.
+	 * @param maxSize the size of the largest upload accepted, in bytes.
+	 * @return the upload, which must be closed once it has been parsed.
+	 * @throws UploadTooLargeException if the upload is larger than the given
+	 * size.
+	 * @throws IOException if the upload cannot be read, or the temporary file
+	 * cannot be written.
+	 */
+	public SpooledUpload spool(InputStream input, long contentLength, boolean hash, long maxSize)
+			throws IOException {
+		try (UploadWriter writer = open(contentLength, hash, maxSize)) {
+			final byte[] chunk = new byte[CHUNK_SIZE];
+			int read;
+			while ((read = input.read(chunk)) >= 0) {
+				writer.write(chunk, 0, read);
+			}
+			return writer.finish();
+		}
+	}
+
+	/**
+	 * Start an upload whose content will be written to it as it arrives, as
+	 * when the request body is read without blocking.
+	 * @param contentLength the declared length of the upload, or -1 if not
+	 *                      known. Uploads declared to be larger than the
+	 *                      threshold are written straight to disk.
+	 * @param hash <code>true</code> if the upload should be hashed as it is written.
+	 * @param maxSize the size of the largest upload accepted, in bytes.
+	 * @return the writer, which must be closed if it is not finished.
+	 * @throws UploadTooLargeException if the declared length is larger than
+	 * the given size.
+	 * @throws IOException if the temporary file cannot be created.
+	 */
+	public UploadWriter open(long contentLength, boolean hash, long maxSize) throws IOException {
+		if (contentLength > maxSize) {
+			throw new UploadTooLargeException(maxSize);
+		}
+		return new UploadWriter(contentLength, hash, maxSize);
+	}
+
+	/**
+	 * @return the size of the largest upload accepted, in bytes.
+	 */
+	public long getMaxUploadSize() {
+		return maxUploadSize;
+	}
+
+	/**
+	 * @return the largest number of documents accepted in one batch.
+	 */
+	public int getMaxBatchDocuments() {
+		return maxBatchDocuments;
+	}
+
+	/**
+	 * @return the largest total size of the documents accepted in one batch,
+	 * in bytes.
+	 */
+	public long getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @return the total size of the uploads which have been read, and not yet
+	 * closed - ie. the documents waiting to be parsed, or being parsed.
+	 */
+	public long getInFlightBytes() {
+		return inFlightBytes.get();
+	}
+
+
+	/**
+	 * An upload being written, held in memory until it passes the memory
+	 * threshold, and then written to a temporary file. Closing the writer
+	 * before it is finished deletes its file.
+	 */
+	public class UploadWriter implements Closeable {
+
+		private final long maxSize;
+		private final Hasher hasher;
+		private ByteArrayOutputStream buffer;
+		private File file;
+		private OutputStream out;
+		private long written;
+		private boolean finished;
+
+		UploadWriter(long contentLength, boolean hash, long maxSize) throws IOException {
+			this.maxSize = maxSize;
+			this.hasher = (hash ? Hashing.sha256().newHasher() : null);
+			if (contentLength > memoryThreshold) {
+				openFile();
+			} else {
+				buffer = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : CHUNK_SIZE);
+			}
+		}
+
+		/**
+		 * Add content to the upload.
+		 * @throws UploadTooLargeException if the upload is now larger than the
+		 * maximum size. The writer is closed.
+		 * @throws IOException if the temporary file cannot be written.
+		 */
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			if (written + length > maxSize) {
+				close();
+				throw new UploadTooLargeException(maxSize);
+			}
+
+			if (hasher != null) {
+				hasher.putBytes(bytes, offset, length);
+			}
+			if (out == null && written + length > memoryThreshold) {
+				// Longer than declared - write what we have, followed by the remainder
+				openFile();
+			}
+			(out == null ? buffer : out).write(bytes, offset, length);
+			written += length;
+		}
+
+		/**
+		 * Complete the upload.
+		 * @return the upload, which must be closed once it has been parsed.
+		 * @throws IOException if the temporary file cannot be written.
+		 */
+		public SpooledUpload finish() throws IOException {
+			final HashCode hash = (hasher == null ? null : hasher.hash());
+			final SpooledUpload ret;
+			if (out == null) {
+				ret = new SpooledUpload(buffer.toByteArray(), hash, inFlightBytes);
+				memoryUploads.mark();
+			} else {
+				out.close();
+				ret = new SpooledUpload(file, hash, inFlightBytes);
+				diskUploads.mark();
+			}
+			finished = true;
+			return ret;
+		}
+
+		@Override
+		public void close() {
+			if (!finished && file != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					LOGGER.warn("Cannot close upload file {}: {}", file, e.getMessage());
+				}
+				if (!file.delete()) {
+					LOGGER.warn("Cannot delete upload file {}", file);
+				}
+			}
+			finished = true;
+		}
+
+		private void openFile() throws IOException {
+			file = File.createTempFile(FILE_PREFIX, FILE_SUFFIX, directory);
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			if (buffer != null) {
+				buffer.writeTo(out);
+				buffer = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.upload;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when an upload is larger than the largest size accepted,
+ * either by its declared length or once it has been read that far.
+ *
+ * @author mlp
+ */
+public class UploadTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long maxSize;
+
+	public UploadTooLargeException(long maxSize) {
+		super("Upload is larger than the maximum size of " + maxSize + " bytes");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the largest upload accepted, in bytes.
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+}
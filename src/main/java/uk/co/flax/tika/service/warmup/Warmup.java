@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.warmup;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.WarmupConfiguration;
+import uk.co.flax.tika.service.fork.ForkWorkerPool;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static uk.co.flax.tika.resources.TikaResource.DETECT_OPKEY;
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+
+/**
+ * Warms the server up before it accepts requests, by extracting a built-in
+ * sample document for each configured format several times over. Without
+ * this, the first requests after a restart pay for loading the parser
+ * classes, scanning for services and running in the interpreter until the
+ * JIT compiler has caught up.
+ * <p>
+ * Managed objects are started before the server's connectors, so the
+ * warm-up holds back requests until it has finished. The samples are
+ * extracted in parallel, as they would be by the extraction pool, and written
+ * out as JSON. In fork mode they are sent to the worker processes. The time
+ * taken is reported as the <code>duration</code> gauge, and extractions
+ * which fail are counted, but do not stop the server starting.
+ *
+ * @author mlp
+ */
+public class Warmup implements Managed {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Warmup.class);
+
+	static final String SAMPLE_PREFIX = "/warmup/sample.";
+
+	private final WarmupConfiguration config;
+	private final TikaParserRegistry registry;
+	private final ForkWorkerPool forkPool;
+	private final ObjectMapper mapper;
+	private final Map<String, byte[]> samples = new LinkedHashMap<>();
+	private final Counter failures;
+
+	private volatile long durationMillis;
+
+	/**
+	 * @param config the warm-up configuration.
+	 * @param registry the parser registry.
+	 * @param forkPool the worker process pool, or <code>null</code> if documents
+	 *                 are parsed in the server.
+	 * @param mapper the mapper used to write responses.
+	 * @param metrics the metrics registry.
+	 * @throws IOException if a sample document cannot be read.
+	 * @throws IllegalArgumentException if there is no sample for a configured
+	 * format.
+	 */
+	public Warmup(WarmupConfiguration config, TikaParserRegistry registry, ForkWorkerPool forkPool,
+				  ObjectMapper mapper, MetricRegistry metrics) throws IOException {
+		this.config = config;
+		this.registry = registry;
+		this.forkPool = forkPool;
+		this.mapper = mapper;
+		for (String format : config.getFormats()) {
+			samples.put(format, readSample(format));
+		}
+
+		this.failures = metrics.counter(name(Warmup.class, "failures"));
+		metrics.register(name(Warmup.class, "duration"), new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				return durationMillis;
+			}
+		});
+	}
+
+	private static byte[] readSample(String format) throws IOException {
+		try (InputStream input = Warmup.class.getResourceAsStream(SAMPLE_PREFIX + format)) {
+			if (input == null) {
+				throw new IllegalArgumentException("No warm-up sample for format: " + format);
+			}
+			return ByteStreams.toByteArray(input);
+		}
+	}
+
+	@Override
+	public void start() throws Exception {
+		if (!config.isEnabled() || samples.isEmpty()) {
+			return;
+		}
+
+		final int threads = (config.getThreads() > 0 ? config.getThreads() : Runtime.getRuntime().availableProcessors());
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+				.setNameFormat("tika-warmup-%d")
+				.setDaemon(true)
+				.build());
+
+		// Each round extracts every sample, so all the formats are warmed early on
+		final List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < config.getIterations(); i++) {
+			for (Map.Entry<String, byte[]> sample : samples.entrySet()) {
+				tasks.add(buildTask(sample.getKey(), sample.getValue()));
+			}
+		}
+
+		final long start = System.nanoTime();
+		final List<Future<Void>> results;
+		try {
+			results = pool.invokeAll(tasks, config.getTimeout().toMilliseconds(), TimeUnit.MILLISECONDS);
+		} finally {
+			pool.shutdownNow();
+		}
+		durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		int completed = 0;
+		for (Future<Void> result : results) {
+			if (!result.isCancelled()) {
+				try {
+					result.get();
+					completed++;
+				} catch (ExecutionException e) {
+					failures.inc();
+					LOGGER.debug("Warm-up extraction failed: {}", e.getCause().getMessage());
+				}
+			}
+		}
+
+		if (completed + failures.getCount() < tasks.size()) {
+			LOGGER.warn("Warm-up timed out after {}ms, with {} of {} extractions complete",
+					durationMillis, completed, tasks.size());
+		} else {
+			LOGGER.info("Warmed up {} formats with {} extractions in {}ms ({} failed)",
+					samples.size(), tasks.size(), durationMillis, failures.getCount());
+		}
+	}
+
+	private Callable<Void> buildTask(final String format, final byte[] content) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				final String fileName = "sample." + format;
+				TikaExtractor.detectDeclaredType(registry, TikaExtractor.buildMetadata(fileName, null));
+				new TikaExtractor(registry, TikaExtractor.buildMetadata(fileName, null),
+						new ByteArrayInputStream(content), DETECT_OPKEY).detect();
+
+				final Metadata metadata = TikaExtractor.buildMetadata(fileName, null);
+				final TikaDocument document;
+				if (forkPool != null) {
+					document = forkPool.extract(FULLDATA_OPKEY, metadata, new ByteArrayInputStream(content), 0, null);
+				} else {
+					final TikaExtractor extractor = new TikaExtractor(registry, metadata,
+							new ByteArrayInputStream(content), FULLDATA_OPKEY);
+					extractor.extract();
+					document = extractor.buildDocument();
+				}
+				mapper.writeValueAsBytes(document);
+				return null;
+			}
+		};
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	/**
+	 * @return the time the warm-up took, in milliseconds.
+	 */
+	long getDurationMillis() {
+		return durationMillis;
+	}
+
+}
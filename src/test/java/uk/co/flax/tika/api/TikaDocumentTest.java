@@ -87,4 +87,32 @@ public class TikaDocumentTest {
 		assertThat(MAPPER.writeValueAsString(doc)).isEqualTo(expected);
 	}
 
+	@Test
+	public void truncatedDocumentTest() throws Exception {
+		final TikaDocument doc = new TikaDocument(null, "This is the text").withTruncated();
+
+		// Compared with the fixture itself, so the flag must be written
+		assertThat(MAPPER.readTree(MAPPER.writeValueAsString(doc)))
+				.isEqualTo(MAPPER.readTree(fixture("fixtures/truncatedDocument.json")));
+		assertThat(MAPPER.readValue(fixture("fixtures/truncatedDocument.json"), TikaDocument.class).isTruncated())
+				.isTrue();
+	}
+
+	@Test
+	public void pagesDocumentTest() throws Exception {
+		final TikaDocument doc = new TikaDocument(null, "This is the text of pages two and three").withPages("2-3");
+
+		assertThat(MAPPER.readTree(MAPPER.writeValueAsString(doc)))
+				.isEqualTo(MAPPER.readTree(fixture("fixtures/pagesDocument.json")));
+		assertThat(MAPPER.readValue(fixture("fixtures/pagesDocument.json"), TikaDocument.class).getPages())
+				.isEqualTo("2-3");
+	}
+
+	@Test
+	public void untruncatedDocumentIsNotFlagged() throws Exception {
+		final TikaDocument doc = new TikaDocument(null, "This is the text");
+
+		assertThat(MAPPER.readTree(MAPPER.writeValueAsString(doc)).get("truncated").asBoolean()).isFalse();
+	}
+
 }
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.auth;
+
+import com.google.common.base.Optional;
+import io.dropwizard.auth.basic.BasicCredentials;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the CredentialStore and HashedCredentialsAuthenticator.
+ *
+ * @author mlp
+ */
+public class CredentialStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void authenticate_checksHashedPasswords() throws Exception {
+		File file = folder.newFile();
+		write(file, 1000L, "# Test users", "", "fred:" + hash("pass"), "john:" + hash("john's password"));
+		HashedCredentialsAuthenticator auth = new HashedCredentialsAuthenticator(new CredentialStore(file.toPath()));
+
+		Optional<User> user = auth.authenticate(new BasicCredentials("fred", "pass"));
+		assertThat(user.isPresent()).isTrue();
+		assertThat(user.get().getName()).isEqualTo("fred");
+		assertThat(user.get().isAuthenticated()).isTrue();
+
+		assertThat(auth.authenticate(new BasicCredentials("john", "pass")).isPresent()).isFalse();
+		assertThat(auth.authenticate(new BasicCredentials("bill", "pass")).isPresent()).isFalse();
+	}
+
+	@Test
+	public void reloadIfChanged_replacesUsers() throws Exception {
+		File file = folder.newFile();
+		write(file, 1000L, "fred:" + hash("pass"));
+		CredentialStore store = new CredentialStore(file.toPath());
+		assertThat(store.reloadIfChanged()).isFalse();
+
+		write(file, 2000L, "john:" + hash("pass"));
+		assertThat(store.reloadIfChanged()).isTrue();
+		assertThat(store.verify("fred", "pass")).isFalse();
+		assertThat(store.verify("john", "pass")).isTrue();
+
+		// An invalid file is not loaded
+		write(file, 3000L, "fred:" + hash("pass"), "bill");
+		assertThat(store.reloadIfChanged()).isFalse();
+		assertThat(store.verify("john", "pass")).isTrue();
+		assertThat(store.size()).isEqualTo(1);
+	}
+
+	@Test(expected = IOException.class)
+	public void constructor_rejectsInvalidHash() throws Exception {
+		File file = folder.newFile();
+		write(file, 1000L, "fred:pass");
+		new CredentialStore(file.toPath());
+	}
+
+	private static String hash(String password) {
+		return PasswordHash.create(password.toCharArray(), 1000).toString();
+	}
+
+	private static void write(File file, long modified, String... lines) throws IOException {
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		// Set the modification time, so changes are seen within the file system's time resolution
+		assertThat(file.setLastModified(modified)).isTrue();
+	}
+
+}
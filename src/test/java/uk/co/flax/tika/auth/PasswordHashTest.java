@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.auth;
+
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for the PasswordHash.
+ *
+ * @author mlp
+ */
+public class PasswordHashTest {
+
+	@Test
+	public void matches_checksPasswordAfterEncoding() {
+		PasswordHash hash = PasswordHash.create("secret".toCharArray(), 1000);
+		PasswordHash parsed = PasswordHash.parse(hash.toString());
+
+		assertThat(hash.toString()).startsWith("pbkdf2-sha256:1000:");
+		assertThat(parsed).isEqualTo(hash);
+		assertThat(parsed.matches("secret")).isTrue();
+		assertThat(parsed.matches("Secret")).isFalse();
+		assertThat(parsed.matches("")).isFalse();
+
+		// Each hash has its own salt
+		assertThat(PasswordHash.create("secret".toCharArray(), 1000)).isNotEqualTo(hash);
+	}
+
+	@Test
+	public void parse_rejectsInvalidHashes() {
+		for (String invalid : new String[]{ "secret", "md5:1000:c2FsdA==:aGFzaA==", "pbkdf2-sha256:x:c2FsdA==:aGFzaA==",
+				"pbkdf2-sha256:1000:c2FsdA==:aGFzaA==", "pbkdf2-sha256:1000:c2FsdA==" }) {
+			try {
+				PasswordHash.parse(invalid);
+				fail("Expected " + invalid + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void parse_rejectsWeakHashes() {
+		String[] parts = PasswordHash.create("secret".toCharArray(), 1000).toString().split(":");
+		for (String weak : new String[]{ "pbkdf2-sha256:999:" + parts[2] + ":" + parts[3],
+				"pbkdf2-sha256:1000:" + BaseEncoding.base64().encode(new byte[15]) + ":" + parts[3] }) {
+			try {
+				PasswordHash.parse(weak);
+				fail("Expected " + weak + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void create_rejectsTooFewIterations() {
+		PasswordHash.create("secret".toCharArray(), 999);
+	}
+
+}
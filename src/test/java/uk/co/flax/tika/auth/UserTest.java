@@ -34,4 +34,10 @@ public class UserTest {
 		assertTrue(user2.isAuthenticated());
 	}
 
+	@Test
+	public void name() {
+		assertNull(new User(true).getName());
+		assertEquals("fred", new User("fred", true).getName());
+	}
+
 }
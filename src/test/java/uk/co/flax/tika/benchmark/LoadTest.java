@@ -0,0 +1,344 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import uk.co.flax.tika.TikaApplication;
+import uk.co.flax.tika.TikaConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test which starts the full application in-process, on ephemeral
+ * ports, and sends documents to it over HTTP, reporting the latency
+ * distribution and throughput, overall and for each document in the mix -
+ * so the effect of slow documents on fast ones can be seen, with and without
+ * extraction bulkheads.
+ * <p>
+ * With a <code>rate</code> set, requests arrive on a fixed schedule
+ * regardless of how quickly the server responds (an open loop), and each
+ * request's latency is measured from when it was due to be sent, so time
+ * spent waiting for a free client thread is included. Otherwise, each client
+ * thread sends its next request as soon as the last has finished.
+ * <p>
+ * Run from the test classpath, eg:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=uk.co.flax.tika.benchmark.LoadTest \
+ *     -Dexec.args="concurrency=16 rate=50 duration=60 mix=small.html:10,large.pdf:1"
+ * </pre>
+ * Arguments are given as <code>name=value</code> pairs:
+ * <ul>
+ *     <li><code>config</code> - the server configuration file (default <code>config/tika.yml</code>).</li>
+ *     <li><code>op</code> - the operation to request (default <code>fulldata</code>).</li>
+ *     <li><code>concurrency</code> - the number of client threads (default 8).</li>
+ *     <li><code>rate</code> - the arrival rate in requests per second, or 0 for a closed loop (default 0).</li>
+ *     <li><code>warmup</code> - the warm up time in seconds, which is not measured (default 10).</li>
+ *     <li><code>duration</code> - the measurement time in seconds (default 30).</li>
+ *     <li><code>corpus</code> - the directory holding the documents (default
+ *     <code>src/jmh/resources/corpus</code>).</li>
+ *     <li><code>mix</code> - the documents to send, as comma-separated <code>name:weight</code>
+ *     pairs (default every document in the corpus, with equal weights).</li>
+ * </ul>
+ *
+ * @author mlp
+ */
+public class LoadTest {
+
+	private static final Map<String, String> DEFAULTS = new HashMap<>();
+	static {
+		DEFAULTS.put("config", "config/tika.yml");
+		DEFAULTS.put("op", "fulldata");
+		DEFAULTS.put("concurrency", "8");
+		DEFAULTS.put("rate", "0");
+		DEFAULTS.put("warmup", "10");
+		DEFAULTS.put("duration", "30");
+		DEFAULTS.put("corpus", "src/jmh/resources/corpus");
+		DEFAULTS.put("mix", "");
+	}
+
+	/** Longest latency recorded, in microseconds. */
+	private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+	private final URL url;
+	private final DocumentMix mix;
+	private final int concurrency;
+	private final int rate;
+
+	private final Histogram latencies = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+	private final Map<String, Histogram> documentLatencies = new LinkedHashMap<>();
+	private final AtomicLong errors = new AtomicLong();
+	private final Map<Integer, AtomicLong> statuses = new HashMap<>();
+
+	LoadTest(URL url, DocumentMix mix, int concurrency, int rate) {
+		this.url = url;
+		this.mix = mix;
+		this.concurrency = concurrency;
+		this.rate = rate;
+		for (DocumentMix.Document document : mix.getDocuments()) {
+			documentLatencies.put(document.name, new ConcurrentHistogram(MAX_LATENCY_MICROS, 3));
+		}
+	}
+
+	public static void main(String... args) throws Exception {
+		final Map<String, String> options = parseArgs(args);
+		final DocumentMix mix = DocumentMix.load(new File(options.get("corpus")), options.get("mix"));
+
+		final DropwizardTestSupport<TikaConfiguration> app = new DropwizardTestSupport<>(TikaApplication.class,
+				new File(options.get("config")).getAbsolutePath(),
+				ConfigOverride.config("server.applicationConnectors[0].port", "0"),
+				ConfigOverride.config("server.adminConnectors[0].port", "0"));
+		app.before();
+		try {
+			final URL url = new URL("http://localhost:" + app.getLocalPort() + "/tika/" + options.get("op"));
+			final LoadTest test = new LoadTest(url, mix, Integer.parseInt(options.get("concurrency")),
+					Integer.parseInt(options.get("rate")));
+
+			System.out.println("Warming up for " + options.get("warmup") + "s");
+			test.run(Integer.parseInt(options.get("warmup")));
+			test.reset();
+
+			System.out.println("Measuring for " + options.get("duration") + "s: " + options);
+			final long elapsed = test.run(Integer.parseInt(options.get("duration")));
+			test.report(elapsed);
+		} finally {
+			app.after();
+		}
+	}
+
+	private static Map<String, String> parseArgs(String[] args) {
+		final Map<String, String> ret = new HashMap<>(DEFAULTS);
+		for (String arg : args) {
+			final int split = arg.indexOf('=');
+			if (split < 0 || !DEFAULTS.containsKey(arg.substring(0, split))) {
+				throw new IllegalArgumentException("Unknown argument " + arg + " - expected one of "
+						+ DEFAULTS.keySet() + " as name=value");
+			}
+			ret.put(arg.substring(0, split), arg.substring(split + 1));
+		}
+		return ret;
+	}
+
+	/**
+	 * Send requests for the given time.
+	 * @return the time taken, in nanoseconds, including waiting for
+	 * outstanding requests to finish.
+	 */
+	long run(int seconds) throws InterruptedException {
+		final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+		if (rate > 0) {
+			// Open loop - schedule requests at a fixed rate, queueing them if all the clients are busy
+			final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+			for (long due = start; due < end; due += interval) {
+				final long wait = due - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				final long intended = due;
+				clients.execute(new Runnable() {
+					@Override
+					public void run() {
+						send(intended);
+					}
+				});
+			}
+		} else {
+			for (int i = 0; i < concurrency; i++) {
+				clients.execute(new Runnable() {
+					@Override
+					public void run() {
+						while (System.nanoTime() < end) {
+							send(System.nanoTime());
+						}
+					}
+				});
+			}
+		}
+
+		clients.shutdown();
+		clients.awaitTermination(1, TimeUnit.HOURS);
+		return System.nanoTime() - start;
+	}
+
+	private void send(long intendedStart) {
+		final DocumentMix.Document document = mix.next();
+		try {
+			final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("PUT");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(document.content.length);
+			connection.setRequestProperty("File-Name", document.name);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(document.content);
+			}
+
+			final int status = connection.getResponseCode();
+			final InputStream in = (status < 400 ? connection.getInputStream() : connection.getErrorStream());
+			if (in != null) {
+				// Read the whole response, so the connection can be reused
+				try {
+					ByteStreams.copy(in, ByteStreams.nullOutputStream());
+				} finally {
+					in.close();
+				}
+			}
+			countStatus(status);
+		} catch (IOException e) {
+			errors.incrementAndGet();
+		}
+
+		final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+		latencies.recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+		documentLatencies.get(document.name).recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+	}
+
+	private synchronized void countStatus(int status) {
+		AtomicLong count = statuses.get(status);
+		if (count == null) {
+			count = new AtomicLong();
+			statuses.put(status, count);
+		}
+		count.incrementAndGet();
+	}
+
+	private synchronized void reset() {
+		latencies.reset();
+		for (Histogram histogram : documentLatencies.values()) {
+			histogram.reset();
+		}
+		errors.set(0);
+		statuses.clear();
+	}
+
+	private synchronized void report(long elapsedNanos) {
+		final long count = latencies.getTotalCount();
+		final double seconds = elapsedNanos / 1e9;
+
+		System.out.println();
+		System.out.printf("Requests: %d in %.1fs (%.1f/s), connection errors: %d, statuses: %s%n",
+				count, seconds, count / seconds, errors.get(), statuses);
+		System.out.printf("Latency (ms): p50 %.2f  p95 %.2f  p99 %.2f  p999 %.2f  max %.2f%n",
+				latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(95) / 1000.0,
+				latencies.getValueAtPercentile(99) / 1000.0, latencies.getValueAtPercentile(99.9) / 1000.0,
+				latencies.getMaxValue() / 1000.0);
+		System.out.println();
+
+		System.out.println("Latency by document (ms):");
+		for (Map.Entry<String, Histogram> entry : documentLatencies.entrySet()) {
+			final Histogram histogram = entry.getValue();
+			System.out.printf("  %-16s %7d requests  p50 %9.2f  p99 %9.2f  max %9.2f%n", entry.getKey(),
+					histogram.getTotalCount(), histogram.getValueAtPercentile(50) / 1000.0,
+					histogram.getValueAtPercentile(99) / 1000.0, histogram.getMaxValue() / 1000.0);
+		}
+		System.out.println();
+
+		// Full distribution in milliseconds, in the standard HdrHistogram format
+		latencies.outputPercentileDistribution(System.out, 1000.0);
+	}
+
+
+	/**
+	 * Weighted selection of documents, read into memory.
+	 */
+	static class DocumentMix {
+
+		private final List<Document> documents = new ArrayList<>();
+		private final List<Integer> cumulativeWeights = new ArrayList<>();
+		private int totalWeight;
+
+		/**
+		 * Load the documents in a mix.
+		 * @param corpus the directory holding the documents.
+		 * @param mix the documents to use, as comma-separated <code>name:weight</code>
+		 *            pairs, or an empty string to use every document in the corpus.
+		 */
+		static DocumentMix load(File corpus, String mix) throws IOException {
+			final DocumentMix ret = new DocumentMix();
+			if (mix.isEmpty()) {
+				final String[] names = corpus.list();
+				if (names == null || names.length == 0) {
+					throw new IOException("No documents in " + corpus);
+				}
+				Arrays.sort(names);
+				for (String name : names) {
+					ret.add(new File(corpus, name), 1);
+				}
+			} else {
+				for (String entry : mix.split(",")) {
+					final String[] parts = entry.trim().split(":");
+					ret.add(new File(corpus, parts[0]), parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+				}
+			}
+			return ret;
+		}
+
+		private void add(File file, int weight) throws IOException {
+			documents.add(new Document(file.getName(), Files.toByteArray(file)));
+			totalWeight += weight;
+			cumulativeWeights.add(totalWeight);
+		}
+
+		List<Document> getDocuments() {
+			return documents;
+		}
+
+		Document next() {
+			final int choice = ThreadLocalRandom.current().nextInt(totalWeight);
+			int i = 0;
+			while (cumulativeWeights.get(i) <= choice) {
+				i++;
+			}
+			return documents.get(i);
+		}
+
+		static class Document {
+
+			final String name;
+			final byte[] content;
+
+			Document(String name, byte[] content) {
+				this.name = name;
+				this.content = content;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.healthchecks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import io.dropwizard.util.Duration;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.junit.After;
+import org.junit.Test;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+import uk.co.flax.tika.config.HealthConfiguration;
+import uk.co.flax.tika.config.UploadConfiguration;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+import uk.co.flax.tika.service.upload.SpooledUpload;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the readiness and liveness health checks.
+ *
+ * @author mlp
+ */
+public class HealthChecksTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final ExecutorService livenessExecutor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		livenessExecutor.shutdownNow();
+	}
+
+	@Test
+	public void readiness_healthyWithinThresholds() throws Exception {
+		final HealthCheck check = new ReadinessHealthCheck(healthConfig("{\"maxQueueDepth\": 1}"),
+				buildExecutor(), buildSpooler(), null);
+
+		final HealthCheck.Result result = check.execute();
+		assertThat(result.isHealthy()).isTrue();
+		assertThat(result.getMessage()).contains("queue depth 0");
+	}
+
+	@Test
+	public void readiness_unhealthyWhenThresholdsExceeded() throws Exception {
+		final ExtractionExecutor executor = buildExecutor();
+		final UploadSpooler spooler = buildSpooler();
+		final HealthCheck check = new ReadinessHealthCheck(
+				healthConfig("{\"maxQueueDepth\": 1, \"maxInFlightBytes\": \"10 bytes\"}"), executor, spooler, null);
+
+		// One task running, two waiting
+		for (int i = 0; i < 3; i++) {
+			executor.submit(blockingTask());
+		}
+		try (SpooledUpload upload = spooler.spool(new ByteArrayInputStream(new byte[20]), 20, false)) {
+			assertThat(upload.getLength()).isEqualTo(20);
+			final HealthCheck.Result result = check.execute();
+			assertThat(result.isHealthy()).isFalse();
+			assertThat(result.getMessage()).contains("queue depth 2 > 1").contains("in-flight bytes 20 > 10");
+		}
+	}
+
+	@Test
+	public void liveness_extractsDocument() throws Exception {
+		final HealthCheck check = new ParserHealthCheck(new TikaParserRegistry(), livenessExecutor,
+				Duration.seconds(30));
+
+		assertThat(check.execute().isHealthy()).isTrue();
+	}
+
+	@Test
+	public void liveness_unhealthyWhileExtractionStuck() throws Exception {
+		// Occupy the check's thread, as a hung parser would
+		livenessExecutor.submit(blockingTask());
+		final HealthCheck check = new ParserHealthCheck(new TikaParserRegistry(), livenessExecutor,
+				Duration.seconds(1));
+
+		final HealthCheck.Result timedOut = check.execute();
+		assertThat(timedOut.isHealthy()).isFalse();
+		assertThat(timedOut.getMessage()).contains("longer than");
+
+		// Polling again while the parse is still blocked fails without waiting
+		final long start = System.nanoTime();
+		final HealthCheck.Result stuck = check.execute();
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(500);
+		assertThat(stuck.isHealthy()).isFalse();
+		assertThat(stuck.getMessage()).contains("has not finished");
+
+		// Once the queued parse has run, the check recovers
+		release.countDown();
+		livenessExecutor.submit(blockingTask()).get();
+		assertThat(check.execute().isHealthy()).isTrue();
+	}
+
+	private Callable<Void> blockingTask() {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				release.await();
+				return null;
+			}
+		};
+	}
+
+	private static HealthConfiguration healthConfig(String json) throws Exception {
+		return MAPPER.readValue(json, HealthConfiguration.class);
+	}
+
+	private static ExtractionExecutor buildExecutor() throws Exception {
+		return new ExtractionExecutor(MAPPER.readValue("{\"threads\": 1, \"queueSize\": 10}", ExtractionConfiguration.class),
+				MediaTypeRegistry.getDefaultRegistry(), new LifecycleEnvironment(), new MetricRegistry());
+	}
+
+	private static UploadSpooler buildSpooler() throws Exception {
+		return new UploadSpooler(MAPPER.readValue("{\"memoryThreshold\": \"1KB\"}", UploadConfiguration.class),
+				new MetricRegistry());
+	}
+
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.resources;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.jackson.Jackson;
+import org.junit.After;
+import org.junit.Test;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.UploadConfiguration;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for the batch extraction output.
+ *
+ * @author mlp
+ */
+public class BatchExtractionOutputTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+	private UploadSpooler spooler = buildSpooler(new HashMap<String, Object>());
+
+	@After
+	public void shutdownPool() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void write_streamsEntriesInCompletionOrder() throws Exception {
+		// The first entry waits until a result has been written
+		final CountDownLatch written = new CountDownLatch(1);
+		BatchExtractionOutput.EntryExtractor extractor = new PoolExtractor() {
+			@Override
+			public TikaDocument extract(BatchExtractionOutput.Entry entry) {
+				if (entry.getName().equals("first.txt")) {
+					await(written);
+				}
+				return new TikaDocument(TikaDocument.OK_STATUS, null, null, read(entry));
+			}
+		};
+		ByteArrayOutputStream output = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				written.countDown();
+			}
+		};
+
+		List<TikaDocument> docs = write(zip("first.txt", "one", "dir/", null, "second.txt", "two"), extractor, output);
+
+		assertThat(docs).hasSize(2);
+		assertThat(docs.get(0).getPath()).isEqualTo("second.txt");
+		assertThat(docs.get(0).getText()).isEqualTo("two");
+		assertThat(docs.get(1).getPath()).isEqualTo("first.txt");
+		assertThat(docs.get(1).getText()).isEqualTo("one");
+	}
+
+	@Test
+	public void write_reportsEntryFailuresInline() throws Exception {
+		BatchExtractionOutput.EntryExtractor extractor = new PoolExtractor() {
+			@Override
+			public TikaDocument extract(BatchExtractionOutput.Entry entry) {
+				if (entry.getName().equals("bad.txt")) {
+					throw new IllegalStateException("Cannot parse");
+				}
+				return new TikaDocument(TikaDocument.OK_STATUS, null, null, "text");
+			}
+		};
+
+		List<TikaDocument> docs = write(zip("bad.txt", "x", "good.txt", "y"), extractor, new ByteArrayOutputStream());
+
+		assertThat(docs).hasSize(2);
+		for (TikaDocument doc : docs) {
+			if (doc.getPath().equals("bad.txt")) {
+				assertThat(doc.getStatus()).isEqualTo(TikaDocument.ERROR_STATUS);
+				assertThat(doc.getMessage()).isEqualTo("Cannot parse");
+			} else {
+				assertThat(doc.getStatus()).isEqualTo(TikaDocument.OK_STATUS);
+			}
+		}
+	}
+
+	@Test
+	public void write_reportsOversizedEntriesInline() throws Exception {
+		final Map<String, Object> config = new HashMap<>();
+		config.put("memoryThreshold", "4 bytes");
+		config.put("maxUploadSize", "10 bytes");
+		spooler = buildSpooler(config);
+
+		List<TikaDocument> docs = write(zip("small.txt", "small", "large.txt", Strings.repeat("large", 10),
+				"disk.txt", "on disk"), new TextExtractor(), new ByteArrayOutputStream());
+
+		assertThat(docs).hasSize(3);
+		for (TikaDocument doc : docs) {
+			if (doc.getPath().equals("large.txt")) {
+				assertThat(doc.getStatus()).isEqualTo(TikaDocument.ERROR_STATUS);
+				assertThat(doc.getMessage()).contains("maximum size of 10 bytes");
+			} else {
+				assertThat(doc.getStatus()).isEqualTo(TikaDocument.OK_STATUS);
+				assertThat(doc.getText()).isIn("small", "on disk");
+			}
+		}
+		// Every entry has been released
+		assertThat(spooler.getInFlightBytes()).isZero();
+	}
+
+	@Test
+	public void write_stopsAfterMaxDocuments() throws Exception {
+		final Map<String, Object> config = new HashMap<>();
+		config.put("maxBatchDocuments", 2);
+		spooler = buildSpooler(config);
+
+		List<TikaDocument> docs = write(zip("one.txt", "1", "two.txt", "2", "three.txt", "3", "four.txt", "4"),
+				new TextExtractor(), new ByteArrayOutputStream());
+
+		// The batch is cut short after the error, though results may still follow it
+		assertThat(docs).hasSize(3);
+		assertThat(errors(docs)).hasSize(1);
+		assertThat(errors(docs).get(0).getMessage()).contains("maximum of 2 documents");
+	}
+
+	@Test
+	public void write_stopsAfterMaxBatchSize() throws Exception {
+		final Map<String, Object> config = new HashMap<>();
+		config.put("maxBatchSize", "10 bytes");
+		spooler = buildSpooler(config);
+
+		List<TikaDocument> docs = write(zip("one.txt", "123456", "two.txt", "789012", "three.txt", "3"),
+				new TextExtractor(), new ByteArrayOutputStream());
+
+		assertThat(docs).hasSize(2);
+		assertThat(errors(docs)).hasSize(1);
+		assertThat(errors(docs).get(0).getMessage()).contains("maximum size of 10 bytes");
+		assertThat(spooler.getInFlightBytes()).isZero();
+	}
+
+	@Test
+	public void zipEntries_refusesOtherContent() throws Exception {
+		for (String content : new String[]{ "", "Not a ZIP archive" }) {
+			try {
+				BatchExtractionOutput.zipEntries(
+						new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), spooler);
+				fail("Expected ZipException for \"" + content + "\"");
+			} catch (ZipException e) {
+				assertThat(e.getMessage()).contains("not a ZIP archive");
+			}
+		}
+
+		// An empty archive is accepted
+		assertThat(BatchExtractionOutput.zipEntries(new ByteArrayInputStream(zip()), spooler).next()).isNull();
+	}
+
+	private List<TikaDocument> write(byte[] zip, BatchExtractionOutput.EntryExtractor extractor,
+									 ByteArrayOutputStream output) throws Exception {
+		new BatchExtractionOutput(BatchExtractionOutput.zipEntries(new ByteArrayInputStream(zip), spooler), extractor,
+				MAPPER, 4).write(output);
+
+		List<TikaDocument> docs = new ArrayList<>();
+		for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+			docs.add(MAPPER.readValue(line, TikaDocument.class));
+		}
+		return docs;
+	}
+
+	/**
+	 * Build a ZIP archive from name/content pairs. Entries with null content
+	 * are added as directories.
+	 */
+	private static byte[] zip(String... namesAndContent) throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(buffer)) {
+			for (int i = 0; i < namesAndContent.length; i += 2) {
+				zip.putNextEntry(new ZipEntry(namesAndContent[i]));
+				if (namesAndContent[i + 1] != null) {
+					zip.write(namesAndContent[i + 1].getBytes(StandardCharsets.UTF_8));
+				}
+				zip.closeEntry();
+			}
+		}
+		return buffer.toByteArray();
+	}
+
+	private static List<TikaDocument> errors(List<TikaDocument> docs) {
+		final List<TikaDocument> ret = new ArrayList<>();
+		for (TikaDocument doc : docs) {
+			if (doc.getStatus().equals(TikaDocument.ERROR_STATUS)) {
+				ret.add(doc);
+			}
+		}
+		return ret;
+	}
+
+		private static UploadSpooler buildSpooler(Map<String, Object> config) {
+		return new UploadSpooler(MAPPER.convertValue(config, UploadConfiguration.class), new MetricRegistry());
+	}
+
+	private static String read(BatchExtractionOutput.Entry entry) {
+		try (InputStream input = entry.getUpload().getInputStream()) {
+			return new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private abstract class PoolExtractor implements BatchExtractionOutput.EntryExtractor {
+		@Override
+		public void submit(BatchExtractionOutput.Entry entry, Callable<Void> task) {
+			pool.submit(task);
+		}
+	}
+
+	private class TextExtractor extends PoolExtractor {
+		@Override
+		public TikaDocument extract(BatchExtractionOutput.Entry entry) {
+			return new TikaDocument(TikaDocument.OK_STATUS, null, null, read(entry));
+		}
+	}
+
+}
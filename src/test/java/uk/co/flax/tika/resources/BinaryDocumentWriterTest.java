@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.resources;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.base.Strings;
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import uk.co.flax.tika.api.TikaDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the binary TikaDocument writers.
+ *
+ * @author mlp
+ */
+public class BinaryDocumentWriterTest {
+
+	@Test
+	public void writeTo_roundTripsDocuments() throws Exception {
+		final Map<String, Object> metadata = new HashMap<>();
+		metadata.put("title", "Test title");
+		metadata.put("Author", Arrays.asList("First", "Second"));
+		final String text = Strings.repeat("Some document text. ", 1000);
+		final TikaDocument document = new TikaDocument(metadata, text).withPath("dir/test.txt");
+
+		assertRoundTrip(new BinaryDocumentWriter.Smile(), new SmileFactory(), document);
+		assertRoundTrip(new BinaryDocumentWriter.Cbor(), new CBORFactory(), document);
+		assertRoundTrip(new BinaryDocumentWriter.MessagePack(), new MessagePackFactory(), document);
+		assertRoundTrip(new BinaryDocumentWriter.Smile(), new SmileFactory(), new TikaDocument("Error message"));
+	}
+
+	private void assertRoundTrip(BinaryDocumentWriter writer, JsonFactory factory, TikaDocument document)
+			throws IOException {
+		final CloseTrackingOutputStream output = new CloseTrackingOutputStream();
+		writer.writeTo(document, TikaDocument.class, TikaDocument.class, null, null, null, output);
+		assertThat(output.closed).isFalse();
+
+		final TikaDocument read = new ObjectMapper(factory).readValue(output.toByteArray(), TikaDocument.class);
+		assertThat(read.getStatus()).isEqualTo(document.getStatus());
+		assertThat(read.getMessage()).isEqualTo(document.getMessage());
+		assertThat(read.getMetadata()).isEqualTo(document.getMetadata());
+		assertThat(read.getText()).isEqualTo(document.getText());
+		assertThat(read.getPath()).isEqualTo(document.getPath());
+	}
+
+	private static class CloseTrackingOutputStream extends ByteArrayOutputStream {
+
+		private boolean closed;
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+
+}
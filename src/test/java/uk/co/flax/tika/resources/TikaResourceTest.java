@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.resources;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.CacheConfiguration;
+import uk.co.flax.tika.config.EmbeddedConfiguration;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+import uk.co.flax.tika.config.LocalFilesConfiguration;
+import uk.co.flax.tika.config.UploadConfiguration;
+import uk.co.flax.tika.service.cache.ExtractionCache;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+import uk.co.flax.tika.service.local.LocalFileResolver;
+import uk.co.flax.tika.service.tika.ExtractionMetrics;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+import uk.co.flax.tika.service.upload.UploadSpooler;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the TikaResource's handling of the extraction pool, of
+ * requests extracted asynchronously, and of the sizes charged to quotas.
+ *
+ * @author mlp
+ */
+public class TikaResourceTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private static TikaParserRegistry registry;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final MetricRegistry metrics = new MetricRegistry();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private ExtractionExecutor executor;
+
+	@BeforeClass
+	public static void setupRegistry() throws Exception {
+		registry = new TikaParserRegistry();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void handlePut_rejectsWhenPoolFull() throws Exception {
+		final TikaResource resource = buildResource("{\"threads\": 1, \"queueSize\": 0, \"retryAfterSeconds\": 7}",
+				false);
+		// Occupy the only extraction thread
+		executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				release.await();
+				return null;
+			}
+		});
+
+		final HttpServletRequest request = buildRequest("Some text");
+		final AsyncResponse response = mock(AsyncResponse.class);
+		resource.handlePut(TikaResource.TEXT_OPKEY, request, buildHeaders(MediaType.TEXT_PLAIN_TYPE), null, null,
+				response);
+
+		final ArgumentCaptor<Throwable> captor = ArgumentCaptor.forClass(Throwable.class);
+		verify(response).resume(captor.capture());
+		assertThat(captor.getValue()).isInstanceOf(WebApplicationException.class);
+		final Response busy = ((WebApplicationException) captor.getValue()).getResponse();
+		assertThat(busy.getStatus()).isEqualTo(Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+		assertThat(busy.getHeaderString(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+		assertThat(((TikaDocument) busy.getEntity()).getStatus()).isEqualTo(TikaDocument.ERROR_STATUS);
+		// Rejected without reading the request body
+		verify(request, never()).getInputStream();
+	}
+
+	@Test
+	public void handlePut_asyncReturnsErrorDocument() throws Exception {
+		final TikaResource resource = buildResource("{\"threads\": 1, \"async\": true}", true);
+
+		final AsyncResponse response = mock(AsyncResponse.class);
+		resource.handlePut(TikaResource.FULLDATA_OPKEY, buildRequest("This is not a PDF"),
+				buildHeaders(MediaType.valueOf("application/pdf")), null, null, response);
+
+		final TikaDocument document = awaitDocument(response);
+		assertThat(document.getStatus()).isEqualTo(TikaDocument.ERROR_STATUS);
+		assertThat(document.getMessage()).isNotEmpty();
+	}
+
+	@Test
+	public void handlePut_asyncReturnsTimeoutDocument() throws Exception {
+		final TikaResource resource = buildResource("{\"threads\": 1, \"async\": true, \"timeout\": \"5ms\"}",
+				true);
+
+		// Far more text than can be parsed within the timeout
+		final AsyncResponse response = mock(AsyncResponse.class);
+		resource.handlePut(TikaResource.TEXT_OPKEY, buildRequest(Strings.repeat("Some text to parse. ", 250000)),
+				buildHeaders(MediaType.TEXT_PLAIN_TYPE), null, null, response);
+
+		final TikaDocument document = awaitDocument(response);
+		assertThat(document.getStatus()).isEqualTo(TikaDocument.TIMEOUT_STATUS);
+	}
+
+	@Test
+	public void handlePut_asyncReadsBodyWithoutExtractionThread() throws Exception {
+		final TikaResource resource = buildResource("{\"threads\": 1, \"queueSize\": 1, \"async\": true}", true);
+
+		// The body has not arrived yet
+		final TestInputStream input = new TestInputStream("Some text", false);
+		final AsyncResponse response = mock(AsyncResponse.class);
+		resource.handlePut(TikaResource.TEXT_OPKEY, buildRequest(input), buildHeaders(MediaType.TEXT_PLAIN_TYPE),
+				null, null, response);
+
+		// The only extraction thread is still free to start other work while the body is awaited
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				started.countDown();
+				return null;
+			}
+		});
+		assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+		input.arrive();
+		final TikaDocument document = awaitDocument(response);
+		assertThat(document.getStatus()).isEqualTo(TikaDocument.OK_STATUS);
+		assertThat(document.getText()).contains("Some text");
+	}
+
+	@Test
+	public void handlePut_asyncRefusesBodyOverMaximum() throws Exception {
+		final TikaResource resource = buildResource("{\"threads\": 1, \"async\": true}", true,
+				Collections.<String, Object>singletonMap("maxUploadSize", "10 bytes"), null);
+
+		// No declared length, so the body is refused once the maximum has been read
+		final HttpServletRequest request = buildRequest(new TestInputStream("Far too much text", true));
+		when(request.getContentLengthLong()).thenReturn(-1L);
+		final AsyncResponse response = mock(AsyncResponse.class);
+		resource.handlePut(TikaResource.TEXT_OPKEY, request, buildHeaders(MediaType.TEXT_PLAIN_TYPE), null, null,
+				response);
+
+		final ArgumentCaptor<Throwable> captor = ArgumentCaptor.forClass(Throwable.class);
+		verify(response, timeout(30000)).resume(captor.capture());
+		assertThat(((WebApplicationException) captor.getValue()).getResponse().getStatus())
+				.isEqualTo(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+	}
+
+	@Test
+	public void getLocalFilesSize_countsResolvedFiles() throws Exception {
+		final File root = folder.newFolder("root");
+		Files.write(new File(root, "one.txt").toPath(), new byte[1000]);
+		Files.write(new File(root, "two.txt").toPath(), new byte[234]);
+		final File outside = folder.newFile("outside.txt");
+		Files.write(outside.toPath(), new byte[5000]);
+		final LocalFileResolver localFiles = new LocalFileResolver(MAPPER.convertValue(
+				Collections.singletonMap("roots", Collections.singletonList(root.getPath())),
+				LocalFilesConfiguration.class));
+		final TikaResource resource = buildResource("{\"threads\": 1}", false, localFiles);
+
+		// Missing files and those outside the roots are not counted
+		assertThat(resource.getLocalFilesSize(Arrays.asList(root.getPath() + "/one.txt",
+				root.getPath() + "/two.txt", root.getPath() + "/missing.txt", outside.getPath()))).isEqualTo(1234);
+		assertThat(resource.getLocalFilesSize(null)).isZero();
+	}
+
+	@Test
+	public void getLocalFilesSize_isZeroWhenDisabled() throws Exception {
+		final TikaResource resource = buildResource("{\"threads\": 1}", false);
+		assertThat(resource.getLocalFilesSize(Collections.singletonList(folder.newFile().getPath()))).isZero();
+	}
+
+	@Test
+	public void getDetectionLength_isMimeRepositoryPrefix() throws Exception {
+		final TikaResource resource = buildResource("{\"threads\": 1}", false);
+		assertThat(resource.getDetectionLength())
+				.isEqualTo(registry.getConfig().getMimeRepository().getMinLength())
+				.isPositive();
+	}
+
+	/**
+	 * Wait for an asynchronous response to be resumed with a document.
+	 */
+	private static TikaDocument awaitDocument(AsyncResponse response) {
+		final ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+		verify(response, timeout(30000)).resume(captor.capture());
+		assertThat(captor.getValue()).isInstanceOf(TikaDocument.class);
+		return (TikaDocument) captor.getValue();
+	}
+
+	private TikaResource buildResource(String extractionConfig, boolean async) throws Exception {
+		return buildResource(extractionConfig, async, null);
+	}
+
+	private TikaResource buildResource(String extractionConfig, boolean async, LocalFileResolver localFiles)
+			throws Exception {
+		return buildResource(extractionConfig, async, Collections.<String, Object>emptyMap(), localFiles);
+	}
+
+	private TikaResource buildResource(String extractionConfig, boolean async, Map<String, Object> uploadConfig,
+									   LocalFileResolver localFiles) throws Exception {
+		final ExtractionConfiguration config = MAPPER.readValue(extractionConfig, ExtractionConfiguration.class);
+		executor = new ExtractionExecutor(config, registry.getConfig().getMediaTypeRegistry(),
+				new LifecycleEnvironment(), metrics);
+		final ParseWatchdog watchdog = new ParseWatchdog(config, executor, registry.getConfig().getMediaTypeRegistry(),
+				scheduler, metrics);
+		return new TikaResource(registry, executor, watchdog,
+				new ExtractionMetrics(registry.getConfig().getMediaTypeRegistry(), metrics), null,
+				new UploadSpooler(MAPPER.convertValue(uploadConfig, UploadConfiguration.class), metrics), localFiles,
+				new ExtractionCache(new CacheConfiguration(), metrics), MAPPER, 0, new EmbeddedConfiguration(), async);
+	}
+
+	private static HttpHeaders buildHeaders(MediaType type) {
+		final HttpHeaders headers = mock(HttpHeaders.class);
+		when(headers.getRequestHeaders()).thenReturn(new MultivaluedHashMap<String, String>());
+		when(headers.getMediaType()).thenReturn(type);
+		return headers;
+	}
+
+	private static HttpServletRequest buildRequest(String content) throws IOException {
+		return buildRequest(new TestInputStream(content, true));
+	}
+
+	private static HttpServletRequest buildRequest(TestInputStream input) throws IOException {
+		final HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getContentLengthLong()).thenReturn((long) input.length);
+		when(request.getInputStream()).thenReturn(input);
+		return request;
+	}
+
+	/**
+	 * Request body which calls its read listener on another thread, as the
+	 * container would, once the body has arrived.
+	 */
+	private static class TestInputStream extends ServletInputStream {
+
+		private final ByteArrayInputStream input;
+		private final int length;
+		private final CountDownLatch arrived = new CountDownLatch(1);
+
+		TestInputStream(String content, boolean arrived) {
+			final byte[] body = content.getBytes(StandardCharsets.UTF_8);
+			this.input = new ByteArrayInputStream(body);
+			this.length = body.length;
+			if (arrived) {
+				arrive();
+			}
+		}
+
+		void arrive() {
+			arrived.countDown();
+		}
+
+		@Override
+		public boolean isFinished() {
+			return input.available() == 0;
+		}
+
+		@Override
+		public void setReadListener(final ReadListener readListener) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						arrived.await();
+						readListener.onDataAvailable();
+						readListener.onAllDataRead();
+					} catch (Exception e) {
+						readListener.onError(e);
+					}
+				}
+			}.start();
+		}
+
+		@Override
+		public boolean isReady() {
+			return arrived.getCount() == 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			awaitArrival();
+			return input.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			awaitArrival();
+			return input.read(b, off, len);
+		}
+
+		/**
+		 * Block a reader which does not wait for the listener, like a slow client.
+		 */
+		private void awaitArrival() throws IOException {
+			try {
+				arrived.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.cache;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import io.dropwizard.jackson.Jackson;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.DiskCacheConfiguration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the DiskExtractionStore.
+ *
+ * @author mlp
+ */
+public class DiskExtractionStoreTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+	private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void get_returnsStoredDocument() throws Exception {
+		DiskExtractionStore store = openStore("1MB", "64KB", TTL);
+
+		store.put("key", document("Some text"));
+
+		assertThat(store.get("key").getText()).isEqualTo("Some text");
+		assertThat(store.get("key").getMetadata()).containsEntry("title", "Title");
+		assertThat(store.get("missing")).isNull();
+		store.stop();
+	}
+
+	@Test
+	public void get_survivesRestart() throws Exception {
+		DiskExtractionStore store = openStore("1MB", "1KB", TTL);
+		for (int i = 0; i < 20; i++) {
+			store.put("key" + i, document("Text " + i));
+		}
+		store.stop();
+
+		DiskExtractionStore reopened = openStore("1MB", "1KB", TTL);
+		for (int i = 0; i < 20; i++) {
+			assertThat(reopened.get("key" + i).getText()).isEqualTo("Text " + i);
+		}
+		reopened.stop();
+	}
+
+	@Test
+	public void start_recoversFromIncompleteRecord() throws Exception {
+		DiskExtractionStore store = openStore("1MB", "64KB", TTL);
+		store.put("first", document("First"));
+		store.put("second", document("Second"));
+		// Simulate a crash - no stop(), so there is no index for the segment
+		File segment = folder.getRoot().listFiles()[0];
+		try (FileOutputStream out = new FileOutputStream(segment, true)) {
+			out.write(new byte[] { 0x54, 0x4b, 0x43, 0x31, 0, 0, 0 });
+		}
+		final long damagedLength = segment.length();
+
+		DiskExtractionStore reopened = openStore("1MB", "64KB", TTL);
+		assertThat(reopened.get("first").getText()).isEqualTo("First");
+		assertThat(reopened.get("second").getText()).isEqualTo("Second");
+		assertThat(segment.length()).isEqualTo(damagedLength - 7);
+
+		reopened.put("third", document("Third"));
+		assertThat(reopened.get("third").getText()).isEqualTo("Third");
+		reopened.stop();
+	}
+
+	@Test
+	public void put_compactsOldestSegments() throws Exception {
+		DiskExtractionStore store = openStore("16KB", "4KB", TTL);
+		final String text = Strings.repeat("x", 1000);
+
+		store.put("accessed", document(text));
+		store.put("unused", document(text));
+		for (int i = 0; i < 40; i++) {
+			// Records read since they were written are kept when their segment is compacted
+			assertThat(store.get("accessed")).isNotNull();
+			store.put("key" + i, document(text));
+			store.awaitCompaction();
+		}
+
+		assertThat(store.get("unused")).isNull();
+		assertThat(store.get("accessed")).isNotNull();
+		assertThat(store.get("key39")).isNotNull();
+		assertThat(segmentFilesSize()).isLessThanOrEqualTo(16 * 1024);
+		store.stop();
+	}
+
+	@Test
+	public void put_evictsOldestRecordsWhenAllAreAccessed() throws Exception {
+		DiskExtractionStore store = openStore("16KB", "4KB", TTL);
+		final String text = Strings.repeat("x", 1000);
+
+		for (int i = 0; i < 40; i++) {
+			store.put("key" + i, document(text));
+			store.awaitCompaction();
+			// Every record is read, so none can be dropped for being unused
+			for (int j = 0; j <= i; j++) {
+				store.get("key" + j);
+			}
+		}
+
+		assertThat(store.get("key0")).isNull();
+		assertThat(store.get("key39")).isNotNull();
+		assertThat(segmentFilesSize()).isLessThanOrEqualTo(16 * 1024);
+		store.stop();
+	}
+
+	@Test
+	public void put_keepsRecordsLoadedAtStartupOnFirstCompaction() throws Exception {
+		final String text = Strings.repeat("x", 1000);
+		DiskExtractionStore store = openStore("16KB", "4KB", TTL);
+		store.put("old", document(text));
+		store.stop();
+
+		DiskExtractionStore reopened = openStore("16KB", "4KB", TTL);
+		for (int i = 0; i < 15; i++) {
+			reopened.put("new" + i, document(text));
+			reopened.awaitCompaction();
+		}
+
+		// The first segment has been compacted, but its record was kept
+		assertThat(new File(folder.getRoot(), "segment-1.dat")).doesNotExist();
+		assertThat(reopened.get("old")).isNotNull();
+		reopened.stop();
+	}
+
+	@Test
+	public void get_readsWhileSegmentsAreSealed() throws Exception {
+		final DiskExtractionStore store = openStore("10MB", "2KB", TTL);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicBoolean writing = new AtomicBoolean(true);
+
+		store.put("key0", document("Text 0"));
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					int i = 0;
+					while (writing.get()) {
+						// Read the most recent records, which are in the segment being written
+						final TikaDocument document = store.get("key" + i);
+						if (document != null) {
+							assertThat(document.getText()).isEqualTo("Text " + i);
+							i++;
+						}
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		};
+		reader.start();
+		for (int i = 1; i < 500; i++) {
+			store.put("key" + i, document("Text " + i));
+		}
+		writing.set(false);
+		reader.join();
+
+		assertThat(failure.get()).isNull();
+		store.stop();
+	}
+
+	@Test
+	public void get_ignoresExpiredDocuments() throws Exception {
+		DiskExtractionStore store = openStore("1MB", "64KB", -1);
+
+		store.put("key", document("Some text"));
+
+		assertThat(store.get("key")).isNull();
+		store.stop();
+	}
+
+	private DiskExtractionStore openStore(String maxSize, String segmentSize, long ttl) throws Exception {
+		DiskCacheConfiguration config = MAPPER.readValue("{\"enabled\": true, \"directory\": \""
+				+ folder.getRoot().getAbsolutePath() + "\", \"maxSize\": \"" + maxSize
+				+ "\", \"segmentSize\": \"" + segmentSize + "\"}", DiskCacheConfiguration.class);
+		DiskExtractionStore store = new DiskExtractionStore(config, ttl, new MetricRegistry());
+		store.start();
+		return store;
+	}
+
+	private long segmentFilesSize() {
+		long ret = 0;
+		for (File file : folder.getRoot().listFiles()) {
+			if (file.getName().endsWith(".dat")) {
+				ret += file.length();
+			}
+		}
+		return ret;
+	}
+
+	private static TikaDocument document(String text) {
+		return new TikaDocument(Collections.<String, Object>singletonMap("title", "Title"), text);
+	}
+
+}
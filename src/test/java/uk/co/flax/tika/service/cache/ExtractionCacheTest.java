@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.cache;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import io.dropwizard.jackson.Jackson;
+import org.junit.Test;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.CacheConfiguration;
+import uk.co.flax.tika.service.tika.PageRange;
+import uk.co.flax.tika.service.tika.StubHttpHeaders;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the ExtractionCache.
+ *
+ * @author mlp
+ */
+public class ExtractionCacheTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private final MetricRegistry metrics = new MetricRegistry();
+
+	@Test
+	public void isCacheable_limitsDocumentSize() throws Exception {
+		ExtractionCache cache = new ExtractionCache(config("{\"enabled\": true, \"maxDocumentSize\": \"10 bytes\"}"), metrics);
+		assertThat(cache.isCacheable(10)).isTrue();
+		assertThat(cache.isCacheable(-1)).isTrue();
+		assertThat(cache.isCacheable(11)).isFalse();
+
+		ExtractionCache disabled = new ExtractionCache(config("{\"enabled\": false}"), new MetricRegistry());
+		assertThat(disabled.isCacheable(10)).isFalse();
+	}
+
+	@Test
+	public void buildKey_includesOperationAndHeaders() throws Exception {
+		HashCode hash = Hashing.sha256().hashString("Document content", StandardCharsets.UTF_8);
+
+		String textKey = ExtractionCache.buildKey("text", new StubHttpHeaders(), 100, null, hash);
+		assertThat(ExtractionCache.buildKey("TEXT", new StubHttpHeaders(), 100, null, hash)).isEqualTo(textKey);
+		assertThat(ExtractionCache.buildKey("metadata", new StubHttpHeaders(), 100, null, hash)).isNotEqualTo(textKey);
+		assertThat(ExtractionCache.buildKey("text",
+				new StubHttpHeaders().header(HttpHeaders.CONTENT_TYPE, "text/html"), 100, null, hash)).isNotEqualTo(textKey);
+		assertThat(ExtractionCache.buildKey("text",
+				new StubHttpHeaders().header("File-Name", "test.html"), 100, null, hash)).isNotEqualTo(textKey);
+		assertThat(ExtractionCache.buildKey("text", new StubHttpHeaders(), 50, null, hash)).isNotEqualTo(textKey);
+		assertThat(ExtractionCache.buildKey("text", new StubHttpHeaders(), 100, PageRange.parse("1-2"), hash))
+				.isNotEqualTo(textKey);
+	}
+
+	@Test
+	public void put_onlyCachesSuccessfulResults() throws Exception {
+		ExtractionCache cache = new ExtractionCache(config("{\"enabled\": true}"), metrics);
+
+		cache.put("ok", new TikaDocument(null, "text"));
+		cache.put("error", new TikaDocument("Failure"));
+
+		assertThat(cache.get("ok").getText()).isEqualTo("text");
+		assertThat(cache.get("error")).isNull();
+		assertThat(metrics.getGauges().get(MetricRegistry.name(ExtractionCache.class, "hits")).getValue()).isEqualTo(1L);
+		assertThat(metrics.getGauges().get(MetricRegistry.name(ExtractionCache.class, "misses")).getValue()).isEqualTo(1L);
+	}
+
+	@Test
+	public void put_evictsBySize() throws Exception {
+		ExtractionCache cache = new ExtractionCache(config("{\"enabled\": true, \"maxSize\": \"1MB\"}"), metrics);
+		final String text = Strings.repeat("x", 10 * 1024);
+
+		for (int i = 0; i < 100; i++) {
+			cache.put("doc" + i, new TikaDocument(Collections.<String, Object>singletonMap("title", "Title"), text));
+		}
+
+		assertThat(cache.get("doc99")).isNotNull();
+		assertThat(cache.get("doc0")).isNull();
+		assertThat((Long) metrics.getGauges().get(MetricRegistry.name(ExtractionCache.class, "evictions")).getValue())
+				.isGreaterThan(0);
+		assertThat((Long) metrics.getGauges().get(MetricRegistry.name(ExtractionCache.class, "bytes")).getValue())
+				.isLessThanOrEqualTo(1024 * 1024);
+	}
+
+	private static CacheConfiguration config(String json) throws Exception {
+		return MAPPER.readValue(json, CacheConfiguration.class);
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for the extraction executor's bulkheads.
+ *
+ * @author mlp
+ */
+public class ExtractionExecutorTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private final MetricRegistry metrics = new MetricRegistry();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private ExtractionExecutor executor;
+
+	@Before
+	public void setup() throws Exception {
+		ExtractionConfiguration config = MAPPER.readValue("{\"threads\": 1, \"queueSize\": 0, "
+				+ "\"overflowThreads\": 1, \"overflowQueueSize\": 0, \"bulkheads\": {"
+				+ "\"office\": {\"types\": [\"application/pdf\", \"application/x-tika-ooxml\"], \"threads\": 1, \"queueSize\": 0}, "
+				+ "\"images\": {\"types\": [\"image/*\"]}}}", ExtractionConfiguration.class);
+		executor = new ExtractionExecutor(config, MediaTypeRegistry.getDefaultRegistry(), new LifecycleEnvironment(), metrics);
+	}
+
+	@Test
+	public void getBulkhead_matchesTypesAndSubtypes() {
+		assertThat(executor.getBulkhead(MediaType.application("pdf")).getName()).isEqualTo("office");
+		assertThat(executor.getBulkhead(MediaType.parse(
+				"application/vnd.openxmlformats-officedocument.wordprocessingml.document")).getName()).isEqualTo("office");
+		assertThat(executor.getBulkhead(MediaType.image("png")).getName()).isEqualTo("images");
+		assertThat(executor.getBulkhead(MediaType.parse("text/html; charset=UTF-8")).getName()).isEqualTo("main");
+		assertThat(executor.getBulkhead(null).getName()).isEqualTo("main");
+	}
+
+	@Test
+	public void submit_overflowsWhenBulkheadFull() throws Exception {
+		final Future<String> first = executor.submit(blockingTask(), MediaType.application("pdf"));
+		final Future<String> second = executor.submit(blockingTask(), MediaType.application("pdf"));
+		try {
+			executor.submit(blockingTask(), MediaType.application("pdf"));
+			fail("Expected the third document to be rejected");
+		} catch (RejectedExecutionException e) {
+			// Expected - the bulkhead and the overflow pool are both busy
+		}
+
+		// The main pool is unaffected by the full bulkhead
+		final Future<String> html = executor.submit(new Callable<String>() {
+			@Override
+			public String call() {
+				return Thread.currentThread().getName();
+			}
+		}, MediaType.TEXT_HTML);
+		assertThat(html.get()).matches("tika-extraction-\\d+");
+
+		release.countDown();
+		assertThat(first.get()).startsWith("tika-extraction-office-");
+		assertThat(second.get()).startsWith("tika-overflow-");
+		assertThat(metrics.meter(name(ExtractionExecutor.class, "bulkheads", "office", "overflowed")).getCount()).isEqualTo(1);
+		assertThat(metrics.meter(name(ExtractionExecutor.class, "overflow", "rejected")).getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void getFirstLatencyMillis_keepsFirstTask() throws Exception {
+		assertThat(executor.getFirstLatencyMillis()).isNull();
+
+		release.countDown();
+		executor.submit(blockingTask(), MediaType.TEXT_PLAIN).get();
+		final Long first = executor.getFirstLatencyMillis();
+		assertThat(first).isNotNull();
+		assertThat(metrics.getGauges().get(name(ExtractionExecutor.class, "first-request-latency")).getValue())
+				.isEqualTo(first);
+
+		executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				Thread.sleep(first + 20);
+				return null;
+			}
+		}, MediaType.TEXT_PLAIN).get();
+		assertThat(executor.getFirstLatencyMillis()).isEqualTo(first);
+	}
+
+	private Callable<String> blockingTask() {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				release.await();
+				return Thread.currentThread().getName();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.executor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+import uk.co.flax.tika.service.tika.ParseTimeoutException;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static uk.co.flax.tika.resources.TikaResource.TEXT_OPKEY;
+
+/**
+ * Unit tests for the parse watchdog.
+ *
+ * @author mlp
+ */
+public class ParseWatchdogTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private final MetricRegistry metrics = new MetricRegistry();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	private TikaParserRegistry registry;
+	private ExtractionExecutor executor;
+	private ParseWatchdog watchdog;
+
+	@Before
+	public void setup() throws Exception {
+		ExtractionConfiguration config = MAPPER.readValue("{\"threads\": 2, \"timeout\": \"0s\", "
+				+ "\"typeTimeouts\": {\"text/plain\": \"200ms\", \"image/*\": \"2s\"}}", ExtractionConfiguration.class);
+		registry = new TikaParserRegistry();
+		executor = new ExtractionExecutor(config, registry.getConfig().getMediaTypeRegistry(),
+				new LifecycleEnvironment(), metrics);
+		watchdog = new ParseWatchdog(config, executor, registry.getConfig().getMediaTypeRegistry(), scheduler, metrics);
+	}
+
+	@After
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void getTimeout_usesTypeOverrides() {
+		assertThat(watchdog.getTimeout(MediaType.parse("text/plain; charset=UTF-8"))).isEqualTo(200);
+		assertThat(watchdog.getTimeout(MediaType.image("png"))).isEqualTo(2000);
+		assertThat(watchdog.getTimeout(MediaType.application("pdf"))).isEqualTo(0);
+	}
+
+	@Test
+	public void extract_abortsRunawayParse() throws Exception {
+		Metadata metadata = TikaExtractor.buildMetadata(null, javax.ws.rs.core.MediaType.TEXT_PLAIN_TYPE);
+		TikaExtractor extractor = new TikaExtractor(registry, watchdog, null, metadata, new EndlessTextStream(), TEXT_OPKEY);
+
+		long start = System.currentTimeMillis();
+		try {
+			extractor.extract();
+			fail("Expected parse to time out");
+		} catch (ParseTimeoutException e) {
+			assertThat(e.getMessage()).contains("text/plain");
+		}
+
+		assertThat(System.currentTimeMillis() - start).isLessThan(5000);
+		assertThat(metrics.meter(name(ParseWatchdog.class, "timeouts", "text/plain")).getCount()).isEqualTo(1);
+		assertThat(Thread.currentThread().isInterrupted()).isFalse();
+		assertThat(executor.getReplacementThreads()).isEqualTo(0);
+	}
+
+	@Test
+	public void watch_replacesStuckThreadUntilClosed() throws Exception {
+		ParseWatchdog.Watch watch = watchdog.newWatch();
+		watch.start(MediaType.TEXT_PLAIN);
+
+		long end = System.currentTimeMillis() + 5000;
+		while (!watch.isExpired() && System.currentTimeMillis() < end) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				// Expected when the watch expires
+			}
+		}
+
+		assertThat(watch.isExpired()).isTrue();
+		assertThat(executor.getReplacementThreads()).isEqualTo(1);
+
+		watch.close();
+		assertThat(executor.getReplacementThreads()).isEqualTo(0);
+		assertThat(Thread.currentThread().isInterrupted()).isFalse();
+	}
+
+
+	/**
+	 * Plain text stream which never ends, and is slow to read.
+	 */
+	private static class EndlessTextStream extends InputStream {
+
+		@Override
+		public int read() {
+			return 'a';
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			int count = Math.min(len, 64);
+			for (int i = 0; i < count; i++) {
+				b[off + i] = (i % 8 == 7 ? (byte) ' ' : (byte) 'a');
+			}
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.fork;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.junit.After;
+import org.junit.Test;
+import uk.co.flax.tika.api.TikaDocument;
+import uk.co.flax.tika.config.ExtractionConfiguration;
+import uk.co.flax.tika.service.executor.ExtractionExecutor;
+import uk.co.flax.tika.service.executor.ParseWatchdog;
+import uk.co.flax.tika.service.tika.ParseTimeoutException;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+
+/**
+ * Unit tests for the worker process pool. These start real worker JVMs.
+ *
+ * @author mlp
+ */
+public class ForkWorkerPoolTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private static final String HTML = "<html><head><title>Test title</title></head>"
+			+ "<body><p>This is the text of our test document</p></body></html>";
+
+	private final MetricRegistry metrics = new MetricRegistry();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	private ForkWorkerPool pool;
+
+	@After
+	public void stopPool() throws Exception {
+		if (pool != null) {
+			pool.stop();
+		}
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void extract_parsesInWorker() throws Exception {
+		pool = startPool("{\"fork\": {\"workers\": 1, \"javaOptions\": [\"-Xmx128m\"]}}");
+
+		TikaDocument doc = pool.extract(FULLDATA_OPKEY, metadata(MediaType.TEXT_HTML_TYPE), stream(HTML), 0, null);
+		assertThat(doc.getStatus()).isEqualTo(TikaDocument.OK_STATUS);
+		assertThat(doc.getText()).contains("This is the text of our test document");
+		assertThat(doc.getMetadata()).containsEntry("title", "Test title");
+
+		StringWriter writer = new StringWriter();
+		pool.extractText(metadata(MediaType.TEXT_HTML_TYPE), stream(HTML), writer, 0, null);
+		assertThat(writer.toString()).contains("This is the text of our test document");
+
+		// The character limit is passed to the worker
+		doc = pool.extract(FULLDATA_OPKEY, metadata(MediaType.TEXT_PLAIN_TYPE),
+				stream(Strings.repeat("Some plain text. ", 100000)), 100, null);
+		assertThat(doc.getStatus()).isEqualTo(TikaDocument.OK_STATUS);
+		assertThat(doc.getText()).hasSize(100);
+		assertThat(doc.isTruncated()).isTrue();
+	}
+
+	@Test
+	public void extract_recyclesWorkers() throws Exception {
+		pool = startPool("{\"fork\": {\"workers\": 1, \"maxDocuments\": 2, \"javaOptions\": [\"-Xmx128m\"]}}");
+
+		for (int i = 0; i < 5; i++) {
+			TikaDocument doc = pool.extract(FULLDATA_OPKEY, metadata(MediaType.TEXT_HTML_TYPE), stream(HTML), 0, null);
+			assertThat(doc.getStatus()).isEqualTo(TikaDocument.OK_STATUS);
+		}
+
+		// The old worker carries on until its replacement has started
+		assertThat(metrics.meter(name(ForkWorkerPool.class, "recycles")).getCount()).isEqualTo(1);
+		assertThat(metrics.meter(name(ForkWorkerPool.class, "restarts")).getCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void extract_killsWorkerOnTimeout() throws Exception {
+		pool = startPool("{\"timeout\": \"500ms\", \"fork\": {\"workers\": 1, \"javaOptions\": [\"-Xmx128m\"]}}");
+
+		try {
+			pool.extract(FULLDATA_OPKEY, metadata(MediaType.TEXT_PLAIN_TYPE), new EndlessTextStream(), 0, null);
+			fail("Expected parse to time out");
+		} catch (ParseTimeoutException e) {
+			assertThat(e.getMessage()).contains("text/plain");
+		}
+		assertThat(metrics.meter(name(ForkWorkerPool.class, "restarts")).getCount()).isEqualTo(1);
+
+		// The replacement worker should pick up the next document
+		TikaDocument doc = pool.extract(FULLDATA_OPKEY, metadata(MediaType.TEXT_HTML_TYPE), stream(HTML), 0, null);
+		assertThat(doc.getStatus()).isEqualTo(TikaDocument.OK_STATUS);
+	}
+
+	@Test
+	public void stop_killsBusyWorkers() throws Exception {
+		pool = startPool("{\"fork\": {\"workers\": 1, \"javaOptions\": [\"-Xmx128m\"]}}");
+
+		// Without a timeout, the worker would parse this document forever
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<TikaDocument> busy = executor.submit(new Callable<TikaDocument>() {
+				@Override
+				public TikaDocument call() throws Exception {
+					return pool.extract(FULLDATA_OPKEY, metadata(MediaType.TEXT_PLAIN_TYPE), new EndlessTextStream(), 0, null);
+				}
+			});
+			Gauge<?> idle = metrics.getGauges().get(name(ForkWorkerPool.class, "idle-workers"));
+			while (!idle.getValue().equals(0)) {
+				Thread.sleep(10);
+			}
+
+			pool.stop();
+			try {
+				busy.get(30, TimeUnit.SECONDS);
+				fail("Expected extraction to fail");
+			} catch (ExecutionException e) {
+				// Expected - the worker was killed, or the pool stopped before it was sent the document
+			}
+		} finally {
+			pool = null;
+			executor.shutdownNow();
+		}
+	}
+
+	private ForkWorkerPool startPool(String json) throws Exception {
+		ExtractionConfiguration config = MAPPER.readValue(json, ExtractionConfiguration.class);
+		ExtractionExecutor executor = new ExtractionExecutor(config, MediaTypeRegistry.getDefaultRegistry(),
+				new LifecycleEnvironment(), metrics);
+		ParseWatchdog watchdog = new ParseWatchdog(config, executor, MediaTypeRegistry.getDefaultRegistry(),
+				scheduler, metrics);
+
+		ForkWorkerPool ret = new ForkWorkerPool(config.getFork(), watchdog, MAPPER, metrics);
+		ret.start();
+		return ret;
+	}
+
+	private static Metadata metadata(MediaType type) {
+		return TikaExtractor.buildMetadata(null, type);
+	}
+
+	private static ByteArrayInputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	/**
+	 * Plain text stream which never ends, and is slow to read.
+	 */
+	private static class EndlessTextStream extends InputStream {
+
+		@Override
+		public int read() {
+			return 'a';
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			len = Math.min(len, 64);
+			for (int i = 0; i < len; i++) {
+				b[off + i] = (i % 8 == 7 ? (byte) ' ' : (byte) 'a');
+			}
+			return len;
+		}
+	}
+
+}
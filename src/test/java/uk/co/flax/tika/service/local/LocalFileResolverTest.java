@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.local;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.flax.tika.config.LocalFilesConfiguration;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for the LocalFileResolver.
+ *
+ * @author mlp
+ */
+public class LocalFileResolverTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private File outside;
+	private LocalFileResolver resolver;
+
+	@Before
+	public void setup() throws Exception {
+		root = folder.newFolder("root");
+		outside = folder.newFile("outside.txt");
+		Files.write(new File(root, "document.txt").toPath(), "Document".getBytes(StandardCharsets.UTF_8));
+		resolver = new LocalFileResolver(MAPPER.convertValue(
+				Collections.singletonMap("roots", Collections.singletonList(root.getPath())),
+				LocalFilesConfiguration.class));
+	}
+
+	@Test
+	public void resolve_allowsFilesUnderRoot() throws Exception {
+		final Path file = resolver.resolve(root.getPath() + "/document.txt");
+		assertThat(file).isEqualTo(new File(root, "document.txt").toPath().toRealPath());
+
+		// Paths which leave the root and come back are also allowed
+		assertThat(resolver.resolve(root.getPath() + "/../root/document.txt")).isEqualTo(file);
+	}
+
+	@Test
+	public void resolve_refusesPathsOutsideRoot() throws Exception {
+		assertRefused(outside.getPath(), AccessDeniedException.class);
+		assertRefused(root.getPath() + "/../outside.txt", AccessDeniedException.class);
+		assertRefused("document.txt", AccessDeniedException.class);
+		assertRefused(root.getPath(), AccessDeniedException.class);
+
+		// Files outside the root are refused whether or not they exist
+		assertRefused(folder.getRoot().getPath() + "/missing.txt", AccessDeniedException.class);
+		assertRefused(root.getPath() + "/missing.txt", NoSuchFileException.class);
+	}
+
+	@Test
+	public void resolve_refusesLinksLeavingRoot() throws Exception {
+		Files.createSymbolicLink(new File(root, "link.txt").toPath(), outside.toPath());
+		Files.createSymbolicLink(new File(root, "inside.txt").toPath(), new File(root, "document.txt").toPath());
+
+		assertRefused(root.getPath() + "/link.txt", AccessDeniedException.class);
+		assertThat(resolver.resolve(root.getPath() + "/inside.txt"))
+				.isEqualTo(new File(root, "document.txt").toPath().toRealPath());
+	}
+
+	private void assertRefused(String path, Class<? extends Exception> expected) {
+		try {
+			resolver.resolve(path);
+			fail("Expected " + path + " to be refused");
+		} catch (Exception e) {
+			assertThat(e).isInstanceOf(expected);
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.quota;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the token bucket.
+ *
+ * @author mlp
+ */
+public class TokenBucketTest {
+
+	private static final long GB = 1024L * 1024 * 1024;
+
+	@Test
+	public void tryAcquire_refillsAtHighRate() throws Exception {
+		// Several tokens are refilled every nanosecond
+		TokenBucket bucket = new TokenBucket(3 * GB, 3 * GB, 0);
+		assertThat(bucket.tryAcquire(3 * GB, 0)).isEqualTo(0);
+		assertThat(bucket.getAvailable(0)).isEqualTo(0);
+
+		final long halfSecond = TimeUnit.MILLISECONDS.toNanos(500);
+		assertThat(bucket.getAvailable(halfSecond)).isBetween(3 * GB / 2 - 1, 3 * GB / 2);
+		assertThat(bucket.tryAcquire(GB, halfSecond)).isEqualTo(0);
+		assertThat(bucket.tryAcquire(GB, halfSecond)).isGreaterThan(0);
+	}
+
+	@Test
+	public void tryAcquire_keepsFractionalInterval() throws Exception {
+		// 1.5 million tokens a second is 666.67ns per token
+		TokenBucket bucket = new TokenBucket(1_500_000, 1_500_000, 0);
+		assertThat(bucket.tryAcquire(1_500_000, 0)).isEqualTo(0);
+
+		final long oneSecond = TimeUnit.SECONDS.toNanos(1);
+		assertThat(bucket.tryAcquire(1_500_000, oneSecond)).isEqualTo(0);
+		assertThat(bucket.getAvailable(oneSecond)).isEqualTo(0);
+	}
+
+	@Test
+	public void refund_returnsTokens() throws Exception {
+		TokenBucket bucket = new TokenBucket(3 * GB, GB, 0);
+		assertThat(bucket.tryAcquire(GB, 0)).isEqualTo(0);
+		bucket.refund(GB);
+		// Within the tokens refilled in a nanosecond
+		assertThat(bucket.getAvailable(0)).isBetween(GB - 4, GB);
+	}
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.quota;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import io.dropwizard.jackson.Jackson;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.flax.tika.config.AuthenticationConfiguration;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for the per-user quotas.
+ *
+ * @author mlp
+ */
+public class UserQuotasTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private final MetricRegistry metrics = new MetricRegistry();
+	private final FakeTicker ticker = new FakeTicker();
+
+	private UserQuotas quotas;
+
+	@Before
+	public void setup() throws Exception {
+		AuthenticationConfiguration config = MAPPER.readValue("{\"enabled\": true, "
+				+ "\"defaultQuota\": {\"requestsPerSecond\": 2, \"requestBurst\": 2}, "
+				+ "\"quotas\": {"
+				+ "\"fred\": {\"bytesPerSecond\": \"1KB\", \"byteBurst\": \"2KB\"}, "
+				+ "\"john\": {\"maxConcurrent\": 1}}}", AuthenticationConfiguration.class);
+		quotas = new UserQuotas(config.getDefaultQuota(), config.getQuotas(), metrics, ticker);
+	}
+
+	@Test
+	public void acquire_limitsRequestRate() throws Exception {
+		quotas.acquire("bill", 0).close();
+		quotas.acquire("bill", 0).close();
+		assertRejected("bill", 0, 1);
+
+		// Each user has their own limit
+		quotas.acquire("ben", 0).close();
+
+		// One request is allowed every half second
+		ticker.advance(500);
+		quotas.acquire("bill", 0).close();
+		assertRejected("bill", 0, 1);
+
+		assertThat(metrics.meter(name(UserQuotas.class, "bill", "requests")).getCount()).isEqualTo(3);
+		assertThat(metrics.meter(name(UserQuotas.class, "bill", "rejected")).getCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void acquire_limitsBytes() throws Exception {
+		assertThat(quotas.isLengthRequired("fred")).isTrue();
+		assertThat(quotas.isLengthRequired("bill")).isFalse();
+
+		quotas.acquire("fred", 1024).close();
+		quotas.acquire("fred", 1024).close();
+		assertRejected("fred", 1, 1);
+
+		// A request larger than the burst is allowed once the bucket is full,
+		// and must then be paid off
+		ticker.advance(2100);
+		quotas.acquire("fred", 5120).close();
+		assertRejected("fred", 1, 4);
+		ticker.advance(4000);
+		quotas.acquire("fred", 1).close();
+
+		assertThat(metrics.meter(name(UserQuotas.class, "fred", "bytes")).getCount()).isEqualTo(7169);
+	}
+
+	@Test
+	public void acquire_limitsConcurrentRequests() throws Exception {
+		UserQuotas.Permit permit = quotas.acquire("john", 0);
+		assertThat(metrics.getGauges().get(name(UserQuotas.class, "john", "in-flight")).getValue()).isEqualTo(1);
+		assertRejected("john", 0, 1);
+
+		permit.close();
+		permit.close();
+		assertThat(metrics.getGauges().get(name(UserQuotas.class, "john", "in-flight")).getValue()).isEqualTo(0);
+		quotas.acquire("john", 0).close();
+	}
+
+	private void assertRejected(String user, long length, int retryAfterSeconds) {
+		try {
+			quotas.acquire(user, length);
+			fail("Expected request for " + user + " to be rejected");
+		} catch (QuotaExceededException e) {
+			assertThat(e.getRetryAfterSeconds()).isEqualTo(retryAfterSeconds);
+		}
+	}
+
+
+	private static class FakeTicker extends Ticker {
+
+		private long nanos = 1000;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+
+		void advance(long millis) {
+			nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+	}
+
+}
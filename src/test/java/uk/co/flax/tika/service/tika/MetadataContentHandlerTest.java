@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import static org.apache.tika.metadata.HttpHeaders.CONTENT_TYPE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for the metadata-only content handler.
+ *
+ * @author mlp
+ */
+public class MetadataContentHandlerTest {
+
+	private static final MediaTypeRegistry MEDIA_TYPES = MediaTypeRegistry.getDefaultRegistry();
+
+	@Test
+	public void isEarlyStopType_onlyTypesWithMetadataFirst() {
+		MetadataContentHandler handler = new MetadataContentHandler(MEDIA_TYPES, new Metadata());
+
+		assertThat(handler.isEarlyStopType(MediaType.application("pdf"))).isTrue();
+		assertThat(handler.isEarlyStopType(
+				MediaType.application("vnd.openxmlformats-officedocument.wordprocessingml.document"))).isTrue();
+		assertThat(handler.isEarlyStopType(MediaType.application("msword"))).isTrue();
+		assertThat(handler.isEarlyStopType(MediaType.image("jpeg"))).isTrue();
+
+		assertThat(handler.isEarlyStopType(MediaType.image("svg+xml"))).isFalse();
+		assertThat(handler.isEarlyStopType(MediaType.application("vnd.oasis.opendocument.text"))).isFalse();
+		assertThat(handler.isEarlyStopType(MediaType.TEXT_HTML)).isFalse();
+		assertThat(handler.isEarlyStopType(null)).isFalse();
+	}
+
+	@Test
+	public void startElement_stopsAtBody() throws Exception {
+		Metadata metadata = new Metadata();
+		metadata.set(CONTENT_TYPE, "application/pdf");
+		MetadataContentHandler handler = new MetadataContentHandler(MEDIA_TYPES, metadata);
+
+		handler.startElement(XHTMLContentHandler.XHTML, "head", "head", new AttributesImpl());
+		try {
+			handler.startElement(XHTMLContentHandler.XHTML, "body", "body", new AttributesImpl());
+			fail("Expected parse to stop at the body");
+		} catch (SAXException e) {
+			assertThat(handler.isBodyStarted(new SAXException(e))).isTrue();
+			assertThat(new MetadataContentHandler(MEDIA_TYPES, metadata).isBodyStarted(e)).isFalse();
+		}
+	}
+
+	@Test
+	public void startElement_parsesOtherTypesInFull() throws Exception {
+		Metadata metadata = new Metadata();
+		metadata.set(CONTENT_TYPE, "application/vnd.oasis.opendocument.text");
+		MetadataContentHandler handler = new MetadataContentHandler(MEDIA_TYPES, metadata);
+
+		handler.startElement(XHTMLContentHandler.XHTML, "body", "body", new AttributesImpl());
+		handler.startElement(XHTMLContentHandler.XHTML, "p", "p", new AttributesImpl());
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for PageRange.
+ *
+ * @author mlp
+ */
+public class PageRangeTest {
+
+	@Test
+	public void parse_acceptsSinglePagesAndRanges() {
+		PageRange single = PageRange.parse("3");
+		assertThat(single.getFirst()).isEqualTo(3);
+		assertThat(single.getLast()).isEqualTo(3);
+		assertThat(single.contains(3)).isTrue();
+		assertThat(single.isPastEnd(4)).isTrue();
+
+		PageRange closed = PageRange.parse(" 2 - 5 ");
+		assertThat(closed.contains(1)).isFalse();
+		assertThat(closed.contains(5)).isTrue();
+		assertThat(closed.isPastEnd(6)).isTrue();
+		assertThat(closed.toString()).isEqualTo("2-5");
+
+		PageRange open = PageRange.parse("10-");
+		assertThat(open.getLast()).isEqualTo(0);
+		assertThat(open.contains(100000)).isTrue();
+		assertThat(open.isPastEnd(100000)).isFalse();
+		assertThat(PageRange.parse(open.toString()).getFirst()).isEqualTo(10);
+	}
+
+	@Test
+	public void parse_rejectsInvalidRanges() {
+		for (String range : new String[] { "", "0", "-3", "5-2", "a-b", "1-2-3" }) {
+			try {
+				PageRange.parse(range);
+				fail("Expected " + range + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage()).contains("Invalid page range");
+			}
+		}
+	}
+
+}
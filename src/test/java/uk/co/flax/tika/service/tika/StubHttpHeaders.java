@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal HttpHeaders implementation backed by a map, for use when
+ * running the extractor outside of a request.
+ *
+ * @author mlp
+ */
+public class StubHttpHeaders implements HttpHeaders {
+
+	private final MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+
+	public StubHttpHeaders header(String name, String value) {
+		headers.add(name, value);
+		return this;
+	}
+
+	@Override
+	public List<String> getRequestHeader(String name) {
+		return headers.get(name);
+	}
+
+	@Override
+	public String getHeaderString(String name) {
+		return headers.getFirst(name);
+	}
+
+	@Override
+	public MultivaluedMap<String, String> getRequestHeaders() {
+		return headers;
+	}
+
+	@Override
+	public List<MediaType> getAcceptableMediaTypes() {
+		return Collections.singletonList(MediaType.WILDCARD_TYPE);
+	}
+
+	@Override
+	public List<Locale> getAcceptableLanguages() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public MediaType getMediaType() {
+		final String type = headers.getFirst(CONTENT_TYPE);
+		return type == null ? null : MediaType.valueOf(type);
+	}
+
+	@Override
+	public Locale getLanguage() {
+		return null;
+	}
+
+	@Override
+	public Map<String, Cookie> getCookies() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Date getDate() {
+		return null;
+	}
+
+	@Override
+	public int getLength() {
+		final String length = headers.getFirst(CONTENT_LENGTH);
+		return length == null ? -1 : Integer.parseInt(length);
+	}
+
+}
@@ -0,0 +1,464 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.tika;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.flax.tika.api.TikaDocument;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.co.flax.tika.resources.TikaResource.DETECT_OPKEY;
+import static uk.co.flax.tika.resources.TikaResource.FULLDATA_OPKEY;
+import static uk.co.flax.tika.resources.TikaResource.METADATA_OPKEY;
+import static uk.co.flax.tika.resources.TikaResource.TEXT_OPKEY;
+
+/**
+ * Unit tests for the TikaExtractor, using a shared parser registry.
+ *
+ * @author mlp
+ */
+public class TikaExtractorTest {
+
+	private static final String HTML = "<html><head><title>Test title</title></head>"
+			+ "<body><p>This is the text of our test document</p></body></html>";
+
+	private static TikaParserRegistry registry;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void buildRegistry() throws Exception {
+		registry = new TikaParserRegistry();
+	}
+
+	@Test
+	public void extract_declaredContentType() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(registry,
+				new StubHttpHeaders().header(HttpHeaders.CONTENT_TYPE, "text/html"), stream(HTML), FULLDATA_OPKEY);
+		extractor.extract();
+
+		assertThat(extractor.getBodyText()).contains("This is the text of our test document");
+		assertThat(extractor.getMetadataAsMap()).containsEntry("title", "Test title");
+	}
+
+	@Test
+	public void extract_detectsGenericBinaryType() throws Exception {
+		Metadata metadata = new Metadata();
+		metadata.set(Metadata.CONTENT_TYPE, "application/octet-stream");
+		TikaExtractor extractor = new TikaExtractor(registry, metadata, stream(HTML), FULLDATA_OPKEY);
+		extractor.extract();
+
+		assertThat(extractor.getMetadata().get(Metadata.CONTENT_TYPE)).startsWith("text/html");
+		assertThat(extractor.getMetadataAsMap()).containsEntry("title", "Test title");
+	}
+
+	@Test
+	public void extract_detectedFromFileName() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(registry,
+				new StubHttpHeaders().header("File-Name", "test.html"), stream(HTML), METADATA_OPKEY);
+		extractor.extract();
+
+		assertThat(extractor.getMetadata().get("Content-Type")).startsWith("text/html");
+		assertThat(extractor.getBodyText()).isEmpty();
+	}
+
+	@Test
+	public void extract_octetStreamUsesDetection() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(registry,
+				new StubHttpHeaders().header(HttpHeaders.CONTENT_TYPE, "application/octet-stream"),
+				stream("Some plain text"), TEXT_OPKEY);
+		extractor.extract();
+
+		assertThat(extractor.getMetadata().get("Content-Type")).startsWith("text/plain");
+		assertThat(extractor.getBodyText()).contains("Some plain text");
+	}
+
+	@Test
+	public void extractText_streamsLargeDocument() throws Exception {
+		final long documentSize = 64L * 1024 * 1024;
+		final GeneratedTextStream input = new GeneratedTextStream(documentSize);
+		final LagTrackingWriter output = new LagTrackingWriter(input);
+
+		TikaExtractor extractor = new TikaExtractor(registry,
+				new StubHttpHeaders().header(HttpHeaders.CONTENT_TYPE, "text/plain"), input, TEXT_OPKEY);
+		extractor.extractText(output);
+
+		assertThat(output.written).isGreaterThanOrEqualTo(documentSize);
+		assertThat(extractor.getBodyText()).isNull();
+		// Text must reach the writer as the document is read, never buffering more than a small window
+		assertThat(output.maxLag).isLessThan(1024 * 1024);
+	}
+
+	@Test
+	public void extract_stopsAtCharacterLimit() throws Exception {
+		final long documentSize = 64L * 1024 * 1024;
+		final GeneratedTextStream input = new GeneratedTextStream(documentSize);
+
+		TikaExtractor extractor = new TikaExtractor(registry,
+				new StubHttpHeaders().header(HttpHeaders.CONTENT_TYPE, "text/plain"), input, FULLDATA_OPKEY);
+		extractor.setMaxCharacters(1000);
+		extractor.extract();
+
+		assertThat(extractor.getBodyText()).hasSize(1000);
+		assertThat(extractor.isTruncated()).isTrue();
+		assertThat(extractor.buildDocument().isTruncated()).isTrue();
+		// The parse should be abandoned long before the end of the document
+		assertThat(input.read).isLessThan(1024 * 1024);
+	}
+
+	@Test
+	public void extract_notTruncatedUnderCharacterLimit() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(registry,
+				new StubHttpHeaders().header(HttpHeaders.CONTENT_TYPE, "text/html"), stream(HTML), FULLDATA_OPKEY);
+		extractor.setMaxCharacters(1000);
+		extractor.extract();
+
+		assertThat(extractor.getBodyText()).contains("This is the text of our test document");
+		assertThat(extractor.isTruncated()).isFalse();
+	}
+
+	@Test
+	public void extract_metadataStopsAtBody() throws Exception {
+		final byte[] pdf = buildPdf("PDF test title", 50);
+
+		TikaExtractor full = new TikaExtractor(registry, TikaExtractor.buildMetadata("test.pdf", null),
+				new ByteArrayInputStream(pdf), FULLDATA_OPKEY);
+		full.extract();
+		TikaExtractor metadataOnly = new TikaExtractor(registry, TikaExtractor.buildMetadata("test.pdf", null),
+				new ByteArrayInputStream(pdf), METADATA_OPKEY);
+		metadataOnly.extract();
+
+		assertThat(full.getBodyText()).contains("Page 50");
+		assertThat(metadataOnly.getMetadataAsMap()).containsEntry("title", "PDF test title");
+		assertThat(metadataOnly.getMetadataAsMap()).isEqualTo(full.getMetadataAsMap());
+	}
+
+	@Test
+	public void detect_readsOnlyPrefix() throws Exception {
+		final GeneratedTextStream input = new GeneratedTextStream(64L * 1024 * 1024);
+
+		TikaExtractor extractor = new TikaExtractor(registry, new StubHttpHeaders(), input, DETECT_OPKEY);
+		assertThat(extractor.detect().toString()).isEqualTo("text/plain");
+		assertThat(extractor.isInputConsumed()).isFalse();
+		assertThat(input.read).isLessThanOrEqualTo(registry.getConfig().getMimeRepository().getMinLength());
+		assertThat(extractor.buildDocument().getMetadata()).containsEntry("Content-Type", "text/plain");
+
+		extractor = new TikaExtractor(registry, new StubHttpHeaders().header("File-Name", "test.html"),
+				stream(HTML), DETECT_OPKEY);
+		assertThat(extractor.detect().toString()).isEqualTo("text/html");
+		assertThat(extractor.isInputConsumed()).isTrue();
+	}
+
+	@Test
+	public void extract_readsFileBackedStream() throws Exception {
+		final byte[] pdf = buildPdf("PDF test title", 5);
+		final File file = folder.newFile("test.pdf");
+		Files.write(file.toPath(), pdf);
+		MetricRegistry metricRegistry = new MetricRegistry();
+		ExtractionMetrics metrics = new ExtractionMetrics(registry.getConfig().getMediaTypeRegistry(), metricRegistry);
+
+		try (TikaInputStream input = TikaInputStream.get(file.toPath())) {
+			TikaExtractor extractor = new TikaExtractor(registry, null, metrics,
+					TikaExtractor.buildMetadata(null, null), input, FULLDATA_OPKEY);
+			extractor.extract();
+
+			assertThat(extractor.getBodyText()).contains("Page 5");
+			assertThat(extractor.getMetadataAsMap()).containsEntry("title", "PDF test title");
+		}
+		assertThat(metricRegistry.histogram(name(ExtractionMetrics.class, "application/pdf", "input-bytes"))
+				.getSnapshot().getMax()).isEqualTo(pdf.length);
+	}
+
+	@Test
+	public void extract_recordsMetricsByType() throws Exception {
+		MetricRegistry metricRegistry = new MetricRegistry();
+		ExtractionMetrics metrics = new ExtractionMetrics(registry.getConfig().getMediaTypeRegistry(), metricRegistry);
+
+		TikaExtractor extractor = new TikaExtractor(registry, null, metrics,
+				TikaExtractor.buildMetadata("test.html", null), stream(HTML), FULLDATA_OPKEY);
+		extractor.extract();
+
+		assertThat(metricRegistry.timer(name(ExtractionMetrics.class, "text/html", "detect")).getCount()).isEqualTo(1);
+		assertThat(metricRegistry.timer(name(ExtractionMetrics.class, "text/html", "parse")).getCount()).isEqualTo(1);
+		assertThat(metricRegistry.histogram(name(ExtractionMetrics.class, "text/html", "input-bytes"))
+				.getSnapshot().getMax()).isEqualTo(HTML.length());
+		assertThat(metricRegistry.histogram(name(ExtractionMetrics.class, "text/html", "output-chars"))
+				.getSnapshot().getMax()).isEqualTo(extractor.getBodyText().length());
+	}
+
+	@Test
+	public void extractRecursive_streamsEmbeddedDocuments() throws Exception {
+		final byte[] archive = buildZip("a.txt", "Alpha text".getBytes(StandardCharsets.UTF_8),
+				"inner.zip", buildZip("b.txt", "Beta text".getBytes(StandardCharsets.UTF_8)));
+		final List<TikaDocument> documents = new ArrayList<>();
+
+		TikaExtractor extractor = new TikaExtractor(registry, TikaExtractor.buildMetadata("outer.zip", null),
+				new ByteArrayInputStream(archive), FULLDATA_OPKEY);
+		extractor.extractRecursive(collect(documents), 10, 100);
+
+		// Each document is passed on once finished, so containers follow their contents
+		assertThat(paths(documents)).containsExactly("/a.txt", "/inner.zip/b.txt", "/inner.zip", TikaExtractor.ROOT_PATH);
+		assertThat(documents.get(0).getText()).contains("Alpha text");
+		assertThat(documents.get(0).getMetadata()).containsEntry("Content-Type", "text/plain; charset=ISO-8859-1");
+		assertThat(documents.get(1).getText()).contains("Beta text");
+		assertThat(documents.get(3).getText()).doesNotContain("Alpha text").doesNotContain("Beta text");
+		assertThat(documents.get(3).getMetadata()).doesNotContainKey("X-TIKA:EXCEPTION:embedded_resource_limit_reached");
+	}
+
+	@Test
+	public void extractRecursive_limitsDepthAndCount() throws Exception {
+		final byte[] archive = buildZip("a.txt", "Alpha text".getBytes(StandardCharsets.UTF_8),
+				"inner.zip", buildZip("b.txt", "Beta text".getBytes(StandardCharsets.UTF_8)));
+
+		final List<TikaDocument> shallow = new ArrayList<>();
+		new TikaExtractor(registry, new Metadata(), new ByteArrayInputStream(archive), METADATA_OPKEY)
+				.extractRecursive(collect(shallow), 1, 100);
+		assertThat(paths(shallow)).containsExactly("/a.txt", "/inner.zip", TikaExtractor.ROOT_PATH);
+		assertThat(shallow.get(2).getMetadata()).containsEntry("X-TIKA:EXCEPTION:embedded_resource_limit_reached", "true");
+
+		final List<TikaDocument> few = new ArrayList<>();
+		new TikaExtractor(registry, new Metadata(), new ByteArrayInputStream(archive), METADATA_OPKEY)
+				.extractRecursive(collect(few), 10, 1);
+		assertThat(paths(few)).containsExactly("/a.txt", TikaExtractor.ROOT_PATH);
+	}
+
+	@Test
+	public void extract_limitsTextToPageRange() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(registry, TikaExtractor.buildMetadata("test.pdf", null),
+				new ByteArrayInputStream(buildPdf("Pages", 5)), FULLDATA_OPKEY);
+		extractor.setPageRange(PageRange.parse("2-3"));
+		extractor.extract();
+
+		assertThat(extractor.getBodyText()).contains("Page 2", "Page 3").doesNotContain("Page 1").doesNotContain("Page 4");
+		assertThat(extractor.getPagesReturned()).isEqualTo("2-3");
+		assertThat(extractor.buildDocument().getPages()).isEqualTo("2-3");
+		assertThat(extractor.isTruncated()).isFalse();
+		// The metadata still describes the whole document
+		assertThat(extractor.getMetadata().get("xmpTPg:NPages")).isEqualTo("5");
+
+		extractor = new TikaExtractor(registry, TikaExtractor.buildMetadata("test.pdf", null),
+				new ByteArrayInputStream(buildPdf("Pages", 5)), TEXT_OPKEY);
+		extractor.setPageRange(PageRange.parse("4-"));
+		extractor.extract();
+		assertThat(extractor.getBodyText()).contains("Page 4", "Page 5").doesNotContain("Page 3");
+		assertThat(extractor.getPagesReturned()).isEqualTo("4-5");
+
+		extractor = new TikaExtractor(registry, TikaExtractor.buildMetadata("test.pdf", null),
+				new ByteArrayInputStream(buildPdf("Pages", 5)), TEXT_OPKEY);
+		extractor.setPageRange(PageRange.parse("9"));
+		extractor.extract();
+		assertThat(extractor.getBodyText()).doesNotContain("Page");
+		assertThat(extractor.getPagesReturned()).isEmpty();
+	}
+
+	@Test
+	public void extract_limitsTextToSlideRange() throws Exception {
+		final ByteArrayOutputStream pptx = new ByteArrayOutputStream();
+		try (XMLSlideShow slides = new XMLSlideShow()) {
+			for (int i = 1; i <= 4; i++) {
+				slides.createSlide().createTextBox().setText("Slide " + i);
+			}
+			slides.write(pptx);
+		}
+
+		TikaExtractor extractor = new TikaExtractor(registry, TikaExtractor.buildMetadata("test.pptx", null),
+				new ByteArrayInputStream(pptx.toByteArray()), TEXT_OPKEY);
+		extractor.setPageRange(PageRange.parse("3"));
+		extractor.extract();
+
+		assertThat(extractor.getBodyText()).contains("Slide 3").doesNotContain("Slide 2").doesNotContain("Slide 4");
+		assertThat(extractor.getPagesReturned()).isEqualTo("3-3");
+	}
+
+	@Test
+	public void extract_pageRangeIgnoredWithoutPages() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(registry,
+				new StubHttpHeaders().header(HttpHeaders.CONTENT_TYPE, "text/html"), stream(HTML), FULLDATA_OPKEY);
+		extractor.setPageRange(PageRange.parse("2-3"));
+		extractor.extract();
+
+		assertThat(extractor.getBodyText()).contains("This is the text of our test document");
+		assertThat(extractor.buildDocument().getPages()).isNull();
+	}
+
+	@Test
+	public void getMetricType_limitsUnknownTypes() {
+		ExtractionMetrics metrics = new ExtractionMetrics(registry.getConfig().getMediaTypeRegistry(), new MetricRegistry());
+
+		assertThat(metrics.getMetricType(MediaType.parse("text/plain; charset=UTF-8"))).isEqualTo("text/plain");
+		assertThat(metrics.getMetricType(MediaType.application("x-made-up-123"))).isEqualTo(ExtractionMetrics.OTHER_TYPE);
+		assertThat(metrics.getMetricType(new Metadata())).isEqualTo(ExtractionMetrics.OTHER_TYPE);
+	}
+
+	private static byte[] buildPdf(String title, int pages) throws IOException {
+		try (PDDocument doc = new PDDocument()) {
+			doc.getDocumentInformation().setTitle(title);
+			for (int i = 1; i <= pages; i++) {
+				final PDPage page = new PDPage();
+				doc.addPage(page);
+				try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+					content.beginText();
+					content.setFont(PDType1Font.HELVETICA, 12);
+					content.newLineAtOffset(50, 700);
+					content.showText("Page " + i);
+					content.endText();
+				}
+			}
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			doc.save(out);
+			return out.toByteArray();
+		}
+	}
+
+	private static byte[] buildZip(Object... namesAndContent) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int i = 0; i < namesAndContent.length; i += 2) {
+				zip.putNextEntry(new ZipEntry((String) namesAndContent[i]));
+				zip.write((byte[]) namesAndContent[i + 1]);
+				zip.closeEntry();
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static TikaExtractor.DocumentSink collect(final List<TikaDocument> documents) {
+		return new TikaExtractor.DocumentSink() {
+			@Override
+			public void add(TikaDocument document) {
+				documents.add(document);
+			}
+		};
+	}
+
+	private static List<String> paths(List<TikaDocument> documents) {
+		final List<String> ret = new ArrayList<>();
+		for (TikaDocument document : documents) {
+			ret.add(document.getPath());
+		}
+		return ret;
+	}
+
+	private static ByteArrayInputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Generates a plain text document of the given size on the fly, without
+	 * holding it in memory.
+	 */
+	private static class GeneratedTextStream extends InputStream {
+
+		private static final byte[] LINE = "The quick brown fox jumps over the lazy dog.\n".getBytes(StandardCharsets.US_ASCII);
+
+		private final long size;
+		private long read;
+		private long mark;
+
+		GeneratedTextStream(long size) {
+			this.size = size;
+		}
+
+		@Override
+		public int read() {
+			return read < size ? LINE[(int) (read++ % LINE.length)] : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (read >= size) {
+				return -1;
+			}
+			int count = (int) Math.min(len, size - read);
+			for (int i = 0; i < count; i++) {
+				b[off + i] = LINE[(int) (read++ % LINE.length)];
+			}
+			return count;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			mark = read;
+		}
+
+		@Override
+		public synchronized void reset() {
+			read = mark;
+		}
+	}
+
+	/**
+	 * Discards the text written to it, tracking how far the output lags
+	 * behind the input read so far.
+	 */
+	private static class LagTrackingWriter extends Writer {
+
+		private final GeneratedTextStream input;
+		private long written;
+		private long maxLag;
+
+		LagTrackingWriter(GeneratedTextStream input) {
+			this.input = input;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			maxLag = Math.max(maxLag, input.read - written);
+			written += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.upload;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.dropwizard.jackson.Jackson;
+import org.apache.tika.io.TikaInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.flax.tika.config.UploadConfiguration;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Unit tests for the UploadSpooler.
+ *
+ * @author mlp
+ */
+public class UploadSpoolerTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final MetricRegistry metrics = new MetricRegistry();
+
+	@Test
+	public void spool_holdsSmallUploadsInMemory() throws Exception {
+		UploadSpooler spooler = startSpooler("100 bytes");
+
+		try (SpooledUpload upload = spooler.spool(stream("Document content"), -1, true)) {
+			assertThat(upload.isOnDisk()).isFalse();
+			assertThat(upload.getLength()).isEqualTo(16);
+			assertThat(upload.getHash()).isEqualTo(Hashing.sha256().hashString("Document content", StandardCharsets.UTF_8));
+			assertThat(read(upload.getInputStream())).isEqualTo("Document content");
+		}
+		assertThat(folder.getRoot().list()).isEmpty();
+		assertThat(metrics.meter(name(UploadSpooler.class, "memory")).getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void spool_writesLargeUploadsToDisk() throws Exception {
+		UploadSpooler spooler = startSpooler("100 bytes");
+		final String content = Strings.repeat("Document content ", 20);
+
+		// Declared to be too large, or found to be too large once read
+		for (long contentLength : new long[]{ content.length(), -1, 10 }) {
+			try (SpooledUpload upload = spooler.spool(stream(content), contentLength, true)) {
+				assertThat(upload.isOnDisk()).isTrue();
+				assertThat(upload.getLength()).isEqualTo(content.length());
+				assertThat(upload.getHash()).isEqualTo(Hashing.sha256().hashString(content, StandardCharsets.UTF_8));
+				assertThat(folder.getRoot().list()).hasSize(1);
+
+				InputStream input = upload.getInputStream();
+				assertThat(TikaInputStream.isTikaInputStream(input)).isTrue();
+				assertThat(((TikaInputStream) input).hasFile()).isTrue();
+				assertThat(read(input)).isEqualTo(content);
+			}
+			assertThat(folder.getRoot().list()).isEmpty();
+		}
+		assertThat(metrics.meter(name(UploadSpooler.class, "disk")).getCount()).isEqualTo(3);
+	}
+
+	@Test
+	public void start_deletesLeftoverFiles() throws Exception {
+		File leftover = File.createTempFile(UploadSpooler.FILE_PREFIX, ".tmp", folder.getRoot());
+		File other = folder.newFile("other.tmp");
+
+		startSpooler("100 bytes");
+		assertThat(leftover).doesNotExist();
+		assertThat(other).exists();
+	}
+
+	@Test
+	public void spool_refusesDeclaredLengthOverMaximum() throws Exception {
+		UploadSpooler spooler = startSpooler("10 bytes", "20 bytes");
+		final ByteArrayInputStream input = stream("Document content which is too long");
+
+		try {
+			spooler.spool(input, 34, false);
+			fail("Expected the upload to be refused");
+		} catch (UploadTooLargeException e) {
+			assertThat(e.getMaxSize()).isEqualTo(20);
+		}
+		// Nothing should have been read
+		assertThat(input.available()).isEqualTo(34);
+	}
+
+	@Test
+	public void spool_refusesUndeclaredUploadOverMaximumInMemory() throws Exception {
+		assertRefusesUndeclaredUpload(startSpooler("100 bytes", "20 bytes"));
+	}
+
+	@Test
+	public void spool_refusesUndeclaredUploadOverMaximumOnDisk() throws Exception {
+		assertRefusesUndeclaredUpload(startSpooler("10 bytes", "20 bytes"));
+	}
+
+	@Test
+	public void spool_acceptsUploadOfMaximumSize() throws Exception {
+		UploadSpooler spooler = startSpooler("10 bytes", "16 bytes");
+
+		try (SpooledUpload upload = spooler.spool(stream("Document content"), -1, false)) {
+			assertThat(upload.isOnDisk()).isTrue();
+			assertThat(upload.getLength()).isEqualTo(16);
+		}
+	}
+
+	@Test
+	public void getInFlightBytes_countsOpenUploads() throws Exception {
+		UploadSpooler spooler = startSpooler("10 bytes");
+
+		SpooledUpload small = spooler.spool(stream("Small"), -1, false);
+		SpooledUpload large = spooler.spool(stream("Document content"), -1, false);
+		assertThat(spooler.getInFlightBytes()).isEqualTo(21);
+
+		large.close();
+		large.close();
+		assertThat(spooler.getInFlightBytes()).isEqualTo(5);
+		small.close();
+		assertThat(spooler.getInFlightBytes()).isEqualTo(0);
+	}
+
+	private void assertRefusesUndeclaredUpload(UploadSpooler spooler) throws Exception {
+		try {
+			spooler.spool(stream("Document content which is too long"), -1, false);
+			fail("Expected the upload to be refused");
+		} catch (UploadTooLargeException e) {
+			assertThat(e.getMaxSize()).isEqualTo(20);
+		}
+		// The partial file is deleted
+		assertThat(folder.getRoot().listFiles()).isEmpty();
+		assertThat(spooler.getInFlightBytes()).isZero();
+	}
+
+	private UploadSpooler startSpooler(String memoryThreshold) throws Exception {
+		return startSpooler(memoryThreshold, "1MB");
+	}
+
+	private UploadSpooler startSpooler(String memoryThreshold, String maxUploadSize) throws Exception {
+		UploadConfiguration config = MAPPER.readValue("{\"memoryThreshold\": \"" + memoryThreshold
+				+ "\", \"maxUploadSize\": \"" + maxUploadSize
+				+ "\", \"tempDirectory\": \"" + folder.getRoot().getAbsolutePath() + "\"}", UploadConfiguration.class);
+		UploadSpooler ret = new UploadSpooler(config, metrics);
+		ret.start();
+		return ret;
+	}
+
+	private static ByteArrayInputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(InputStream input) throws Exception {
+		return new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2016 Lemur Consulting Ltd.
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.co.flax.tika.service.warmup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.co.flax.tika.config.WarmupConfiguration;
+import uk.co.flax.tika.service.tika.TikaExtractor;
+import uk.co.flax.tika.service.tika.TikaParserRegistry;
+
+import java.io.InputStream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static uk.co.flax.tika.resources.TikaResource.TEXT_OPKEY;
+
+/**
+ * Unit tests for the startup warm-up.
+ *
+ * @author mlp
+ */
+public class WarmupTest {
+
+	private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+	private static TikaParserRegistry registry;
+
+	private final MetricRegistry metrics = new MetricRegistry();
+
+	@BeforeClass
+	public static void setupRegistry() throws Exception {
+		registry = new TikaParserRegistry();
+	}
+
+	@Test
+	public void samples_haveText() throws Exception {
+		for (String format : WarmupConfiguration.DEFAULT_FORMATS) {
+			try (InputStream input = Warmup.class.getResourceAsStream(Warmup.SAMPLE_PREFIX + format)) {
+				final TikaExtractor extractor = new TikaExtractor(registry,
+						TikaExtractor.buildMetadata("sample." + format, null), input, TEXT_OPKEY);
+				extractor.extract();
+				assertThat(extractor.getBodyText()).as(format).contains("the");
+			}
+		}
+	}
+
+	@Test
+	public void start_extractsEverySample() throws Exception {
+		final Warmup warmup = new Warmup(config("{\"iterations\": 2, \"threads\": 2}"), registry, null, MAPPER, metrics);
+		warmup.start();
+
+		assertThat(metrics.getCounters().get(name(Warmup.class, "failures")).getCount()).isZero();
+		assertThat(metrics.getGauges().get(name(Warmup.class, "duration")).getValue())
+				.isEqualTo(warmup.getDurationMillis());
+		assertThat(warmup.getDurationMillis()).isPositive();
+	}
+
+	@Test
+	public void start_doesNothingWhenDisabled() throws Exception {
+		final Warmup warmup = new Warmup(config("{\"enabled\": false}"), registry, null, MAPPER, metrics);
+		warmup.start();
+
+		assertThat(warmup.getDurationMillis()).isZero();
+	}
+
+	@Test
+	public void constructor_rejectsUnknownFormat() throws Exception {
+		try {
+			new Warmup(config("{\"formats\": [\"pdf\", \"xyz\"]}"), registry, null, MAPPER, metrics);
+			fail("Expected the unknown format to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage()).contains("xyz");
+		}
+	}
+
+	private static WarmupConfiguration config(String json) throws Exception {
+		return MAPPER.readValue(json, WarmupConfiguration.class);
+	}
+
+}